@@ -0,0 +1,106 @@
+package com.nexign.benchmarks;
+
+import com.nexign.brt.parser.CDRLineParser;
+import com.nexign.brt.parser.CDRRecord;
+import com.nexign.brt.service.BRTService;
+import com.nexign.common.cdr.BinaryCDRFormat;
+import com.nexign.common.cdr.BinaryCDRReader;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of one CDR message by the BRT, as done before the calls are rated.
+ * <p>
+ * A message is a batch of {@value #RECORDS} records, the default batch size of the CDR service, with the
+ * subscribers of {@code import.sql} calling each other and other operators. The CSV batch is parsed line by
+ * line as in {@code checkListCall}, with and without the Base64 decoding of the Kafka message; the binary
+ * batch is read in place as in {@code checkBinaryCall}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CDRParsingBenchmark {
+
+    private static final int RECORDS = 500;
+
+    private final BRTService brtService = new BRTService();
+    private final CDRRecord record = new CDRRecord();
+    private byte[] csv;
+    private byte[] base64;
+    private byte[] binary;
+
+    /**
+     * Generates the batch in the CSV, Base64 and binary encodings of the CDR service.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(ImportData.SEED);
+        StringBuilder lines = new StringBuilder();
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCDRFormat.HEADER_SIZE + RECORDS * BinaryCDRFormat.RECORD_SIZE);
+        BinaryCDRFormat.putHeader(buffer, RECORDS);
+
+        long start = ImportData.PERIOD_START;
+        for (int i = 0; i < RECORDS; i++) {
+            int callType = 1 + random.nextInt(2);
+            long caller = ImportData.CLIENTS[random.nextInt(ImportData.CLIENTS.length)][0];
+            long callee = random.nextBoolean()
+                    ? ImportData.CLIENTS[random.nextInt(ImportData.CLIENTS.length)][0]
+                    : 79000000000L + random.nextLong(1_000_000_000L);
+            start += random.nextInt(ImportData.MAX_CALL_SECONDS);
+            long end = start + random.nextInt(ImportData.MAX_CALL_SECONDS);
+
+            lines.append('0').append(callType).append(',').append(caller).append(',').append(callee).append(',')
+                    .append(start).append(',').append(end).append('\n');
+            BinaryCDRFormat.putRecord(buffer, (byte) callType, caller, callee, start, end);
+        }
+
+        csv = lines.toString().getBytes(StandardCharsets.US_ASCII);
+        base64 = Base64.getEncoder().encode(csv);
+        binary = buffer.array();
+    }
+
+    @Benchmark
+    public long parseCsvBatch() {
+        return parse(csv);
+    }
+
+    @Benchmark
+    public long decodeAndParseCsvBatch() {
+        return parse(brtService.decodeBytes(base64));
+    }
+
+    @Benchmark
+    public long readBinaryBatch() {
+        BinaryCDRReader reader = new BinaryCDRReader(ByteBuffer.wrap(binary));
+        long checksum = 0;
+        while (reader.next()) {
+            checksum += reader.getType() + reader.getCallerNumber() + reader.getCalleeNumber()
+                    + reader.getStartTime() + reader.getEndTime();
+        }
+        return checksum;
+    }
+
+    /**
+     * Parses a CSV batch into the reused record.
+     *
+     * @param message The ASCII bytes of the batch.
+     * @return A checksum of the parsed fields, so the parsing is not optimized away.
+     */
+    private long parse(byte[] message) {
+        CDRLineParser parser = new CDRLineParser(message);
+        long checksum = 0;
+        while (parser.next(record)) {
+            checksum += record.getCallType().ordinal() + record.getCallerNumber() + record.getCalleeNumber()
+                    + record.getStartTime() + record.getEndTime();
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,126 @@
+package com.nexign.benchmarks;
+
+import com.nexign.hrs.cache.ClientCache;
+import com.nexign.hrs.dto.ClientDTO;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups and updates of the HRS client cache from several threads at once.
+ * <p>
+ * The {@code readWrite} group runs three threads rating calls, which look up callers and callees, against
+ * one thread applying the client changelog, which puts clients with a changed tariff and so also moves them
+ * between the tariff indexes. The {@code readOnly} and {@code writeOnly} benchmarks run four threads of one kind.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientCacheBenchmark {
+
+    private static final int SUBSCRIBERS = 100_000;
+    private static final int KEYS = 1 << 16;
+    private static final int MASK = KEYS - 1;
+
+    private HrsFixture fixture;
+    private ClientCache clientCache;
+    private Long[] keys;
+    private ClientDTO[] originals;
+    private ClientDTO[] changes;
+
+    /**
+     * Position of a thread in the keys.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        /**
+         * Starts every thread at a different position.
+         */
+        @Setup(Level.Trial)
+        public void setUp() {
+            next = (int) (Thread.currentThread().getId() * 7919) & MASK;
+        }
+    }
+
+    /**
+     * Wires the HRS and caches the subscribers.
+     *
+     * @throws IOException if the journal directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new HrsFixture();
+        clientCache = fixture.clientCache;
+
+        long[] phoneNumbers = ImportData.phoneNumbers(SUBSCRIBERS, ImportData.SEED);
+        fixture.addClients(phoneNumbers);
+
+        SplittableRandom random = new SplittableRandom(ImportData.SEED);
+        keys = new Long[KEYS];
+        originals = new ClientDTO[KEYS];
+        changes = new ClientDTO[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            int index = random.nextInt(phoneNumbers.length);
+            keys[i] = phoneNumbers[index];
+            long tariffId = ImportData.tariffOf(index);
+            long changed = tariffId == ImportData.CLASSIC_TARIFF ? ImportData.MONTH_TARIFF : ImportData.CLASSIC_TARIFF;
+            originals[i] = new ClientDTO(phoneNumbers[index], tariffId);
+            changes[i] = new ClientDTO(phoneNumbers[index], changed);
+        }
+    }
+
+    /**
+     * Deletes the journal.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    /**
+     * Selects the next client to put: every pass over the keys switches the clients to the other tariff
+     * and the next pass switches them back.
+     *
+     * @param cursor The position of the thread.
+     * @return The client with its new tariff.
+     */
+    private ClientDTO nextChange(Cursor cursor) {
+        int next = cursor.next++;
+        return ((next / KEYS) & 1) == 0 ? changes[next & MASK] : originals[next & MASK];
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public ClientDTO get(Cursor cursor) {
+        return clientCache.getDataFromCache(keys[cursor.next++ & MASK]);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public void put(Cursor cursor) {
+        ClientDTO change = nextChange(cursor);
+        clientCache.putDataIntoCache(change.getMsisdn(), change);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public ClientDTO readOnly(Cursor cursor) {
+        return clientCache.getDataFromCache(keys[cursor.next++ & MASK]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void writeOnly(Cursor cursor) {
+        ClientDTO change = nextChange(cursor);
+        clientCache.putDataIntoCache(change.getMsisdn(), change);
+    }
+}
@@ -0,0 +1,92 @@
+package com.nexign.benchmarks;
+
+import com.google.gson.reflect.TypeToken;
+import com.nexign.brt.service.BRTService;
+import com.nexign.hrs.service.HRSService;
+import org.openjdk.jmh.annotations.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON encoding and decoding of a rating batch, as done for every {@code /payment-batch} request.
+ * <p>
+ * BRT encodes {@value #CALLS} calls, the default {@code hrs.payment.batch-size}, HRS decodes them and encodes
+ * the bills, BRT decodes the bills. Every step goes through the same service methods and Gson instances as
+ * the request does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GsonBenchmark {
+
+    private static final int CALLS = 500;
+
+    private final BRTService brtService = new BRTService();
+    private final HRSService hrsService = new HRSService();
+    private List<com.nexign.brt.dto.CallDTO> brtCalls;
+    private List<com.nexign.hrs.dto.BillDTO> hrsBills;
+    private String callsJson;
+    private String billsJson;
+
+    /**
+     * Generates the calls of the subscribers of {@code import.sql} and their bills.
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        SplittableRandom random = new SplittableRandom(ImportData.SEED);
+        brtCalls = new ArrayList<>(CALLS);
+        hrsBills = new ArrayList<>(CALLS);
+
+        long start = ImportData.PERIOD_START;
+        for (int i = 0; i < CALLS; i++) {
+            long[] caller = ImportData.CLIENTS[random.nextInt(ImportData.CLIENTS.length)];
+            long callee = random.nextBoolean()
+                    ? ImportData.CLIENTS[random.nextInt(ImportData.CLIENTS.length)][0]
+                    : 79000000000L + random.nextLong(1_000_000_000L);
+            start += random.nextInt(ImportData.MAX_CALL_SECONDS);
+
+            brtCalls.add(com.nexign.brt.dto.CallDTO.builder()
+                    .callType(random.nextBoolean() ? com.nexign.brt.model.CallType.INCOMING : com.nexign.brt.model.CallType.OUTCOMING)
+                    .callerNumber(caller[0])
+                    .calleeNumber(callee)
+                    .startTime(start)
+                    .endTime(start + random.nextInt(ImportData.MAX_CALL_SECONDS))
+                    .tariffId(caller[1])
+                    .build());
+            hrsBills.add(com.nexign.hrs.dto.BillDTO.builder()
+                    .phoneNumber(caller[0])
+                    .toPay(BigDecimal.valueOf(random.nextInt(1500), 1))
+                    .build());
+        }
+
+        callsJson = brtService.toJson(brtCalls);
+        billsJson = hrsService.listToJson(hrsBills);
+    }
+
+    @Benchmark
+    public String brtEncodeCalls() {
+        return brtService.toJson(brtCalls);
+    }
+
+    @Benchmark
+    public List<com.nexign.hrs.dto.CallDTO> hrsDecodeCalls() {
+        return hrsService.fromJson(callsJson, new TypeToken<>() {});
+    }
+
+    @Benchmark
+    public String hrsEncodeBills() {
+        return hrsService.listToJson(hrsBills);
+    }
+
+    @Benchmark
+    public List<com.nexign.brt.dto.BillDTO> brtDecodeBills() {
+        return brtService.decodeJson(billsJson, new TypeToken<>() {});
+    }
+}
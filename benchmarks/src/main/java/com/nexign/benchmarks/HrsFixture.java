@@ -0,0 +1,190 @@
+package com.nexign.benchmarks;
+
+import com.nexign.common.http.ServiceHttpClient;
+import com.nexign.hrs.cache.AllowanceStore;
+import com.nexign.hrs.cache.ClientCache;
+import com.nexign.hrs.cache.TariffCache;
+import com.nexign.hrs.journal.AllowanceJournal;
+import com.nexign.hrs.service.HRSService;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import javax.net.ssl.SSLSession;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * The rating engine of the HRS wired by hand, without a Spring context, a database or a network.
+ * <p>
+ * The tariffs come from {@code import.sql}, the package minutes are journaled to a temporary directory,
+ * the meters the service records on every call go to a simple registry, and BRT answers "not found" at once
+ * to the lookup of a callee missing from the client cache, so off-net calls measure the in-process cost only.
+ */
+final class HrsFixture {
+
+    private static final int SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    final HRSService hrsService = new HRSService();
+    final ClientCache clientCache = new ClientCache();
+    final TariffCache tariffCache = new TariffCache();
+    final AllowanceStore allowanceStore = new AllowanceStore();
+    private final AllowanceJournal allowanceJournal = new AllowanceJournal();
+    private final Path journalDir;
+
+    /**
+     * Wires the services and loads the tariffs.
+     *
+     * @throws IOException if the journal directory cannot be created
+     */
+    HrsFixture() throws IOException {
+        journalDir = Files.createTempDirectory("allowance-journal");
+        inject(allowanceJournal, "JOURNAL_DIR", journalDir.toString());
+        inject(allowanceJournal, "SEGMENT_BYTES", SEGMENT_BYTES);
+        inject(allowanceStore, "allowanceJournal", allowanceJournal);
+        inject(tariffCache, "tariffRepository", ImportData.tariffRepository());
+        inject(clientCache, "tariffCache", tariffCache);
+        inject(clientCache, "allowanceStore", allowanceStore);
+        inject(hrsService, "clientCache", clientCache);
+        inject(hrsService, "tariffCache", tariffCache);
+        inject(hrsService, "allowanceStore", allowanceStore);
+        inject(hrsService, "serviceHttpClient", new UnknownClientHttpClient());
+        inject(hrsService, "HOST", "localhost");
+        inject(hrsService, "FLUSH_EVERY", 1000);
+        inject(hrsService, "meterRegistry", new SimpleMeterRegistry());
+
+        hrsService.initMetrics();
+        tariffCache.load();
+        allowanceStore.restore();
+    }
+
+    /**
+     * Sets a field of a service, as the container does for {@code @Resource} and {@code @Value} fields.
+     *
+     * @param target The service.
+     * @param name   The name of the field.
+     * @param value  The value.
+     */
+    private static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name + " of " + target.getClass().getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Adds subscribers to the client cache, with the package minutes of their tariffs.
+     *
+     * @param phoneNumbers The phone numbers of the subscribers.
+     */
+    void addClients(long[] phoneNumbers) {
+        for (int i = 0; i < phoneNumbers.length; i++) {
+            clientCache.applyClientChange(phoneNumbers[i], ImportData.tariffOf(i));
+        }
+    }
+
+    /**
+     * Sets the package minutes of subscribers, whatever is left of their current package.
+     *
+     * @param phoneNumbers The phone numbers of the subscribers.
+     * @param tariffId     The tariff of the subscribers.
+     * @param minutes      The package minutes.
+     */
+    void resetPackages(long[] phoneNumbers, long tariffId, int minutes) {
+        for (long phoneNumber : phoneNumbers) {
+            allowanceStore.remove(phoneNumber);
+            allowanceStore.assign(phoneNumber, tariffId, minutes);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the package minutes, dropping the journal segments written so far.
+     */
+    void checkpoint() {
+        allowanceStore.checkpoint();
+    }
+
+    /**
+     * Deletes the journal directory.
+     */
+    void close() {
+        try (Stream<Path> paths = Files.walk(journalDir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * HTTP client answering every request with 404, as BRT does for a phone number that is not a client.
+     */
+    private static final class UnknownClientHttpClient extends ServiceHttpClient {
+
+        @Override
+        public HttpRequest get(String url) {
+            return HttpRequest.newBuilder(URI.create(url)).GET().build();
+        }
+
+        @Override
+        public CompletableFuture<HttpResponse<String>> sendAsync(HttpRequest request) {
+            return CompletableFuture.completedFuture(new NotFound(request));
+        }
+    }
+
+    /**
+     * Empty 404 response.
+     *
+     * @param request The request answered.
+     */
+    private record NotFound(HttpRequest request) implements HttpResponse<String> {
+
+        @Override
+        public int statusCode() {
+            return 404;
+        }
+
+        @Override
+        public Optional<HttpResponse<String>> previousResponse() {
+            return Optional.empty();
+        }
+
+        @Override
+        public HttpHeaders headers() {
+            return HttpHeaders.of(Map.of(), (name, value) -> true);
+        }
+
+        @Override
+        public String body() {
+            return "";
+        }
+
+        @Override
+        public Optional<SSLSession> sslSession() {
+            return Optional.empty();
+        }
+
+        @Override
+        public URI uri() {
+            return request.uri();
+        }
+
+        @Override
+        public HttpClient.Version version() {
+            return HttpClient.Version.HTTP_1_1;
+        }
+    }
+}
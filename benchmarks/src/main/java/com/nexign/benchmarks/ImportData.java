@@ -0,0 +1,138 @@
+package com.nexign.benchmarks;
+
+import com.nexign.hrs.model.Tariff;
+import com.nexign.hrs.repository.TariffRepository;
+
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Data of the benchmarks, in the shapes of the {@code import.sql} scripts of the HRS and the BRT.
+ * <p>
+ * The tariffs and the subscribers are the ones the services start with. Larger pools of subscribers
+ * are drawn from the same number range and alternate between the two tariffs, as the seeded ones do.
+ */
+final class ImportData {
+
+    static final long CLASSIC_TARIFF = 11L;
+    static final long MONTH_TARIFF = 12L;
+    static final int MONTHLY_LIMIT_MINUTES = 50;
+
+    /**
+     * The subscribers of {@code import.sql}: phone number and tariff.
+     */
+    static final long[][] CLIENTS = {
+            {79500493300L, 11}, {79432877546L, 12}, {79110824307L, 12}, {79729044156L, 11}, {79476869787L, 11},
+            {79345493670L, 11}, {79433478645L, 12}, {79180643455L, 12}, {79743042657L, 11}, {79474839234L, 11}
+    };
+
+    /**
+     * Start of the billing period of the emulator, 2024-01-01 in unix time.
+     */
+    static final long PERIOD_START = 1704067200L;
+    static final long MONTH_SECONDS = 30L * 24 * 3600;
+    static final int MAX_CALL_SECONDS = 3600;
+    static final long SEED = 42L;
+
+    private static final long FIRST_NUMBER = 79000000000L;
+    private static final long NUMBER_RANGE = 1_000_000_000L;
+
+    private ImportData() {
+    }
+
+    /**
+     * Creates the tariffs of {@code import.sql}.
+     *
+     * @return The classic and the monthly tariff.
+     */
+    static List<Tariff> tariffs() {
+        return List.of(
+                new Tariff(CLASSIC_TARIFF, "Классика", new BigDecimal("0.0"), new BigDecimal("1.5"),
+                        new BigDecimal("0.0"), new BigDecimal("2.5"), 0, new BigDecimal("0.0")),
+                new Tariff(MONTH_TARIFF, "Помесячный", new BigDecimal("0.0"), new BigDecimal("1.5"),
+                        new BigDecimal("0.0"), new BigDecimal("2.5"), MONTHLY_LIMIT_MINUTES, new BigDecimal("100.0")));
+    }
+
+    /**
+     * Creates a tariff repository returning the tariffs of {@code import.sql}, without a database.
+     *
+     * @return The repository; only {@code findAll()} is supported.
+     */
+    static TariffRepository tariffRepository() {
+        List<Tariff> tariffs = tariffs();
+        return (TariffRepository) Proxy.newProxyInstance(TariffRepository.class.getClassLoader(),
+                new Class<?>[] {TariffRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findAll" -> {
+                        if (args == null || args.length == 0) {
+                            yield tariffs;
+                        }
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "TariffRepository(import.sql)";
+                    default -> throw new UnsupportedOperationException(method.toString());
+                });
+    }
+
+    /**
+     * Draws distinct phone numbers of subscribers from the number range of {@code import.sql}.
+     *
+     * @param count The number of phone numbers.
+     * @param seed  The seed of the draw.
+     * @return The phone numbers, the subscribers of {@code import.sql} first.
+     */
+    static long[] phoneNumbers(int count, long seed) {
+        long[] numbers = new long[count];
+        Set<Long> seen = new HashSet<>();
+        int filled = 0;
+        for (long[] client : CLIENTS) {
+            if (filled == count) {
+                return numbers;
+            }
+            numbers[filled++] = client[0];
+            seen.add(client[0]);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        while (filled < count) {
+            long number = FIRST_NUMBER + random.nextLong(NUMBER_RANGE);
+            if (seen.add(number)) {
+                numbers[filled++] = number;
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Returns the tariff of a subscriber of a pool: the one of {@code import.sql} for the seeded subscribers,
+     * alternating between the classic and the monthly tariff for the others.
+     *
+     * @param index The index of the subscriber in the pool.
+     * @return The tariff ID.
+     */
+    static long tariffOf(int index) {
+        return index < CLIENTS.length ? CLIENTS[index][1] : (index % 2 == 0 ? CLASSIC_TARIFF : MONTH_TARIFF);
+    }
+
+    /**
+     * Draws a phone number that is not a subscriber of the operator.
+     *
+     * @param random      The random generator.
+     * @param subscribers The phone numbers of the subscribers, to avoid.
+     * @return The phone number.
+     */
+    static long otherOperatorNumber(SplittableRandom random, Set<Long> subscribers) {
+        while (true) {
+            long number = FIRST_NUMBER + random.nextLong(NUMBER_RANGE);
+            if (!subscribers.contains(number)) {
+                return number;
+            }
+        }
+    }
+}
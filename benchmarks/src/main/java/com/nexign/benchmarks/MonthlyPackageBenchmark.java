@@ -0,0 +1,90 @@
+package com.nexign.benchmarks;
+
+import com.nexign.hrs.dto.BillDTO;
+import com.nexign.hrs.dto.CallDTO;
+import com.nexign.hrs.model.CallType;
+import com.nexign.hrs.service.HRSService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rating of calls of monthly subscribers covered by their package, which takes the minutes from the
+ * package counter and appends the change to the journal.
+ * <p>
+ * A package lasts {@value ImportData#MONTHLY_LIMIT_MINUTES} one-minute calls, so every iteration is a batch
+ * of exactly that many calls per subscriber, the packages being refilled before it. The callee does not
+ * matter while the package covers the call, so on- and off-net calls cost the same here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, batchSize = MonthlyPackageBenchmark.BATCH)
+@Measurement(iterations = 20, batchSize = MonthlyPackageBenchmark.BATCH)
+@Fork(1)
+public class MonthlyPackageBenchmark {
+
+    private static final int MONTHLY_SUBSCRIBERS = 5_000;
+    private static final int SUBSCRIBERS = 2 * MONTHLY_SUBSCRIBERS + 10;
+    static final int BATCH = MONTHLY_SUBSCRIBERS * ImportData.MONTHLY_LIMIT_MINUTES;
+
+    private HrsFixture fixture;
+    private HRSService hrsService;
+    private long[] callers;
+    private CallDTO[] calls;
+    private int next;
+
+    /**
+     * Wires the HRS, caches the subscribers and prepares one one-minute call for each of
+     * {@value #MONTHLY_SUBSCRIBERS} monthly subscribers.
+     *
+     * @throws IOException if the journal directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new HrsFixture();
+        hrsService = fixture.hrsService;
+
+        long[] phoneNumbers = ImportData.phoneNumbers(SUBSCRIBERS, ImportData.SEED);
+        fixture.addClients(phoneNumbers);
+        callers = Arrays.copyOf(RatingBenchmark.callersOf(phoneNumbers, ImportData.MONTH_TARIFF), MONTHLY_SUBSCRIBERS);
+
+        SplittableRandom random = new SplittableRandom(ImportData.SEED);
+        calls = new CallDTO[callers.length];
+        for (int i = 0; i < callers.length; i++) {
+            long callee = phoneNumbers[random.nextInt(phoneNumbers.length)];
+            long start = ImportData.PERIOD_START + random.nextLong(ImportData.MONTH_SECONDS);
+            CallType callType = random.nextBoolean() ? CallType.INCOMING : CallType.OUTCOMING;
+            calls[i] = new CallDTO(callType, callers[i], callee, start, start + 1 + random.nextInt(59),
+                    ImportData.MONTH_TARIFF);
+        }
+    }
+
+    /**
+     * Refills the packages and drops the journal segments written by the previous iteration.
+     */
+    @Setup(Level.Iteration)
+    public void refill() {
+        fixture.resetPackages(callers, ImportData.MONTH_TARIFF, ImportData.MONTHLY_LIMIT_MINUTES);
+        fixture.checkpoint();
+        next = 0;
+    }
+
+    /**
+     * Deletes the journal.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public BillDTO monthlyInPackage() {
+        CallDTO call = calls[next];
+        next = next + 1 == calls.length ? 0 : next + 1;
+        return hrsService.callCalculation(call);
+    }
+}
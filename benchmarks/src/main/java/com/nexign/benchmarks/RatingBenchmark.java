@@ -0,0 +1,177 @@
+package com.nexign.benchmarks;
+
+import com.nexign.hrs.dto.BillDTO;
+import com.nexign.hrs.dto.CallDTO;
+import com.nexign.hrs.model.CallType;
+import com.nexign.hrs.model.Money;
+import com.nexign.hrs.service.HRSService;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rating of single calls by {@link HRSService#callCalculation(CallDTO)}.
+ * <p>
+ * Callers are the subscribers of the tariff, callees are other subscribers for on-net calls and numbers
+ * of other operators for off-net calls. The packages of the monthly subscribers are used up at the start,
+ * so their calls are billed per minute; calls within the package are measured by {@link MonthlyPackageBenchmark}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RatingBenchmark {
+
+    private static final int SUBSCRIBERS = 10_000;
+    private static final int CALLS = 4096;
+    private static final int MASK = CALLS - 1;
+    private static final MethodHandle ROUND_NUMBER_BILL;
+
+    static {
+        try {
+            ROUND_NUMBER_BILL = MethodHandles.privateLookupIn(HRSService.class, MethodHandles.lookup())
+                    .findVirtual(HRSService.class, "roundNumberBill", MethodType.methodType(BigDecimal.class, Money.class));
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private HrsFixture fixture;
+    private HRSService hrsService;
+    private CallDTO[] classicOnNet;
+    private CallDTO[] classicOffNet;
+    private CallDTO[] monthlyOnNet;
+    private CallDTO[] monthlyOffNet;
+    private Money[] amounts;
+    private int next;
+
+    /**
+     * Wires the HRS, caches the subscribers and prepares the calls.
+     *
+     * @throws IOException if the journal directory cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        fixture = new HrsFixture();
+        hrsService = fixture.hrsService;
+
+        long[] phoneNumbers = ImportData.phoneNumbers(SUBSCRIBERS, ImportData.SEED);
+        fixture.addClients(phoneNumbers);
+        fixture.resetPackages(callersOf(phoneNumbers, ImportData.MONTH_TARIFF), ImportData.MONTH_TARIFF, 0);
+
+        SplittableRandom random = new SplittableRandom(ImportData.SEED);
+        classicOnNet = calls(phoneNumbers, ImportData.CLASSIC_TARIFF, true, random);
+        classicOffNet = calls(phoneNumbers, ImportData.CLASSIC_TARIFF, false, random);
+        monthlyOnNet = calls(phoneNumbers, ImportData.MONTH_TARIFF, true, random);
+        monthlyOffNet = calls(phoneNumbers, ImportData.MONTH_TARIFF, false, random);
+
+        amounts = new Money[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            BigDecimal perMinute = random.nextBoolean() ? new BigDecimal("1.5") : new BigDecimal("2.5");
+            amounts[i] = Money.of(perMinute.multiply(BigDecimal.valueOf(1 + random.nextInt(ImportData.MAX_CALL_SECONDS / 60))));
+        }
+    }
+
+    /**
+     * Drops the journal segments written by the previous iteration.
+     */
+    @Setup(Level.Iteration)
+    public void checkpoint() {
+        fixture.checkpoint();
+    }
+
+    /**
+     * Deletes the journal.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fixture.close();
+    }
+
+    @Benchmark
+    public BillDTO classicOnNet() {
+        return hrsService.callCalculation(classicOnNet[next++ & MASK]);
+    }
+
+    @Benchmark
+    public BillDTO classicOffNet() {
+        return hrsService.callCalculation(classicOffNet[next++ & MASK]);
+    }
+
+    @Benchmark
+    public BillDTO monthlyOnNet() {
+        return hrsService.callCalculation(monthlyOnNet[next++ & MASK]);
+    }
+
+    @Benchmark
+    public BillDTO monthlyOffNet() {
+        return hrsService.callCalculation(monthlyOffNet[next++ & MASK]);
+    }
+
+    @Benchmark
+    public BigDecimal roundNumberBill() throws Throwable {
+        return (BigDecimal) ROUND_NUMBER_BILL.invokeExact(hrsService, amounts[next++ & MASK]);
+    }
+
+    /**
+     * Selects the subscribers of a tariff.
+     *
+     * @param phoneNumbers The phone numbers of the pool.
+     * @param tariffId     The tariff.
+     * @return The phone numbers of the subscribers of the tariff.
+     */
+    static long[] callersOf(long[] phoneNumbers, long tariffId) {
+        int count = 0;
+        long[] callers = new long[phoneNumbers.length];
+        for (int i = 0; i < phoneNumbers.length; i++) {
+            if (ImportData.tariffOf(i) == tariffId) {
+                callers[count++] = phoneNumbers[i];
+            }
+        }
+        return Arrays.copyOf(callers, count);
+    }
+
+    /**
+     * Generates calls of the subscribers of a tariff during the first month of the billing period.
+     *
+     * @param phoneNumbers The phone numbers of the pool.
+     * @param tariffId     The tariff of the callers.
+     * @param onNet        Whether the callees are subscribers.
+     * @param random       The random generator.
+     * @return The calls.
+     */
+    private static CallDTO[] calls(long[] phoneNumbers, long tariffId, boolean onNet, SplittableRandom random) {
+        long[] callers = callersOf(phoneNumbers, tariffId);
+        Set<Long> subscribers = new HashSet<>();
+        for (long phoneNumber : phoneNumbers) {
+            subscribers.add(phoneNumber);
+        }
+
+        CallDTO[] calls = new CallDTO[CALLS];
+        for (int i = 0; i < CALLS; i++) {
+            long caller = callers[random.nextInt(callers.length)];
+            long callee;
+            do {
+                callee = onNet
+                        ? phoneNumbers[random.nextInt(phoneNumbers.length)]
+                        : ImportData.otherOperatorNumber(random, subscribers);
+            } while (callee == caller);
+            long start = ImportData.PERIOD_START + random.nextLong(ImportData.MONTH_SECONDS);
+            long end = start + 1 + random.nextInt(ImportData.MAX_CALL_SECONDS);
+            CallType callType = random.nextBoolean() ? CallType.INCOMING : CallType.OUTCOMING;
+            calls[i] = new CallDTO(callType, caller, callee, start, end, tariffId);
+        }
+        return calls;
+    }
+}
@@ -0,0 +1,87 @@
+package com.nexign.brt.cache;
+
+import com.nexign.brt.dto.ClientDTO;
+import com.nexign.brt.model.Client;
+import com.nexign.brt.repository.ClientRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Component class holding an in-memory index of clients by MSISDN.
+ * Unlike a cache, the index is complete: it is loaded once at startup and kept in step
+ * with client creation and tariff changes, so lookups never have to fall back to the database.
+ */
+@Component
+public class ClientCache {
+
+    @Resource
+    private ClientRepository clientRepository;
+
+    private final Map<Long, ClientDTO> index = new ConcurrentHashMap<>();
+
+    /**
+     * Loads all clients from the repository into the index.
+     */
+    @PostConstruct
+    public void loadIndex () {
+        for (Client client : clientRepository.findAll()) {
+            putDataIntoCache(client);
+        }
+    }
+
+    /**
+     * Retrieves the client with the specified MSISDN.
+     *
+     * @param msisdn The MSISDN of the client to retrieve.
+     * @return The ClientDTO object associated with the given MSISDN, or null if the number is not a client.
+     */
+    public ClientDTO getDataFromCache (Long msisdn) {
+        return index.get(msisdn);
+    }
+
+    /**
+     * Puts the specified client into the index, replacing a previous entry with the same MSISDN.
+     *
+     * @param client The client to index.
+     */
+    public void putDataIntoCache (Client client) {
+        putDataIntoCache(client.getMsisdn(), client.getTariffId());
+    }
+
+    /**
+     * Puts a client with the specified MSISDN and tariff into the index, replacing a previous entry.
+     *
+     * @param msisdn   The MSISDN of the client.
+     * @param tariffId The tariff ID of the client.
+     */
+    public void putDataIntoCache (Long msisdn, Long tariffId) {
+        index.put(msisdn, ClientDTO.builder()
+                .msisdn(msisdn)
+                .tariffId(tariffId)
+                .build());
+    }
+
+    /**
+     * Retrieves all indexed clients.
+     *
+     * @return An unmodifiable view of the indexed clients.
+     */
+    public Collection<ClientDTO> getAllFromCache () {
+        return Collections.unmodifiableCollection(index.values());
+    }
+
+    /**
+     * Removes the client with the specified MSISDN from the index.
+     *
+     * @param msisdn The MSISDN of the client to remove.
+     */
+    public void removeFromCache (Long msisdn) {
+        index.remove(msisdn);
+    }
+}
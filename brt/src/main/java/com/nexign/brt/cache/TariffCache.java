@@ -5,6 +5,9 @@ import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.nexign.brt.dto.TariffDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
@@ -13,14 +16,26 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Component class for managing caching of TariffDTO objects.
+ * The hits, misses and evictions of the cache are published as the {@code cache.*} meters of {@code TariffCache}.
  */
 @Component
-public class TariffCache {
+public class TariffCache implements MeterBinder {
     private final Cache<Long, TariffDTO> cache = Caffeine.newBuilder()
             .expireAfterWrite(12, TimeUnit.HOURS)
             .maximumSize(100)
+            .recordStats()
             .build();
 
+    /**
+     * Binds the statistics of the cache to the meter registry.
+     *
+     * @param registry The meter registry.
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "TariffCache");
+    }
+
     /**
      * Retrieves data from cache based on the specified ID.
      *
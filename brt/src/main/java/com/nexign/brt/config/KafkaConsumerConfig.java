@@ -0,0 +1,32 @@
+package com.nexign.brt.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.listener.CommonErrorHandler;
+import org.springframework.kafka.listener.DefaultErrorHandler;
+import org.springframework.util.backoff.FixedBackOff;
+
+/**
+ * Configuration class of the Kafka listeners of BRT.
+ */
+@Configuration
+public class KafkaConsumerConfig {
+
+    @Value("${brt.consumer.retry-interval-ms:1000}")
+    private Long RETRY_INTERVAL_MS;
+
+    /**
+     * Declares the error handler of the listener containers in the transactional mode. A failed message is
+     * retried until it succeeds and never skipped, since the next message committed would move the offset
+     * stored with the debits past it and its calls would never be charged.
+     *
+     * @return The error handler picked up by the auto-configured listener container factory.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "brt.consumer.transactional", havingValue = "true")
+    public CommonErrorHandler kafkaErrorHandler () {
+        return new DefaultErrorHandler(new FixedBackOff(RETRY_INTERVAL_MS, FixedBackOff.UNLIMITED_ATTEMPTS));
+    }
+}
@@ -0,0 +1,33 @@
+package com.nexign.brt.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration class declaring the Kafka topics produced by BRT.
+ */
+@Configuration
+public class KafkaTopicConfig {
+
+    @Value("${client.changelog.partitions:3}")
+    private Integer PARTITIONS;
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+
+    /**
+     * Declares the compacted client changelog topic. The latest record per MSISDN is kept forever,
+     * so consumers can rebuild the full subscriber state by reading the topic from the beginning.
+     *
+     * @return The client changelog topic definition.
+     */
+    @Bean
+    public NewTopic clientChangelogTopic () {
+        return TopicBuilder.name(CLIENT_CHANGELOG_TOPIC)
+                .partitions(PARTITIONS)
+                .replicas(1)
+                .compact()
+                .build();
+    }
+}
@@ -5,6 +5,7 @@ import com.nexign.brt.dto.ClientDTO;
 import com.nexign.brt.dto.TopUpDTO;
 import com.nexign.brt.model.Client;
 import com.nexign.brt.service.BRTService;
+import com.nexign.brt.service.CallChargeService;
 import com.nexign.brt.service.ClientService;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
@@ -12,6 +13,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.math.BigDecimal;
 
@@ -30,6 +32,9 @@ public class CRMController {
     @Resource
     private ClientService clientService;
 
+    @Resource
+    private CallChargeService callChargeService;
+
     private static final String AUTHORIZATION = "Authorization";
     private static final String ADMIN = "admin";
     private static final String BASIC = "basic";
@@ -177,6 +182,19 @@ public class CRMController {
         return ResponseEntity.status(HttpStatus.OK).body(json);
     }
 
+    /**
+     * Endpoint streaming the charges of the calls started in a time range, for re-rating in the HRS.
+     *
+     * @param from The start of the range in unix time, inclusive.
+     * @param to   The end of the range in unix time, exclusive.
+     * @return ResponseEntity streaming one JSON charge per line, ordered by start time and MSISDN.
+     */
+    @GetMapping(value = "/call-charges", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> callCharges (@RequestParam long from, @RequestParam long to) {
+        StreamingResponseBody body = out -> callChargeService.writeCharges(from, to, out);
+        return ResponseEntity.status(HttpStatus.OK).body(body);
+    }
+
     /**
      * Checks if the manager is authorized based on HTTP basic authentication.
      *
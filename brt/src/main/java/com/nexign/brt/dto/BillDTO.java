@@ -16,4 +16,8 @@ public class BillDTO {
 
     private Long phoneNumber;
     private BigDecimal toPay;
+    private Integer chunkId;
+    private Long startTime;
+    private Long tariffId;
+    private Long tariffVersion;
 }
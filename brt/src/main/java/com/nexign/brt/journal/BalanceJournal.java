@@ -0,0 +1,501 @@
+package com.nexign.brt.journal;
+
+import com.nexign.brt.model.BalanceCheckpoint;
+import com.nexign.brt.repository.BalanceCheckpointRepository;
+import com.nexign.brt.service.CallChargeService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * Append-only journal of balance changes.
+ * <p>
+ * Debits and credits are appended to a segment file on local disk by a single writer thread, which
+ * writes every entry queued since its last flush and makes them durable with one fsync (group commit).
+ * Durable changes are accumulated as net deltas per MSISDN and periodically folded into the client table
+ * with a single JDBC batch, together with the sequence number of the last folded entry. After a crash
+ * the entries past that sequence are replayed from the segments on startup. Debits of rated calls also carry
+ * the charge of the call, which is inserted into the {@code call_charge} table in the same transaction.
+ * <p>
+ * Entries are stored as text lines {@code sequence;msisdn;amount}, debits of rated calls as
+ * {@code sequence;msisdn;amount;startTime;tariffId;tariffVersion}. A torn last line is ignored on replay.
+ */
+@Slf4j
+@Component
+public class BalanceJournal {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private BalanceCheckpointRepository balanceCheckpointRepository;
+
+    @Resource
+    private CallChargeService callChargeService;
+
+    @Value("${brt.journal.dir:balance_journal}")
+    private String JOURNAL_DIR;
+    private static final String SEGMENT_PREFIX = "balance-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final Long CHECKPOINT_ID = 1L;
+    private static final int MAX_GROUP = 4096;
+    private static final String UPDATE_BALANCE = "update client set balance = balance + ? where msisdn = ?";
+    private static final JournalEntry STOP = new JournalEntry(null, null, null, null, null);
+
+    private final BlockingQueue<JournalEntry> queue = new LinkedBlockingQueue<>();
+    private final Object segmentLock = new Object();
+    private volatile Map<Long, BigDecimal> pendingDeltas = new ConcurrentHashMap<>();
+    private List<Object[]> pendingCharges = new ArrayList<>();
+
+    private FileChannel channel;
+    private long segmentId;
+    private long nextSequence;
+    private volatile boolean running;
+    private Thread writer;
+
+    /**
+     * Replays the entries not yet folded into the client table and starts the writer thread.
+     *
+     * @throws IOException if the journal directory cannot be read
+     */
+    @PostConstruct
+    public void start () throws IOException {
+        Path dir = Paths.get(JOURNAL_DIR);
+        Files.createDirectories(dir);
+
+        long lastSequence = balanceCheckpointRepository.findById(CHECKPOINT_ID)
+                .map(BalanceCheckpoint::getLastSequence)
+                .orElse(0L);
+        Map<Long, BigDecimal> replayed = new HashMap<>();
+        List<Object[]> replayedCharges = new ArrayList<>();
+        long maxSequence = lastSequence;
+        long maxSegment = 0;
+
+        for (Path segment : listSegments()) {
+            maxSegment = Math.max(maxSegment, segmentIdOf(segment));
+            maxSequence = Math.max(maxSequence, replaySegment(segment, lastSequence, replayed, replayedCharges));
+        }
+
+        if (!replayed.isEmpty()) {
+            log.info("Replaying {} balance deltas and {} call charges from the journal up to sequence {}",
+                    replayed.size(), replayedCharges.size(), maxSequence);
+        }
+        fold(replayed, replayedCharges, maxSequence);
+        deleteSegmentsBefore(maxSegment + 1);
+
+        nextSequence = maxSequence + 1;
+        segmentId = maxSegment + 1;
+        channel = openSegment(segmentId);
+
+        running = true;
+        writer = new Thread(this::writeLoop, "balance-journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer thread after it has written the queued entries and folds them into the client table.
+     * The writer is stopped by a marker queued behind the entries, never interrupted, because an interrupt
+     * during a write would close the segment channel.
+     *
+     * @throws InterruptedException if interrupted while waiting for the writer
+     */
+    @PreDestroy
+    public void stop () throws InterruptedException {
+        synchronized (queue) {
+            running = false;
+            queue.add(STOP);
+        }
+        writer.join();
+        checkpoint();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.error("Fail to close balance journal segment {}", segmentId);
+        }
+    }
+
+    /**
+     * Appends a balance change to the journal.
+     *
+     * @param msisdn the MSISDN of the client
+     * @param delta  the amount to add to the balance, negative for debits
+     * @return a future completed once the change is durable on disk, or failed if the journal is stopped
+     */
+    public CompletableFuture<Void> append (Long msisdn, BigDecimal delta) {
+        return append(new JournalEntry(msisdn, delta, null, null, null));
+    }
+
+    /**
+     * Appends the debit of a rated call to the journal together with the charge of the call.
+     * Calls charged nothing are appended as well, so every rated call has its charge.
+     *
+     * @param msisdn        the MSISDN of the caller
+     * @param amount        the amount charged for the call
+     * @param startTime     the start time of the call in unix time
+     * @param tariffId      the tariff the call was rated with
+     * @param tariffVersion the version of the HRS tariff snapshot the call was rated with
+     * @return a future completed once the debit is durable on disk, or failed if the journal is stopped
+     */
+    public CompletableFuture<Void> appendCharge (Long msisdn, BigDecimal amount, Long startTime, Long tariffId,
+                                                 Long tariffVersion) {
+        return append(new JournalEntry(msisdn, amount.negate(), startTime, tariffId, tariffVersion));
+    }
+
+    /**
+     * Queues an entry for the writer thread.
+     *
+     * @param entry the entry to append
+     * @return a future completed once the entry is durable on disk, or failed if the journal is stopped
+     */
+    private CompletableFuture<Void> append (JournalEntry entry) {
+        // Checked under the same lock as the stop marker is queued, so no entry is queued behind it.
+        synchronized (queue) {
+            if (!running) {
+                reject(entry);
+                return entry.durable;
+            }
+            queue.add(entry);
+        }
+        return entry.durable;
+    }
+
+    /**
+     * Folds the durable balance changes into the client table and drops the journal segments they came from.
+     */
+    @Scheduled(fixedDelayString = "${brt.journal.checkpoint-interval-ms:1000}")
+    public void checkpoint () {
+        Map<Long, BigDecimal> deltas;
+        List<Object[]> charges;
+        long lastSequence;
+        long currentSegment;
+
+        synchronized (segmentLock) {
+            if (pendingDeltas.isEmpty()) {
+                return;
+            }
+            deltas = pendingDeltas;
+            pendingDeltas = new ConcurrentHashMap<>();
+            charges = pendingCharges;
+            pendingCharges = new ArrayList<>();
+            lastSequence = nextSequence - 1;
+            try {
+                channel.close();
+                segmentId++;
+                channel = openSegment(segmentId);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            currentSegment = segmentId;
+        }
+
+        try {
+            fold(deltas, charges, lastSequence);
+        } catch (RuntimeException e) {
+            log.error("Failure during balance checkpoint {}", e.getMessage());
+            synchronized (segmentLock) {
+                deltas.forEach((msisdn, delta) -> pendingDeltas.merge(msisdn, delta, BigDecimal::add));
+                pendingCharges.addAll(0, charges);
+            }
+            return;
+        }
+        deleteSegmentsBefore(currentSegment);
+    }
+
+    /**
+     * Writes queued entries in groups, one fsync per group, until the stop marker is taken.
+     */
+    private void writeLoop () {
+        List<JournalEntry> group = new ArrayList<>();
+        boolean stopped = false;
+        while (!stopped) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(group, MAX_GROUP - group.size());
+
+            if (group.get(group.size() - 1) == STOP) {
+                stopped = true;
+                group.remove(group.size() - 1);
+            }
+            writeGroup(group);
+            group.clear();
+        }
+    }
+
+    /**
+     * Fails an entry appended after the journal was stopped.
+     *
+     * @param entry the entry to fail
+     */
+    private static void reject (JournalEntry entry) {
+        entry.durable.completeExceptionally(new IllegalStateException("Balance journal is stopped"));
+    }
+
+    /**
+     * Writes a group of entries to the current segment, forces it to disk and completes their futures.
+     *
+     * @param group the entries to write
+     */
+    private void writeGroup (List<JournalEntry> group) {
+        if (group.isEmpty()) {
+            return;
+        }
+
+        synchronized (segmentLock) {
+            StringBuilder lines = new StringBuilder(group.size() * 32);
+            long sequence = nextSequence;
+            for (JournalEntry entry : group) {
+                lines.append(sequence++).append(';')
+                        .append(entry.msisdn).append(';')
+                        .append(entry.delta.toPlainString());
+                if (entry.isCharge()) {
+                    lines.append(';').append(entry.startTime)
+                            .append(';').append(entry.tariffId)
+                            .append(';').append(entry.tariffVersion);
+                }
+                lines.append('\n');
+            }
+
+            long size = -1;
+            try {
+                size = channel.size();
+                ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.US_ASCII));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Failure to write balance journal {}", e.getMessage());
+                discard(size, sequence);
+                group.forEach(entry -> entry.durable.completeExceptionally(e));
+                return;
+            }
+
+            nextSequence = sequence;
+            for (JournalEntry entry : group) {
+                pendingDeltas.merge(entry.msisdn, entry.delta, BigDecimal::add);
+                if (entry.isCharge()) {
+                    pendingCharges.add(chargeRow(entry.msisdn, entry.delta, entry.startTime, entry.tariffId,
+                            entry.tariffVersion));
+                }
+            }
+        }
+        group.forEach(entry -> entry.durable.complete(null));
+    }
+
+    /**
+     * Removes the lines of a failed group from the current segment, so they are not replayed after a restart
+     * while their appends were reported as failed. If the segment cannot be cut back, the sequences of the group
+     * are never handed out again, so a retried change is not confused with a copy written by the failed group.
+     * Called under the segment lock.
+     *
+     * @param size     the size of the segment before the group was written, negative if unknown
+     * @param nextFree the first sequence after the group
+     */
+    private void discard (long size, long nextFree) {
+        try {
+            if (size < 0) {
+                throw new IOException("Size of segment " + segmentId + " is unknown");
+            }
+            channel.truncate(size);
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Fail to cut back balance journal segment {}, entries of the failed group may be replayed {}",
+                    segmentId, e.getMessage());
+            nextSequence = nextFree;
+        }
+    }
+
+    /**
+     * Applies net deltas to the client table with one JDBC batch, inserts the call charges and records
+     * the folded sequence, all in one transaction.
+     *
+     * @param deltas       the net balance delta per MSISDN
+     * @param charges      the call charges of the folded entries
+     * @param lastSequence the sequence number of the last entry included in the deltas
+     */
+    private void fold (Map<Long, BigDecimal> deltas, List<Object[]> charges, long lastSequence) {
+        if (deltas.isEmpty()) {
+            return;
+        }
+
+        List<Object[]> batch = new ArrayList<>(deltas.size());
+        deltas.forEach((msisdn, delta) -> batch.add(new Object[] {delta, msisdn}));
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(UPDATE_BALANCE, batch);
+            callChargeService.insert(charges);
+            balanceCheckpointRepository.save(new BalanceCheckpoint(CHECKPOINT_ID, lastSequence));
+        });
+    }
+
+    /**
+     * Reads the entries of a segment past the checkpoint into the delta map and the call charges.
+     *
+     * @param segment      the segment file
+     * @param lastSequence the last sequence already folded into the client table
+     * @param deltas       the map to accumulate deltas into
+     * @param charges      the list to add the call charges to
+     * @return the highest sequence number found in the segment
+     * @throws IOException if the segment cannot be read
+     */
+    private long replaySegment (Path segment, long lastSequence, Map<Long, BigDecimal> deltas,
+                                List<Object[]> charges) throws IOException {
+        long maxSequence = lastSequence;
+        String content = Files.readString(segment, StandardCharsets.US_ASCII);
+        int start = 0;
+        int end;
+        while ((end = content.indexOf('\n', start)) >= 0) {
+            String[] items = content.substring(start, end).split(";", -1);
+            start = end + 1;
+            if (items.length != 3 && items.length != 6) {
+                log.error("Skipping corrupted balance journal entry in {}", segment);
+                continue;
+            }
+            long sequence = Long.parseLong(items[0]);
+            if (sequence > lastSequence) {
+                long msisdn = Long.parseLong(items[1]);
+                BigDecimal delta = new BigDecimal(items[2]);
+                deltas.merge(msisdn, delta, BigDecimal::add);
+                if (items.length == 6) {
+                    charges.add(chargeRow(msisdn, delta, Long.parseLong(items[3]), parseNullable(items[4]),
+                            parseNullable(items[5])));
+                }
+                maxSequence = Math.max(maxSequence, sequence);
+            }
+        }
+        return maxSequence;
+    }
+
+    /**
+     * Builds the row of a call charge from the debit of the call.
+     *
+     * @param msisdn        the MSISDN of the caller
+     * @param delta         the debit of the call
+     * @param startTime     the start time of the call
+     * @param tariffId      the tariff the call was rated with
+     * @param tariffVersion the version of the tariff snapshot the call was rated with
+     * @return the row for {@link CallChargeService#insert(List)}
+     */
+    private static Object[] chargeRow (Long msisdn, BigDecimal delta, Long startTime, Long tariffId, Long tariffVersion) {
+        return new Object[] {msisdn, startTime, tariffId, tariffVersion, delta.negate()};
+    }
+
+    /**
+     * Parses an optional number of a journal line, written as {@code null} when missing.
+     *
+     * @param item the item of the line
+     * @return the number, or null
+     */
+    private static Long parseNullable (String item) {
+        return "null".equals(item) ? null : Long.valueOf(item);
+    }
+
+    /**
+     * Lists the journal segments ordered by their id.
+     *
+     * @return the segment files
+     * @throws IOException if the journal directory cannot be read
+     */
+    private List<Path> listSegments () throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(JOURNAL_DIR))) {
+            return files.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted(Comparator.comparingLong(this::segmentIdOf))
+                    .toList();
+        }
+    }
+
+    /**
+     * Deletes the segments with an id lower than the given one.
+     *
+     * @param segmentId the id of the first segment to keep
+     */
+    private void deleteSegmentsBefore (long segmentId) {
+        try {
+            for (Path segment : listSegments()) {
+                if (segmentIdOf(segment) < segmentId) {
+                    Files.deleteIfExists(segment);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Fail to delete balance journal segments {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Opens a new segment file for appending.
+     *
+     * @param segmentId the id of the segment
+     * @return the channel of the segment
+     * @throws IOException if the file cannot be opened
+     */
+    private FileChannel openSegment (long segmentId) throws IOException {
+        Path path = Paths.get(JOURNAL_DIR, String.format("%s%020d%s", SEGMENT_PREFIX, segmentId, SEGMENT_SUFFIX));
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Extracts the id of a segment from its file name.
+     *
+     * @param segment the segment file
+     * @return the id of the segment
+     */
+    private long segmentIdOf (Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A balance change waiting to be written, with the call it charges if it is the debit of a rated call.
+     */
+    private static final class JournalEntry {
+        private final Long msisdn;
+        private final BigDecimal delta;
+        private final Long startTime;
+        private final Long tariffId;
+        private final Long tariffVersion;
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+        private JournalEntry (Long msisdn, BigDecimal delta, Long startTime, Long tariffId, Long tariffVersion) {
+            this.msisdn = msisdn;
+            this.delta = delta;
+            this.startTime = startTime;
+            this.tariffId = tariffId;
+            this.tariffVersion = tariffVersion;
+        }
+
+        /**
+         * Checks whether the entry is the debit of a rated call.
+         *
+         * @return true if the entry carries the charge of a call
+         */
+        private boolean isCharge () {
+            return startTime != null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.nexign.brt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Represents the position of the balance journal that has already been folded into the client table.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "balance_checkpoint")
+public class BalanceCheckpoint {
+
+    @Id
+    @Column(name = "checkpoint_id")
+    private Long id;
+
+    @Column(name = "last_sequence")
+    private Long lastSequence;
+
+}
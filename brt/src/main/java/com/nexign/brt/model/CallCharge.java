@@ -0,0 +1,43 @@
+package com.nexign.brt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+/**
+ * Represents the charge of one rated call, including calls charged nothing, together with the tariff
+ * and the version of the HRS tariff snapshot it was rated with. Re-rating compares against these charges.
+ */
+@Entity
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "call_charge", indexes = @Index(columnList = "start_time, msisdn"))
+public class CallCharge {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "msisdn")
+    private Long msisdn;
+
+    @Column(name = "start_time")
+    private Long startTime;
+
+    @Column(name = "tariff_id")
+    private Long tariffId;
+
+    @Column(name = "tariff_version")
+    private Long tariffVersion;
+
+    @Column(name = "amount")
+    private BigDecimal amount;
+
+}
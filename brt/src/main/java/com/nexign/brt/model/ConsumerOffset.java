@@ -0,0 +1,26 @@
+package com.nexign.brt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Represents the next offset to consume from a partition, committed together with the balance
+ * changes of the consumed messages.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "consumer_offset")
+public class ConsumerOffset {
+
+    @Id
+    @Column(name = "offset_key")
+    private String key;
+
+    @Column(name = "next_offset")
+    private Long nextOffset;
+
+}
@@ -0,0 +1,32 @@
+package com.nexign.brt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Represents the progress of a month close: the monthly top-up, the monthly payments and the monthly
+ * tariff changes, each of which is applied once per month.
+ */
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "month_close")
+public class MonthClose {
+
+    @Id
+    @Column(name = "period")
+    private String period;
+
+    @Column(name = "topped_up")
+    private Boolean toppedUp;
+
+    @Column(name = "completed")
+    private Boolean completed;
+
+    @Column(name = "tariffs_changed")
+    private Boolean tariffsChanged;
+
+}
@@ -0,0 +1,33 @@
+package com.nexign.brt.model;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Represents a chunk of monthly payments applied during a month close, identified by the number
+ * the HRS gave it in the bill stream of the period.
+ */
+@Entity
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+@Table(name = "month_close_chunk",
+        uniqueConstraints = @UniqueConstraint(columnNames = {"period", "chunk_id"}))
+public class MonthCloseChunk {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Column(name = "period")
+    private String period;
+
+    @Column(name = "chunk_id")
+    private Integer chunkId;
+
+}
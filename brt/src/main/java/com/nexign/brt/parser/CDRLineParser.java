@@ -0,0 +1,181 @@
+package com.nexign.brt.parser;
+
+import com.nexign.brt.model.CallType;
+import com.nexign.common.cdr.MalformedCDRException;
+
+/**
+ * Single-pass parser for CDR batches in CSV format ({@code 01,caller,callee,start,end} per line).
+ * <p>
+ * The parser scans the ASCII bytes of the batch once and parses the digits of every field in place
+ * into the primitive fields of a reused {@link CDRRecord}, so no strings or arrays are created per line.
+ * Blank lines and spaces or tabs before the first field are skipped. The call type must be {@code 01}
+ * (incoming) or {@code 02} (outgoing). A malformed line is reported with a {@link MalformedCDRException} holding its
+ * position; the parser has already moved to the next line, so parsing can continue after the failure.
+ */
+public class CDRLineParser {
+
+    private static final int FIELDS = 5;
+    private static final int MAX_DIGITS = 18;
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+    private int line;
+    private int lineStart;
+
+    /**
+     * Creates a parser over the whole array.
+     *
+     * @param data the ASCII bytes of the CDR batch
+     */
+    public CDRLineParser(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    /**
+     * Creates a parser over a region of the array.
+     *
+     * @param data   the ASCII bytes of the CDR batch
+     * @param offset the offset of the first byte to parse
+     * @param length the number of bytes to parse
+     */
+    public CDRLineParser(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Parses the next non-blank line into the given record.
+     *
+     * @param record the record to fill
+     * @return true if a record was parsed, false at the end of the batch
+     * @throws MalformedCDRException if the next non-blank line is malformed
+     */
+    public boolean next(CDRRecord record) {
+        skipBlankLines();
+        if (position >= limit) {
+            return false;
+        }
+
+        line++;
+        try {
+            int typeStart = position;
+            long callType = parseField(false);
+            if (callType != 1 && callType != 2) {
+                throw error("Unknown call type " + callType, typeStart);
+            }
+            record.setCallType(callType == 1 ? CallType.INCOMING : CallType.OUTCOMING);
+            record.setCallerNumber(parseField(false));
+            record.setCalleeNumber(parseField(false));
+            record.setStartTime(parseField(false));
+            record.setEndTime(parseField(true));
+            return true;
+        } catch (MalformedCDRException e) {
+            skipLine();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of the last line read, starting from 1.
+     *
+     * @return the current line number
+     */
+    public int getLine() {
+        return line;
+    }
+
+    /**
+     * Parses one unsigned decimal field and consumes its delimiter.
+     *
+     * @param last whether the field is the last one in the line
+     * @return the parsed value
+     */
+    private long parseField(boolean last) {
+        int start = position;
+        long value = 0;
+        while (position < limit && isDigit(data[position])) {
+            if (position - start == MAX_DIGITS) {
+                throw error("Number is too long", start);
+            }
+            value = value * 10 + (data[position] - '0');
+            position++;
+        }
+        if (position == start) {
+            throw error("Expected a number", position);
+        }
+
+        if (!last) {
+            if (position >= limit || data[position] != ',') {
+                throw error("Expected " + FIELDS + " fields separated by ','", position);
+            }
+            position++;
+        } else {
+            if (position < limit && data[position] == '\r') {
+                position++;
+            }
+            if (position < limit && data[position] != '\n') {
+                throw error("Unexpected character after the last field", position);
+            }
+            if (position < limit) {
+                position++;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Skips empty and whitespace-only lines and the leading whitespace of the next non-blank line,
+     * which becomes the current line.
+     */
+    private void skipBlankLines() {
+        int scan = position;
+        while (scan < limit) {
+            byte b = data[scan];
+            if (b == '\n') {
+                line++;
+                position = scan + 1;
+            } else if (b != ' ' && b != '\t' && b != '\r') {
+                lineStart = position;
+                position = scan;
+                return;
+            }
+            scan++;
+        }
+        position = limit;
+    }
+
+    /**
+     * Moves the position past the end of the current line.
+     */
+    private void skipLine() {
+        while (position < limit && data[position] != '\n') {
+            position++;
+        }
+        if (position < limit) {
+            position++;
+        }
+    }
+
+    /**
+     * Creates an exception for a failure at the given position of the current line.
+     *
+     * @param message the reason of the failure
+     * @param at      the index of the failing byte
+     * @return the exception to throw
+     */
+    private MalformedCDRException error(String message, int at) {
+        return new MalformedCDRException(message, line, at - lineStart + 1);
+    }
+
+    /**
+     * Checks if the byte is an ASCII digit.
+     *
+     * @param b the byte to check
+     * @return true if the byte is a digit, otherwise false
+     */
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+}
@@ -0,0 +1,21 @@
+package com.nexign.brt.parser;
+
+import com.nexign.brt.model.CallType;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Mutable holder for one parsed CDR line. A single instance is reused for every line of a batch,
+ * so parsing does not allocate per record.
+ */
+@Getter
+@Setter
+public class CDRRecord {
+
+    private CallType callType;
+    private long callerNumber;
+    private long calleeNumber;
+    private long startTime;
+    private long endTime;
+
+}
@@ -0,0 +1,60 @@
+package com.nexign.brt.producers;
+
+import com.google.gson.Gson;
+import com.nexign.brt.dto.ClientDTO;
+import com.nexign.brt.model.Client;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+/**
+ * KafkaClientProducer publishes client changes to the compacted client changelog topic.
+ * Records are keyed by MSISDN, so the topic keeps the latest state of every subscriber.
+ */
+@Slf4j
+@Service
+public class KafkaClientProducer {
+
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final Gson gson = new Gson();
+
+    /**
+     * Constructor for KafkaClientProducer.
+     *
+     * @param kafkaTemplate The KafkaTemplate used for producing messages to Kafka.
+     */
+    public KafkaClientProducer(KafkaTemplate<String, String> kafkaTemplate) {
+        this.kafkaTemplate = kafkaTemplate;
+    }
+
+    /**
+     * Publishes the current state of the client to the changelog topic.
+     *
+     * @param client The created or changed client.
+     */
+    public void sendClientChange(Client client) {
+        sendClientChange(client.getMsisdn(), client.getTariffId());
+    }
+
+    /**
+     * Publishes the current tariff of the client to the changelog topic.
+     *
+     * @param msisdn   The MSISDN of the client.
+     * @param tariffId The current tariff ID of the client.
+     */
+    public void sendClientChange(Long msisdn, Long tariffId) {
+        ClientDTO clientDTO = ClientDTO.builder()
+                .msisdn(msisdn)
+                .tariffId(tariffId)
+                .build();
+
+        kafkaTemplate.send(CLIENT_CHANGELOG_TOPIC, String.valueOf(msisdn), gson.toJson(clientDTO))
+                .whenComplete((result, error) -> {
+                    if (error != null) {
+                        log.error("Failure to publish client change {} {}", msisdn, error.getMessage());
+                    }
+                });
+    }
+}
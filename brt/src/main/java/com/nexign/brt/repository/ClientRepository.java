@@ -3,6 +3,9 @@ package com.nexign.brt.repository;
 
 import com.nexign.brt.model.Client;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
@@ -12,4 +15,15 @@ public interface ClientRepository extends JpaRepository<Client, Long> {
 
     Client findClientByMsisdn (Long msisdn);
 
+    /**
+     * Updates the tariff of the client without touching the other columns.
+     *
+     * @param msisdn   the MSISDN of the client
+     * @param tariffId the new tariff ID
+     * @return the number of updated rows
+     */
+    @Modifying
+    @Query("update Client c set c.tariffId = :tariffId where c.msisdn = :msisdn")
+    int updateTariff (@Param("msisdn") Long msisdn, @Param("tariffId") Long tariffId);
+
 }
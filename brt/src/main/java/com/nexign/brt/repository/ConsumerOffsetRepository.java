@@ -0,0 +1,9 @@
+package com.nexign.brt.repository;
+
+import com.nexign.brt.model.ConsumerOffset;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ConsumerOffsetRepository extends JpaRepository<ConsumerOffset, String> {
+}
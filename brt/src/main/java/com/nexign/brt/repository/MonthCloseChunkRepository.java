@@ -0,0 +1,17 @@
+package com.nexign.brt.repository;
+
+import com.nexign.brt.model.MonthCloseChunk;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+@Repository
+public interface MonthCloseChunkRepository extends JpaRepository<MonthCloseChunk, Long> {
+
+    List<MonthCloseChunk> findAllByPeriod(String period);
+
+    @Transactional
+    void deleteAllByPeriod(String period);
+}
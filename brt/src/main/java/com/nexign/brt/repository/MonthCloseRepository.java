@@ -0,0 +1,9 @@
+package com.nexign.brt.repository;
+
+import com.nexign.brt.model.MonthClose;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface MonthCloseRepository extends JpaRepository<MonthClose, String> {
+}
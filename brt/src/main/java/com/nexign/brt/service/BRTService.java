@@ -3,70 +3,98 @@ package com.nexign.brt.service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.nexign.brt.cache.ClientCache;
 import com.nexign.brt.cache.TariffCache;
 import com.nexign.brt.dto.BillDTO;
 import com.nexign.brt.dto.CallDTO;
+import com.nexign.brt.dto.ClientDTO;
 import com.nexign.brt.dto.TariffDTO;
 import com.nexign.brt.model.CallType;
-import com.nexign.brt.model.Client;
-import com.nexign.brt.repository.ClientRepository;
+import com.nexign.brt.parser.CDRLineParser;
+import com.nexign.brt.parser.CDRRecord;
+import com.nexign.common.cdr.BinaryCDRReader;
+import com.nexign.common.cdr.MalformedCDRException;
+import com.nexign.common.http.ServiceHttpClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.StringReader;
 import java.math.BigDecimal;
-import java.net.URI;
-import java.net.URLEncoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service class for performing Billing Real Time (BRT) operations.
+ * <p>
+ * The time spent in every stage of processing a CDR message is recorded by the {@code brt.stage} timer:
+ * parsing the records, checking the tariff of the caller, rating a batch of calls by the HRS and closing
+ * a month. The balance update is timed by {@link KafkaBRTConsumer}. Malformed CDRs are counted by
+ * {@code brt.cdr.rejected} per batch format.
  */
 @Slf4j
 @Service
 public class BRTService {
 
     @Resource
-    private ClientRepository clientRepository;
+    private TariffCache tariffCache;
 
     @Resource
-    private TariffCache tariffCache;
+    private ClientCache clientCache;
+
+    @Resource
+    private ServiceHttpClient serviceHttpClient;
+
+    @Resource
+    private MonthCloseService monthCloseService;
+
+    @Resource
+    private BulkMutationService bulkMutationService;
+
+    @Resource
+    private MonthBarrier monthBarrier;
 
     @Resource
-    private ClientService clientService;
+    private MeterRegistry meterRegistry;
 
     @Value("${gateway.host}")
     private String HOST;
     private static final String PORT = "8765";
     private static final String BASE = "/api";
     private static final String MS = "/hrs";
-    private static final String PAYMENT = "/payment";
-    private static final String MONTHLY_PAYMENT = "/monthly-payment";
+    private static final String PAYMENT_BATCH = "/payment-batch";
     private static final String CHECK_TARIFF = "/check-tariff";
-    private static final String UPDATE_CACHE = "/update-cache";
-    private static final String PARAM_START_MONTH = "start-month";
-    private static final String CLIENT_PARAM = "client-param";
-    private static final String PARAM_END_MONTH = "end-month";
-    private static final String CALL_PARAM = "call-param";
     private static final Long MONTH_TARIFF = 12L;
+    private static final String STAGE_METRIC = "brt.stage";
+    private static final String STAGE_TAG = "stage";
+    private static final String REJECTED_METRIC = "brt.cdr.rejected";
+    private static final String FORMAT_TAG = "format";
+
+    @Value("${hrs.payment.batch-size:500}")
+    private Integer BATCH_SIZE;
 
-    private Integer lastMonthProcessed = -1;
+    private volatile long lastMonthProcessed = -1;
 
     private final Gson gson;
 
+    private Timer parseTimer;
+    private Timer tariffCheckTimer;
+    private Timer ratingTimer;
+    private Timer monthCloseTimer;
+    private Counter rejectedCsvCdrs;
+    private Counter rejectedBinaryCdrs;
+
     /**
      * Constructor for the class, initializes a Gson object for JSON serialization/deserialization.
      */
@@ -76,6 +104,47 @@ public class BRTService {
                 .create();
     }
 
+    /**
+     * Registers the timers of the processing stages.
+     */
+    @PostConstruct
+    public void initMetrics () {
+        parseTimer = stageTimer(meterRegistry, "parse");
+        tariffCheckTimer = stageTimer(meterRegistry, "tariff-check");
+        ratingTimer = stageTimer(meterRegistry, "rating-rpc");
+        monthCloseTimer = stageTimer(meterRegistry, "month-close");
+        rejectedCsvCdrs = rejectedCounter(meterRegistry, "csv");
+        rejectedBinaryCdrs = rejectedCounter(meterRegistry, "binary");
+    }
+
+    /**
+     * Registers the timer of a stage of processing CDR messages.
+     *
+     * @param registry the meter registry
+     * @param stage    the name of the stage
+     * @return the timer of the stage
+     */
+    static Timer stageTimer (MeterRegistry registry, String stage) {
+        return Timer.builder(STAGE_METRIC)
+                .description("Time spent by BRT in a stage of processing CDR messages")
+                .tag(STAGE_TAG, stage)
+                .register(registry);
+    }
+
+    /**
+     * Registers the counter of the CDRs rejected as malformed in a batch format.
+     *
+     * @param registry the meter registry
+     * @param format   the name of the batch format
+     * @return the counter of the format
+     */
+    private static Counter rejectedCounter (MeterRegistry registry, String format) {
+        return Counter.builder(REJECTED_METRIC)
+                .description("CDRs rejected by BRT as malformed")
+                .tag(FORMAT_TAG, format)
+                .register(registry);
+    }
+
     /**
      * Serializes an object into JSON format.
      *
@@ -125,10 +194,10 @@ public class BRTService {
                     CHECK_TARIFF,
                     tariffId);
 
-            HttpRequest getRequestTest =  buildHttpRequest(url);
+            HttpRequest getRequestTest =  serviceHttpClient.get(url);
 
-            CompletableFuture<HttpResponse<String>> future = newHttpClient()
-                    .sendAsync(getRequestTest, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<HttpResponse<String>> future = serviceHttpClient
+                    .sendAsync(getRequestTest);
 
             HttpResponse<String> response = future.join();
 
@@ -142,17 +211,6 @@ public class BRTService {
         return true;
     }
 
-    /**
-     * Performs monthly billing based on a list of bills.
-     *
-     * @param bills the list of bills to process
-     */
-    public void monthlyPayment (List<BillDTO> bills) {
-        for (BillDTO billDTO : bills) {
-            clientService.newBalance(billDTO);
-        }
-    }
-
     /**
      * Decodes a Base64-encoded message.
      *
@@ -164,156 +222,97 @@ public class BRTService {
     }
 
     /**
-     * Checks the client corresponding to the caller number from a list of clients.
-     *
-     * @param callerNumber the caller's phone number
-     * @param clients      the list of clients to search
-     * @return the client matching the caller's phone number, or null if not found
-     */
-    private Client checkClient (Long callerNumber, List<Client> clients) {
-        return clients.stream()
-                .filter(c -> c.getMsisdn().equals(callerNumber))
-                .findFirst()
-                .orElse(null);
-    }
-
-    /**
-     * Converts a string representation of call type to a CallType enum.
+     * Decodes a Base64-encoded message received as raw bytes, without converting it to a string.
      *
-     * @param callTypeString the string representation of the call type ("01" for incoming, "02" for outgoing)
-     * @return the corresponding CallType enum value
+     * @param message the Base64-encoded message bytes
+     * @return the decoded message bytes
      */
-    private CallType stringToCallType (String callTypeString) {
-        return callTypeString.equals("01") ? CallType.INCOMING : CallType.OUTCOMING;
+    public byte[] decodeBytes (byte[] message) {
+        return Base64.getDecoder().decode(message);
     }
 
     /**
-     * Constructs a new HttpClient instance with a configured connection timeout.
+     * Checks the client corresponding to the caller number in the client index.
      *
-     * @return a new HttpClient instance
-     */
-    private HttpClient newHttpClient() {
-        return HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
-    }
-
-    /**
-     * Constructs an HttpRequest object for the specified URL.
-     *
-     * @param url the URL to construct the request for
-     * @return the HttpRequest object
+     * @param callerNumber the caller's phone number
+     * @return the client matching the caller's phone number, or null if not found
      */
-    private HttpRequest buildHttpRequest(String url) {
-        return HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .GET()
-                .build();
+    private ClientDTO checkClient (Long callerNumber) {
+        return clientCache.getDataFromCache(callerNumber);
     }
 
     /**
-     * Sends a JSON message to the HRS (High performance rating) for processing and retrieves a billing result.
+     * Sends a batch of calls to the HRS (High performance rating) in a single request and retrieves the billing results.
+     * The whole batch fails when the HRS answers with an error or does not return one bill per call,
+     * so the message is processed again instead of being debited partially.
      *
-     * @param json the JSON message to send
-     * @return the billing result as a BillDTO object
-     * @throws IOException          if an I/O error occurs
-     * @throws InterruptedException if the operation is interrupted
-     * @throws ExecutionException   if the HTTP request execution fails
+     * @param calls the calls to rate
+     * @return the billing results as BillDTO objects, in the same order as the calls, with the start time
+     *         and the tariff of their call
+     * @throws IllegalStateException if the response is not successful or the number of bills does not match
      */
-    private BillDTO sendToHRS (String json) throws IOException, InterruptedException, ExecutionException {
-        String callParam = URLEncoder.encode(json, StandardCharsets.UTF_8);
-        String url = String.format("http://%s:%s%s%s%s?%s=%s",
+    private List<BillDTO> sendBatchToHRS (List<CallDTO> calls) {
+        String url = String.format("http://%s:%s%s%s%s",
                 HOST,
                 PORT,
                 MS,
                 BASE,
-                PAYMENT,
-                CALL_PARAM,
-                callParam);
+                PAYMENT_BATCH);
 
-        BillDTO responseBillDTO;
-        HttpRequest getRequestTest = buildHttpRequest(url);
+        HttpRequest postRequest = serviceHttpClient.postJson(url, toJson(calls));
 
-        CompletableFuture<BillDTO> future = newHttpClient()
-                .sendAsync(getRequestTest, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body)
-                .thenApply(jsonResponse -> decodeJson(jsonResponse, new TypeToken<>() {}));
+        HttpResponse<String> response = serviceHttpClient
+                .sendAsync(postRequest)
+                .join();
 
-        responseBillDTO = future.join();
-        return responseBillDTO;
-    }
+        if (response.statusCode() / 100 != 2) {
+            throw new IllegalStateException(String.format(
+                    "HRS failed to rate a batch of %d calls with status %d", calls.size(), response.statusCode()));
+        }
 
-    /**
-     * Sends a request to the HRS to retrieve monthly bill data for a specified time period.
-     *
-     * @param startMonth the starting month of the billing period
-     * @param endMonth   the ending month of the billing period
-     * @return a list of BillDTO objects representing the monthly bills
-     */
-    private List<BillDTO> sendCheckToHRS (int startMonth, int endMonth) {
-        String url = String.format("http://%s:%s%s%s%s?%s=%s&%s=%s",
-                HOST,
-                PORT,
-                MS,
-                BASE,
-                MONTHLY_PAYMENT,
-                PARAM_START_MONTH,
-                startMonth,
-                PARAM_END_MONTH,
-                endMonth);
-
-        List<BillDTO> responseBillData;
-        HttpRequest getRequest = buildHttpRequest(url);
-
-        CompletableFuture<List<BillDTO>> future = newHttpClient()
-                .sendAsync(getRequest, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body)
-                .thenApply(jsonResponse -> {
-                    System.out.println(jsonResponse);
-                    return decodeJson(jsonResponse, new TypeToken<>() {});
-                });
-
-        responseBillData = future.join();
-        return responseBillData;
+        List<BillDTO> bills = decodeJson(response.body(), new TypeToken<>() {});
+        int billCount = bills != null ? bills.size() : 0;
+        if (billCount != calls.size()) {
+            throw new IllegalStateException(String.format(
+                    "HRS returned %d bills for a batch of %d calls", billCount, calls.size()));
+        }
+        for (int i = 0; i < billCount; i++) {
+            bills.get(i).setStartTime(calls.get(i).getStartTime());
+            bills.get(i).setTariffId(calls.get(i).getTariffId());
+        }
+        return bills;
     }
 
     /**
-     * Sends a list of clients to the HRS for caching purposes.
+     * Rates the pending calls in one batch and collects the resulting bills.
      *
-     * @param clients the list of clients to be cached
+     * @param pendingCalls the calls waiting to be rated, cleared after processing
+     * @param bills        the bills of the message, receiving the new bills
      */
-    private void sendClientsToCacheHRS (List<Client> clients) {
-        String clientParam = URLEncoder.encode(toJson(clients), StandardCharsets.UTF_8);
-        String url = String.format("http://%s:%s%s%s%s?%s=%s",
-                HOST,
-                PORT,
-                MS,
-                BASE,
-                UPDATE_CACHE,
-                CLIENT_PARAM,
-                clientParam);
-
-        HttpRequest getRequest = buildHttpRequest(url);
-
-        CompletableFuture<String> future = newHttpClient()
-                .sendAsync(getRequest, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body);
+    private void ratePendingCalls (List<CallDTO> pendingCalls, List<BillDTO> bills) {
+        if (pendingCalls.isEmpty()) {
+            return;
+        }
 
-        future.join();
+        bills.addAll(ratingTimer.record(() -> sendBatchToHRS(pendingCalls)));
+        pendingCalls.clear();
     }
 
     /**
      * Performs monthly changes to client tariffs based on predefined rules.
+     * The selected clients are moved with one bulk update.
      */
     private void monthlyChangeTariff () {
-        List<Client> clients = clientRepository.findAll();
+        List<ClientDTO> clients = new ArrayList<>(clientCache.getAllFromCache());
         Set<Long> tariffCacheKeySet = tariffCache.getAllKeysFromCache();
-        List<Client> changedClients = new ArrayList<>();
 
         Random random = new Random();
-        int countToChange = random.nextInt(3);
+        int countToChange = Math.min(random.nextInt(3), clients.size() - 1);
         Collections.shuffle(clients);
 
+        Map<Long, Long> newTariffs = new LinkedHashMap<>();
         for (int i = 0; i <= countToChange; i ++) {
-            Client client = clients.get(i);
+            ClientDTO client = clients.get(i);
 
             int mapSize = tariffCacheKeySet.size();
             if (mapSize > 1) {
@@ -322,116 +321,236 @@ public class BRTService {
                         .skip(new Random().nextInt(mapSize - 1))
                         .findFirst()
                         .orElse(null);
-                Client changedClient = clientService.changeTariff(clients.get(i), newTariff);
-
-                changedClients.add(changedClient);
+                if (newTariff != null) {
+                    newTariffs.put(client.getMsisdn(), newTariff);
+                }
             }
         }
-
-        if (!changedClients.isEmpty()) {
-            sendClientsToCacheHRS(changedClients);
-        }
+        bulkMutationService.changeTariffs(newTariffs);
     }
 
     /**
      * Performs monthly balance top-up operations for clients based on predefined rules.
+     * The deposits of all clients are applied with one bulk update.
      */
     private void monthlyTopUp () {
-        List<Client> clients = clientRepository.findAll();
         Random random = new Random();
         int minimalDeposit = 30;
         int maximalDeposit = 100;
-        clients.forEach(client -> {
+        Map<Long, BigDecimal> deposits = new HashMap<>();
+        for (ClientDTO client : clientCache.getAllFromCache()) {
             int cash;
             if (Objects.equals(client.getTariffId(), MONTH_TARIFF)) {
                 cash = random.nextInt(minimalDeposit, maximalDeposit);
             } else {
                 cash = random.nextInt(minimalDeposit / 2, minimalDeposit);
             }
-            BigDecimal deposit = new BigDecimal(cash);
-            clientService.topUpBalance(client, deposit);
-        });
+            deposits.merge(client.getMsisdn(), new BigDecimal(cash), BigDecimal::add);
+        }
+        bulkMutationService.addToBalances(deposits);
     }
 
     /**
-     * Checks if a new month has started based on call timestamps and triggers monthly operations.
+     * Converts a point in time into the number of the month counted continuously across years,
+     * so months keep increasing over the turn of a year.
+     *
+     * @param epochSeconds the point in time in epoch seconds
+     * @return the index of the month in UTC, equal to {@code year * 12 + month - 1}
+     */
+    static long monthIndex (long epochSeconds) {
+        LocalDateTime time = LocalDateTime.ofEpochSecond(epochSeconds, 0, ZoneOffset.UTC);
+        return time.getYear() * 12L + time.getMonthValue() - 1;
+    }
+
+    /**
+     * Checks if the call ends in a month that has not been processed yet.
+     * Partitions are consumed concurrently, so a call of an earlier month may arrive after another
+     * partition has already processed a later one. It must neither reopen nor close months again.
      *
      * @param callDTO the CallDTO object representing a call event
+     * @return true if monthly operations have to be triggered before rating the call
      */
-    private void checkNewMonth (CallDTO callDTO) {
-        int startMonth = LocalDateTime.ofEpochSecond(callDTO.getStartTime(), 0, ZoneOffset.UTC).getMonthValue();
-        int endMonth = LocalDateTime.ofEpochSecond(callDTO.getEndTime(), 0, ZoneOffset.UTC).getMonthValue();
+    private boolean isNewMonth (CallDTO callDTO) {
+        return monthIndex(callDTO.getEndTime()) > lastMonthProcessed;
+    }
 
-        if (startMonth != lastMonthProcessed || endMonth != lastMonthProcessed) {
-            if (lastMonthProcessed > startMonth && lastMonthProcessed > endMonth) {
-                lastMonthProcessed = endMonth;
-            }
+    /**
+     * Runs the monthly operations for every month between the last processed month and the month
+     * the call ends in, once per month and in order. The first call processed opens only its own month.
+     * Synchronized so that only one consumer thread closes a month. Every step of a month close is recorded
+     * in the BRT database, so steps already applied before a failure or a restart are not applied again.
+     *
+     * @param callDTO the CallDTO object representing a call event
+     */
+    private synchronized void checkNewMonth (CallDTO callDTO) {
+        if (!isNewMonth(callDTO)) {
+            return;
+        }
 
-            startMonth = Math.min (lastMonthProcessed, startMonth);
-            endMonth = Math.max (lastMonthProcessed, endMonth);
+        long endMonth = monthIndex(callDTO.getEndTime());
+        long firstMonth = lastMonthProcessed < 0 ? endMonth : lastMonthProcessed + 1;
 
-            // Ежемесячное пополнение счента, для всех пользователей
-            for (int i = startMonth; i <= endMonth; i++) {
-                monthlyTopUp();
-            }
+        for (long month = firstMonth; month <= endMonth; month++) {
+            int year = (int) (month / 12);
+            int monthOfYear = (int) (month % 12) + 1;
+
+            // Ежемесячное пополнение счета, для всех пользователей
+            monthCloseService.topUpOnce(year, monthOfYear, this::monthlyTopUp);
 
             // Ежемесячная оплата для тех, у кого месячный тариф
-            monthlyPayment(sendCheckToHRS(startMonth, endMonth));
+            monthCloseService.closeMonth(year, monthOfYear);
 
             // Ежемесячная смена тарифов
-            monthlyChangeTariff();
+            monthCloseService.changeTariffsOnce(year, monthOfYear, this::monthlyChangeTariff);
+
+            lastMonthProcessed = month;
+        }
+    }
+
+    /**
+     * Authorizes a single call record and queues it for rating.
+     * The pending batch is flushed before monthly operations run, and the month is closed only once every
+     * partition has rated its calls of the previous month, so every call is rated against the state of its
+     * own month.
+     *
+     * @param partition    the CDR topic partition of the call
+     * @param callType     the type of the call
+     * @param callerNumber the caller's phone number
+     * @param calleeNumber the callee's phone number
+     * @param startTime    the start of the call in epoch seconds
+     * @param endTime      the end of the call in epoch seconds
+     * @param pendingCalls the calls waiting to be rated
+     * @param bills        the bills of the calls already rated
+     */
+    private void processCall (int partition, CallType callType, long callerNumber, long calleeNumber,
+                              long startTime, long endTime, List<CallDTO> pendingCalls, List<BillDTO> bills) {
+        ClientDTO currentClientCheck = checkClient(callerNumber);
+        if (currentClientCheck == null) {
+            return;
+        }
+
+        if (startTime < endTime) {
+            CallDTO call = CallDTO.builder()
+                    .callType(callType)
+                    .callerNumber(callerNumber)
+                    .calleeNumber(calleeNumber)
+                    .startTime(startTime)
+                    .endTime(endTime)
+                    .tariffId(currentClientCheck.getTariffId())
+                    .build();
+
+            tariffCheckTimer.record(() -> checkTariff(currentClientCheck.getTariffId()));
+
+            if (isNewMonth(call)) {
+                ratePendingCalls(pendingCalls, bills);
+                monthBarrier.await(partition, monthIndex(call.getEndTime()));
+                monthCloseTimer.record(() -> checkNewMonth(call));
+            }
 
-            lastMonthProcessed = endMonth;
+            pendingCalls.add(call);
+            if (pendingCalls.size() >= BATCH_SIZE) {
+                ratePendingCalls(pendingCalls, bills);
+            }
+        } else {
+            log.error("Incorrect start and end of call, start: {}, end: {}", startTime, endTime);
         }
     }
 
     /**
      * Processes a list of call records and performs billing and rating operations.
+     * Lines are parsed in a single pass into a reused record; malformed lines are logged with
+     * their position and skipped. Calls are rated by the HRS in batches.
+     * The parsing time of all lines is recorded once per message.
      *
-     * @param message the message containing call records in CSV format
+     * @param partition the CDR topic partition of the message
+     * @param message   the ASCII bytes of the call records in CSV format
+     * @return the bills of the calls, not yet debited
      */
-    void checkListCall(String message) {
-        List<Client> clients = clientRepository.findAll();
-
-        try (BufferedReader br = new BufferedReader(new StringReader(message))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.trim().isEmpty())
-                    continue;
-
-                String[] items = line.split(",");
-
-                if (items.length == 5) {
-                    Client currentClientCheck = checkClient(Long.parseLong(items[1]), clients);
-                    if (currentClientCheck != null) {
-                        if (Long.parseLong(items[3]) < Long.parseLong(items[4])) {
-                            CallDTO call = CallDTO.builder()
-                                    .callType(stringToCallType(items[0]))
-                                    .callerNumber(Long.parseLong(items[1]))
-                                    .calleeNumber(Long.parseLong(items[2]))
-                                    .startTime(Long.parseLong(items[3]))
-                                    .endTime(Long.parseLong(items[4]))
-                                    .tariffId(currentClientCheck.getTariffId())
-                                    .build();
-
-                            checkTariff(currentClientCheck.getTariffId());
-
-                            checkNewMonth(call);
-
-                            String json = call.toJson();
-                            BillDTO response = sendToHRS(json);
-                            clientService.newBalance(response);
-                        } else {
-                            log.error("Incorrect start and end of call, start: {}, end: {}", items[3], items[4]);
-                        }
-
-                    }
-                } else {
-                    log.error("Failure to read cdr record {}", Arrays.toString(items));
+    List<BillDTO> checkListCall(int partition, byte[] message) {
+        List<CallDTO> pendingCalls = new ArrayList<>();
+        List<BillDTO> bills = new ArrayList<>();
+        CDRLineParser parser = new CDRLineParser(message);
+        CDRRecord record = new CDRRecord();
+        long parseNanos = 0;
+
+        while (true) {
+            long parseStart = System.nanoTime();
+            try {
+                if (!parser.next(record)) {
+                    break;
                 }
+            } catch (MalformedCDRException e) {
+                log.error("Failure to read cdr record: {}", e.getMessage());
+                rejectedCsvCdrs.increment();
+                continue;
+            } finally {
+                parseNanos += System.nanoTime() - parseStart;
             }
-        } catch (IOException | InterruptedException | ExecutionException e) {
-            log.error("Failure during call list check {}", e.getMessage());
+
+            processCall(partition,
+                    record.getCallType(),
+                    record.getCallerNumber(),
+                    record.getCalleeNumber(),
+                    record.getStartTime(),
+                    record.getEndTime(),
+                    pendingCalls,
+                    bills);
+        }
+        parseTimer.record(parseNanos, TimeUnit.NANOSECONDS);
+        ratePendingCalls(pendingCalls, bills);
+        return bills;
+    }
+
+    /**
+     * Processes a batch of call records in the binary CDR format and performs billing and rating operations.
+     * Records are read in place from the buffer without decoding the batch into text.
+     * Records with an unknown call type are logged and skipped; a batch with a malformed header is rejected
+     * as a whole. Both are counted as rejected, like the malformed lines of a CSV batch.
+     * The reading time of all records is recorded once per message.
+     *
+     * @param partition the CDR topic partition of the message
+     * @param message   the buffer holding the binary CDR batch
+     * @return the bills of the calls, not yet debited
+     */
+    List<BillDTO> checkBinaryCall(int partition, ByteBuffer message) {
+        List<CallDTO> pendingCalls = new ArrayList<>();
+        List<BillDTO> bills = new ArrayList<>();
+        long parseNanos = 0;
+
+        BinaryCDRReader reader;
+        try {
+            reader = new BinaryCDRReader(message);
+        } catch (IllegalArgumentException e) {
+            log.error("Failure to read binary cdr batch {}", e.getMessage());
+            rejectedBinaryCdrs.increment();
+            return bills;
+        }
+
+        while (true) {
+            long parseStart = System.nanoTime();
+            try {
+                if (!reader.next()) {
+                    break;
+                }
+            } catch (MalformedCDRException e) {
+                log.error("Failure to read binary cdr record: {}", e.getMessage());
+                rejectedBinaryCdrs.increment();
+                continue;
+            } finally {
+                parseNanos += System.nanoTime() - parseStart;
+            }
+
+            processCall(partition,
+                    reader.isIncoming() ? CallType.INCOMING : CallType.OUTCOMING,
+                    reader.getCallerNumber(),
+                    reader.getCalleeNumber(),
+                    reader.getStartTime(),
+                    reader.getEndTime(),
+                    pendingCalls,
+                    bills);
         }
+        parseTimer.record(parseNanos, TimeUnit.NANOSECONDS);
+        ratePendingCalls(pendingCalls, bills);
+        return bills;
     }
 }
@@ -0,0 +1,138 @@
+package com.nexign.brt.service;
+
+import com.nexign.brt.cache.ClientCache;
+import com.nexign.brt.producers.KafkaClientProducer;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Service applying balance and tariff changes to many clients at once.
+ * <p>
+ * Changes are sent to the database as JDBC batches of one parameterised statement per client, so a chunk
+ * of thousands of clients takes one round-trip instead of one per client and the statements stay plain SQL
+ * supported by every database. Balance changes are atomic increments and commute with the balance journal.
+ * All chunks of one call are applied in one transaction.
+ */
+@Slf4j
+@Service
+public class BulkMutationService {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private ClientCache clientCache;
+
+    @Resource
+    private KafkaClientProducer kafkaClientProducer;
+
+    @Value("${brt.bulk.chunk-size:10000}")
+    private Integer CHUNK_SIZE;
+    private static final String ADD_TO_BALANCES = "update client set balance = balance + ? where msisdn = ?";
+    private static final String CHANGE_TARIFFS = "update client set tariff_id = ? "
+            + "where msisdn = ? and (tariff_id is null or tariff_id <> ?)";
+
+    /**
+     * Adds the given amounts to the balances of the clients.
+     *
+     * @param deltas the amount to add per MSISDN, negative for debits
+     * @return the number of updated clients
+     */
+    public int addToBalances (Map<Long, BigDecimal> deltas) {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+
+        List<Map.Entry<Long, BigDecimal>> entries = new ArrayList<>(deltas.entrySet());
+        Integer updated = transactionTemplate.execute(status -> {
+            int[][] counts = jdbcTemplate.batchUpdate(ADD_TO_BALANCES, entries, CHUNK_SIZE, (statement, entry) -> {
+                statement.setBigDecimal(1, entry.getValue());
+                statement.setLong(2, entry.getKey());
+            });
+            int rows = 0;
+            for (int[] chunk : counts) {
+                for (int count : chunk) {
+                    rows += Math.max(count, 0);
+                }
+            }
+            return rows;
+        });
+
+        log.info("Updated balances of {} clients", updated);
+        return updated != null ? updated : 0;
+    }
+
+    /**
+     * Moves the clients to new tariffs. The clients whose tariff actually changed are updated
+     * in the client index and published to the client changelog after the transaction commits,
+     * which is the transaction of the caller if there is one.
+     *
+     * @param tariffs the new tariff ID per MSISDN
+     * @return the number of clients whose tariff changed
+     */
+    public int changeTariffs (Map<Long, Long> tariffs) {
+        if (tariffs.isEmpty()) {
+            return 0;
+        }
+
+        List<Map.Entry<Long, Long>> entries = new ArrayList<>(tariffs.entrySet());
+        int[][] counts = transactionTemplate.execute(status ->
+                jdbcTemplate.batchUpdate(CHANGE_TARIFFS, entries, CHUNK_SIZE, (statement, entry) -> {
+                    statement.setLong(1, entry.getValue());
+                    statement.setLong(2, entry.getKey());
+                    statement.setLong(3, entry.getValue());
+                }));
+
+        if (counts == null) {
+            return 0;
+        }
+        List<Map.Entry<Long, Long>> changed = new ArrayList<>();
+        int index = 0;
+        for (int[] chunk : counts) {
+            for (int count : chunk) {
+                Map.Entry<Long, Long> entry = entries.get(index++);
+                if (count > 0) {
+                    changed.add(entry);
+                }
+            }
+        }
+        afterCommit(() -> changed.forEach(entry -> {
+            clientCache.putDataIntoCache(entry.getKey(), entry.getValue());
+            kafkaClientProducer.sendClientChange(entry.getKey(), entry.getValue());
+        }));
+        log.info("Changed tariffs of {} clients", changed.size());
+        return changed.size();
+    }
+
+    /**
+     * Runs an action after the transaction of the caller commits, or immediately without one.
+     *
+     * @param action the action to run
+     */
+    private static void afterCommit (Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit () {
+                action.run();
+            }
+        });
+    }
+}
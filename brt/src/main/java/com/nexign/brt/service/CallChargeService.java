@@ -0,0 +1,118 @@
+package com.nexign.brt.service;
+
+import com.google.gson.Gson;
+import com.nexign.brt.dto.BillDTO;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Service keeping the charges of the rated calls in the {@code call_charge} table.
+ * <p>
+ * Charges are written in the same transaction as the debits of their calls, so the table holds exactly
+ * what the balances were charged, and are read back ordered by start time for re-rating in the HRS.
+ */
+@Slf4j
+@Service
+public class CallChargeService {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${brt.charges.fetch-size:10000}")
+    private Integer FETCH_SIZE;
+    @Value("${brt.charges.flush-every:1000}")
+    private Integer FLUSH_EVERY;
+    private static final String INSERT_CHARGE = "insert into call_charge "
+            + "(msisdn, start_time, tariff_id, tariff_version, amount) values (?, ?, ?, ?, ?)";
+    private static final String SELECT_CHARGES = "select msisdn, start_time, tariff_id, tariff_version, amount "
+            + "from call_charge where start_time >= ? and start_time < ? order by start_time, msisdn, id";
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Inserts the charges of rated calls. Joins the transaction of the caller.
+     *
+     * @param bills the bills of the calls, with their start time and tariff
+     */
+    public void record (List<BillDTO> bills) {
+        List<Object[]> rows = new ArrayList<>(bills.size());
+        for (BillDTO bill : bills) {
+            rows.add(new Object[] {bill.getPhoneNumber(), bill.getStartTime(), bill.getTariffId(),
+                    bill.getTariffVersion(), bill.getToPay()});
+        }
+        insert(rows);
+    }
+
+    /**
+     * Inserts charge rows with one JDBC batch. Joins the transaction of the caller.
+     *
+     * @param charges the charges as rows of {@code msisdn, start time, tariff ID, tariff version, amount}
+     */
+    public void insert (List<Object[]> charges) {
+        if (!charges.isEmpty()) {
+            jdbcTemplate.batchUpdate(INSERT_CHARGE, charges);
+        }
+    }
+
+    /**
+     * Streams the charges of calls started in a time range as newline-delimited JSON, one bill per line,
+     * ordered by start time and phone number. The rows are fetched with a cursor and flushed to the client
+     * in parts, so neither the result nor the response is held in memory.
+     *
+     * @param from the start of the range in unix time, inclusive
+     * @param to   the end of the range in unix time, exclusive
+     * @param out  output stream of the response
+     * @throws IOException if the response cannot be written
+     */
+    public void writeCharges (long from, long to, OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        long[] written = {0};
+        try {
+            transactionTemplate.executeWithoutResult(status -> jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(SELECT_CHARGES);
+                statement.setFetchSize(FETCH_SIZE);
+                statement.setLong(1, from);
+                statement.setLong(2, to);
+                return statement;
+            }, resultSet -> {
+                BillDTO charge = BillDTO.builder()
+                        .phoneNumber(resultSet.getLong(1))
+                        .startTime(resultSet.getLong(2))
+                        .tariffId(resultSet.getLong(3))
+                        .tariffVersion(resultSet.getLong(4))
+                        .toPay(resultSet.getBigDecimal(5))
+                        .build();
+                try {
+                    writer.write(gson.toJson(charge));
+                    writer.write('\n');
+                    if (++written[0] % FLUSH_EVERY == 0) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+        log.info("Streamed {} call charges from {} to {}", written[0], from, to);
+    }
+}
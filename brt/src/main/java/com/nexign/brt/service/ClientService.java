@@ -1,40 +1,49 @@
 package com.nexign.brt.service;
 
+import com.nexign.brt.cache.ClientCache;
 import com.nexign.brt.dto.BillDTO;
 import com.nexign.brt.dto.ClientDTO;
+import com.nexign.brt.journal.BalanceJournal;
 import com.nexign.brt.model.Client;
+import com.nexign.brt.producers.KafkaClientProducer;
 import com.nexign.brt.repository.ClientRepository;
 import jakarta.annotation.Resource;
 import jakarta.transaction.Transactional;
-import org.springframework.beans.factory.annotation.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import java.math.BigDecimal;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
 /**
  * Service class responsible for handling client-related operations.
  */
+@Slf4j
 @Service
 public class ClientService {
 
     @Resource
     private ClientRepository clientRepository;
 
-    @Value("${gateway.host}")
-    private String HOST;
-    private static final String PORT = "8765";
-    private static final String BASE = "/api";
-    private static final String NEW_CLIENT = "/new-client";
+    @Resource
+    private ClientCache clientCache;
+
+    @Resource
+    private BalanceJournal balanceJournal;
+
+    @Resource
+    private KafkaClientProducer kafkaClientProducer;
 
     /**
      * Creates a new client based on the provided ClientDTO and saves it to the repository.
-     * Sends a request to add the new user to the CDR system.
+     * Publishes the new client to the client changelog, from which the CDR and HRS systems pick it up,
+     * once the transaction has committed.
      *
      * @param clientDTO the DTO containing client information
      */
@@ -46,42 +55,56 @@ public class ClientService {
                 .tariffId(clientDTO.getTariffId())
                 .build();
         clientRepository.save(client);
-        sendToAddNewUserInCDR(client);
+        publishAfterCommit(client.getMsisdn(), client.getTariffId());
     }
 
     /**
-     * Updates the client's balance based on a bill DTO.
-     * Deducts the bill amount from the client's balance.
+     * Updates the balances of the clients based on a list of bill DTOs.
+     * All debits are appended to the balance journal first and then awaited together,
+     * so the whole list is usually made durable by a single group commit. The method fails
+     * if any of the debits fails, even when the group commits of the others succeed.
+     * Every debit carries the charge of its call, calls charged nothing included, for later re-rating.
      *
-     * @param billDTO the DTO containing billing information
+     * @param bills the DTOs containing billing information
+     * @throws java.util.concurrent.CompletionException if a debit could not be made durable
      */
-    @Transactional
-    public void newBalance (BillDTO billDTO) {
-        if (billDTO.getToPay().compareTo(BigDecimal.ZERO) > 0) {
-            Client client = clientRepository.findClientByMsisdn(billDTO.getPhoneNumber());
-            if (client != null) {
-                client.setBalance(client.getBalance().subtract(billDTO.getToPay()));
-                clientRepository.save(client);
-            }
+    public void newBalances (List<BillDTO> bills) {
+        List<CompletableFuture<Void>> debits = new ArrayList<>(bills.size());
+        for (BillDTO billDTO : bills) {
+            debits.add(balanceJournal.appendCharge(billDTO.getPhoneNumber(), billDTO.getToPay(),
+                    billDTO.getStartTime(), billDTO.getTariffId(), billDTO.getTariffVersion()));
         }
+        CompletableFuture.allOf(debits.toArray(new CompletableFuture[0])).join();
     }
 
     /**
      * Adds the specified deposit amount to the client's balance.
+     * The credit is appended to the balance journal and is durable when the method returns.
+     * The entity is left untouched: the journal is the only writer of the balance, which reaches the client
+     * table at the next checkpoint, so a later save of the entity cannot apply the credit a second time.
      *
      * @param client  the client whose balance is to be topped up
      * @param deposit the amount to be added to the balance
      */
-    @Transactional
     public void topUpBalance (Client client, BigDecimal deposit) {
         if (deposit.compareTo(BigDecimal.ZERO) > 0) {
-            client.setBalance(client.getBalance().add(deposit));
-            clientRepository.save(client);
+            balanceJournal.append(client.getMsisdn(), deposit).join();
         }
     }
 
+    /**
+     * Publishes all clients to the client changelog once the application has started,
+     * so the compacted topic always holds the full subscriber state.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void publishAllClients () {
+        clientRepository.findAll().forEach(kafkaClientProducer::sendClientChange);
+    }
+
     /**
      * Changes the tariff of the specified client and saves the updated client to the repository.
+     * Publishes the change to the client changelog, from which the HRS system picks it up,
+     * once the transaction has committed.
      *
      * @param client       the client whose tariff is to be changed
      * @param tariffNumber the new tariff ID to set for the client
@@ -89,35 +112,41 @@ public class ClientService {
      */
     @Transactional
     public Client changeTariff (Client client, Long tariffNumber) {
+        clientRepository.updateTariff(client.getMsisdn(), tariffNumber);
         client.setTariffId(tariffNumber);
-        clientRepository.save(client);
+        publishAfterCommit(client.getMsisdn(), tariffNumber);
         return client;
     }
 
     /**
-     * Sends an HTTP request to add a new user to the Call Detail Record (CDR) system.
+     * Puts a client into the cache and publishes it to the client changelog after the current transaction
+     * commits, so a rolled back change never reaches them. Without a transaction this is done immediately.
      *
-     * @param client the client whose addition to CDR is requested
+     * @param msisdn   the MSISDN of the client
+     * @param tariffId the tariff of the client
      */
-    private void sendToAddNewUserInCDR (Client client) {
-        String url = String.format("http://%s:%s%s%s/%s",
-                HOST,
-                PORT,
-                BASE,
-                NEW_CLIENT,
-                client.getMsisdn());
-        HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
-
-        HttpRequest httpRequest = HttpRequest.newBuilder()
-                .uri(URI.create(url))
-                .POST(HttpRequest.BodyPublishers.noBody())
-                .build();
-
-        CompletableFuture<String> future = httpClient
-                .sendAsync(httpRequest, HttpResponse.BodyHandlers.ofString())
-                .thenApply(HttpResponse::body);
+    private void publishAfterCommit (Long msisdn, Long tariffId) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            publish(msisdn, tariffId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit () {
+                publish(msisdn, tariffId);
+            }
+        });
+    }
 
-        future.join();
+    /**
+     * Puts a client into the cache and publishes it to the client changelog.
+     *
+     * @param msisdn   the MSISDN of the client
+     * @param tariffId the tariff of the client
+     */
+    private void publish (Long msisdn, Long tariffId) {
+        clientCache.putDataIntoCache(msisdn, tariffId);
+        kafkaClientProducer.sendClientChange(msisdn, tariffId);
     }
 
     /**
@@ -1,37 +1,197 @@
 package com.nexign.brt.service;
 
+import com.nexign.brt.dto.BillDTO;
+import com.nexign.common.cdr.BinaryCDRFormat;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.kafka.listener.ConsumerSeekAware;
 import org.springframework.stereotype.Service;
 
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * Kafka consumer responsible for consuming messages from the CDR (Call Detail Record) topic.
  * This consumer processes incoming messages by decoding and checking call details.
+ * <p>
+ * In the transactional mode ({@code brt.consumer.transactional}) the debits of a message are committed
+ * together with its offset in the BRT database, and the assigned partitions are positioned at the offsets
+ * stored there, so consumers can be restarted or rebalanced mid-stream without charging a call twice.
+ * Otherwise the debits go through the balance journal and the offsets are committed by Kafka.
+ * <p>
+ * The consumer publishes the lag of every partition it reads behind the end of the partition
+ * ({@code brt.consumer.lag}), the size of the messages ({@code brt.cdr.message.size}) and the time
+ * of the balance update ({@code brt.stage} with the {@code balance-update} stage).
  */
 @Slf4j
 @Service
-public class KafkaBRTConsumer {
+public class KafkaBRTConsumer implements ConsumerSeekAware {
 
     @Resource
     private BRTService brtService;
 
+    @Resource
+    private ClientService clientService;
+
+    @Resource
+    private TransactionalDebitService transactionalDebitService;
+
+    @Resource
+    private MonthBarrier monthBarrier;
+
+    @Resource
+    private MeterRegistry meterRegistry;
+
+    @Value("${brt.consumer.transactional:false}")
+    private Boolean TRANSACTIONAL;
     private static final String CDR_TOPIC = "cdr-topic";
     private static final String GROUP = "brt-group";
 
+    private final Map<TopicPartition, AtomicLong> lags = new ConcurrentHashMap<>();
+    private DistributionSummary messageSize;
+    private Timer balanceTimer;
+
+    /**
+     * Registers the meters of the consumer.
+     */
+    @PostConstruct
+    public void initMetrics () {
+        messageSize = DistributionSummary.builder("brt.cdr.message.size")
+                .description("Size of the CDR messages consumed by BRT")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        balanceTimer = BRTService.stageTimer(meterRegistry, "balance-update");
+    }
+
     /**
      * Listens to the CDR_TOPIC for incoming messages as part of the brt-group consumer group.
-     * Invokes the `checkListCall` method of the `brtService` to process the consumed message.
+     * Binary CDR batches are processed in place by `checkBinaryCall`; Base64-encoded CSV batches
+     * are still accepted for compatibility and processed by `checkListCall`.
+     * The topic is partitioned by caller MSISDN and every partition is consumed by a single thread,
+     * so the CDRs of one subscriber are processed in order while partitions are spread over
+     * the listener threads and the BRT instances of the group. The {@link MonthBarrier} is told when
+     * a partition has nothing left to read, so a month close does not wait for it. In the transactional mode
+     * a message already committed in the BRT database is skipped before its calls are rated again.
      *
-     * @param message the incoming message from the CDR_TOPIC
+     * @param record   the incoming record from the CDR_TOPIC
+     * @param consumer the consumer of the listener thread, queried for the lag of the partition
      */
-    @KafkaListener(topics = CDR_TOPIC, groupId = GROUP, topicPartitions = {
-            @TopicPartition(topic = CDR_TOPIC, partitions = "0")
-    })
-    public void consume (String message) {
-        String decodeMessage = String.valueOf(brtService.decodeData(message));
-        brtService.checkListCall(decodeMessage);
+    @KafkaListener(topics = CDR_TOPIC, groupId = GROUP, concurrency = "${cdr.consumer.concurrency:3}")
+    public void consume (ConsumerRecord<String, byte[]> record, Consumer<?, ?> consumer) {
+        byte[] message = record.value();
+        messageSize.record(message.length);
+        TopicPartition partition = new TopicPartition(record.topic(), record.partition());
+        recordLag(consumer, partition);
+        monthBarrier.reading(record.partition());
+
+        if (TRANSACTIONAL && transactionalDebitService.isCommitted(record.topic(), record.partition(), record.offset())) {
+            log.info("Message {}@{} is already applied, skipping", partition, record.offset());
+            monthBarrier.read(record.partition(), nothingLeft(consumer, partition, record.offset()));
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(message);
+        List<BillDTO> bills = BinaryCDRFormat.isBinary(buffer)
+                ? brtService.checkBinaryCall(record.partition(), buffer)
+                : brtService.checkListCall(record.partition(), brtService.decodeBytes(message));
+
+        if (TRANSACTIONAL) {
+            balanceTimer.record(() -> transactionalDebitService.commit(record.topic(), record.partition(), record.offset(), bills));
+        } else {
+            balanceTimer.record(() -> clientService.newBalances(bills));
+        }
+        monthBarrier.read(record.partition(), nothingLeft(consumer, partition, record.offset()));
     }
 
+    /**
+     * Checks whether a partition had no records after the given one when it was last fetched.
+     *
+     * @param consumer  the consumer reading the partition
+     * @param partition the partition
+     * @param offset    the offset of the processed record
+     * @return true if the record was the last one of the partition known to the consumer
+     */
+    private static boolean nothingLeft (Consumer<?, ?> consumer, TopicPartition partition, long offset) {
+        OptionalLong lag = consumer.currentLag(partition);
+        return lag.isPresent() && consumer.position(partition) + lag.getAsLong() <= offset + 1;
+    }
+
+    /**
+     * Updates the lag gauge of a partition with the lag known to the consumer from its last fetch,
+     * registering the gauge on the first record of the partition.
+     *
+     * @param consumer  the consumer reading the partition
+     * @param partition the partition
+     */
+    private void recordLag (Consumer<?, ?> consumer, TopicPartition partition) {
+        consumer.currentLag(partition).ifPresent(lag -> lags.computeIfAbsent(partition, key -> {
+            AtomicLong value = new AtomicLong();
+            Gauge.builder("brt.consumer.lag", value, AtomicLong::get)
+                    .description("Records of a CDR topic partition not consumed by BRT yet")
+                    .tag("topic", key.topic())
+                    .tag("partition", String.valueOf(key.partition()))
+                    .baseUnit("records")
+                    .register(meterRegistry);
+            return value;
+        }).set(lag));
+    }
+
+    /**
+     * Adds the assigned partitions to the month barrier and, in the transactional mode, positions them
+     * at the offsets stored in the BRT database.
+     *
+     * @param assignments the assigned partitions and their current offsets
+     * @param callback    the callback performing the seeks
+     */
+    @Override
+    public void onPartitionsAssigned (Map<TopicPartition, Long> assignments, ConsumerSeekCallback callback) {
+        monthBarrier.assign(cdrPartitions(assignments.keySet()));
+        if (!TRANSACTIONAL) {
+            return;
+        }
+        assignments.keySet().forEach(partition -> transactionalDebitService
+                .findNextOffset(partition.topic(), partition.partition())
+                .ifPresent(offset -> {
+                    log.info("Resuming {} from stored offset {}", partition, offset);
+                    callback.seek(partition.topic(), partition.partition(), offset);
+                }));
+    }
+
+    /**
+     * Removes the revoked partitions from the month barrier.
+     *
+     * @param partitions the revoked partitions
+     */
+    @Override
+    public void onPartitionsRevoked (Collection<TopicPartition> partitions) {
+        monthBarrier.revoke(cdrPartitions(partitions));
+    }
+
+    /**
+     * Selects the numbers of the CDR topic partitions.
+     *
+     * @param partitions the partitions of any topic
+     * @return the numbers of the CDR topic partitions
+     */
+    private static List<Integer> cdrPartitions (Collection<TopicPartition> partitions) {
+        return partitions.stream()
+                .filter(partition -> CDR_TOPIC.equals(partition.topic()))
+                .map(TopicPartition::partition)
+                .toList();
+    }
 }
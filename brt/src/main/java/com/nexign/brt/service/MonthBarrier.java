@@ -0,0 +1,154 @@
+package com.nexign.brt.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Barrier holding back the monthly operations until every CDR partition assigned to this BRT instance
+ * has rated its calls of the previous months.
+ * <p>
+ * Every partition has a watermark: the month its calls have been rated up to. A listener thread meeting
+ * the first call of a new month rates the calls queued before it, raises the watermark of its partition
+ * and waits until every other assigned partition has either reached the month as well or had nothing left
+ * to read after its last message. Only then is the month closed, so no call of the previous month is rated
+ * against the balances, package minutes and tariffs of the new one.
+ * <p>
+ * A partition read by a listener thread that is itself waiting at the barrier cannot advance and is not
+ * waited for, so the barrier is complete only with one partition per listener thread
+ * ({@code cdr.consumer.concurrency} not below the partitions assigned to the instance). The wait is
+ * bounded by {@code brt.month-close.barrier-timeout-ms}, which must stay below the poll interval of the
+ * consumer; after it the month is closed anyway and a warning is logged.
+ */
+@Slf4j
+@Component
+public class MonthBarrier {
+
+    @Value("${brt.month-close.barrier-timeout-ms:30000}")
+    private Long TIMEOUT_MS;
+
+    private final Map<Integer, Thread> assigned = new HashMap<>();
+    private final Map<Integer, Long> watermarks = new HashMap<>();
+    private final Set<Integer> caughtUp = new HashSet<>();
+    private final Set<Thread> waiting = new HashSet<>();
+
+    /**
+     * Adds partitions assigned to a listener thread of this instance. Called by the listener thread.
+     *
+     * @param partitions the assigned partitions
+     */
+    public synchronized void assign (Collection<Integer> partitions) {
+        partitions.forEach(partition -> assigned.put(partition, Thread.currentThread()));
+        if (partitions.size() > 1) {
+            log.warn("Partitions {} are read by one listener thread, a month close cannot wait for all of them",
+                    partitions);
+        }
+    }
+
+    /**
+     * Removes partitions revoked from a listener thread of this instance, releasing the threads waiting for them.
+     *
+     * @param partitions the revoked partitions
+     */
+    public synchronized void revoke (Collection<Integer> partitions) {
+        partitions.forEach(partition -> {
+            assigned.remove(partition);
+            watermarks.remove(partition);
+            caughtUp.remove(partition);
+        });
+        notifyAll();
+    }
+
+    /**
+     * Marks a partition as having a message in progress, which may still hold calls of an earlier month.
+     *
+     * @param partition the partition
+     */
+    public synchronized void reading (int partition) {
+        caughtUp.remove(partition);
+    }
+
+    /**
+     * Marks a message of a partition as processed.
+     *
+     * @param partition   the partition
+     * @param nothingLeft true if the partition had no more records when the message was fetched
+     */
+    public synchronized void read (int partition, boolean nothingLeft) {
+        if (nothingLeft) {
+            caughtUp.add(partition);
+            notifyAll();
+        } else {
+            caughtUp.remove(partition);
+        }
+    }
+
+    /**
+     * Raises the watermark of a partition to a month and waits until every assigned partition has reached it
+     * or has nothing left to read, at most for the timeout.
+     *
+     * @param partition the partition whose calls before the month are all rated
+     * @param month     the month, as {@code year * 12 + month - 1}
+     * @throws IllegalStateException if interrupted while waiting, so the message is processed again
+     */
+    public synchronized void await (int partition, long month) {
+        watermarks.merge(partition, month, Math::max);
+        waiting.add(Thread.currentThread());
+        notifyAll();
+
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MS);
+            while (!reached(month)) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    log.warn("Closing month {} before every partition has reached it, partitions behind: {}",
+                            month, behind(month));
+                    return;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the partitions to reach month " + month, e);
+        } finally {
+            waiting.remove(Thread.currentThread());
+            notifyAll();
+        }
+    }
+
+    /**
+     * Checks whether every assigned partition that can still advance has reached a month
+     * or has nothing left to read.
+     *
+     * @param month the month
+     * @return true if the month can be closed
+     */
+    private boolean reached (long month) {
+        return behind(month).isEmpty();
+    }
+
+    /**
+     * Lists the partitions that may still hold calls before a month and are read by a listener thread
+     * not waiting at the barrier.
+     *
+     * @param month the month
+     * @return the partitions behind the month
+     */
+    private Set<Integer> behind (long month) {
+        Set<Integer> behind = new HashSet<>();
+        assigned.forEach((partition, reader) -> {
+            if (!waiting.contains(reader) && !caughtUp.contains(partition)
+                    && watermarks.getOrDefault(partition, Long.MIN_VALUE) < month) {
+                behind.add(partition);
+            }
+        });
+        return behind;
+    }
+}
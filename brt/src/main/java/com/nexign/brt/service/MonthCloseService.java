@@ -0,0 +1,340 @@
+package com.nexign.brt.service;
+
+import com.google.gson.Gson;
+import com.nexign.brt.dto.BillDTO;
+import com.nexign.brt.model.MonthClose;
+import com.nexign.brt.model.MonthCloseChunk;
+import com.nexign.brt.repository.MonthCloseChunkRepository;
+import com.nexign.brt.repository.MonthCloseRepository;
+import com.nexign.common.http.ServiceHttpClient;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Service applying the monthly payments of a month close.
+ * <p>
+ * The bills are read from the HRS as a stream of newline-delimited JSON, grouped into chunks numbered by
+ * the HRS. Each chunk is applied by one of the parallel workers with a single JDBC batch, in one transaction
+ * with the record of its number, and the number of chunks in flight is bounded, so memory does not grow
+ * with the number of clients. If the stream or a worker fails, the job is restarted as a resume of the
+ * period: the HRS streams the same chunks again, plus new chunks for clients added since, and the chunks
+ * already recorded are skipped, so no bill is applied twice and no client is left out. If the HRS no
+ * longer knows the period, the month close fails instead of guessing which bills were applied.
+ * <p>
+ * The monthly top-up and the monthly tariff changes are applied in one transaction with their mark in
+ * the {@code month_close} table, so a month close failing halfway, redelivered or run again after
+ * a restart never credits the clients twice or moves them to another tariff again.
+ */
+@Slf4j
+@Service
+public class MonthCloseService {
+
+    @Resource
+    private ServiceHttpClient serviceHttpClient;
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private MonthCloseRepository monthCloseRepository;
+
+    @Resource
+    private MonthCloseChunkRepository monthCloseChunkRepository;
+
+    @Value("${gateway.host}")
+    private String HOST;
+    @Value("${brt.month-close.workers:4}")
+    private Integer WORKERS;
+    @Value("${brt.month-close.attempts:3}")
+    private Integer ATTEMPTS;
+    private static final String PORT = "8765";
+    private static final String BASE = "/api";
+    private static final String MS = "/hrs";
+    private static final String MONTHLY_PAYMENT_STREAM = "/monthly-payment-stream";
+    private static final String PARAM_START_MONTH = "start-month";
+    private static final String PARAM_END_MONTH = "end-month";
+    private static final String PARAM_PERIOD = "period";
+    private static final String PARAM_RESUME = "resume";
+    private static final String DEBIT_BALANCE = "update client set balance = balance - ? where msisdn = ?";
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Applies the monthly payments of a month, resuming an interrupted run of the same period.
+     * Every month is closed once, a month already completed is skipped.
+     *
+     * @param year  the year of the month
+     * @param month the month of the year, from 1 to 12
+     */
+    public void closeMonth (int year, int month) {
+        String period = periodOf(year, month);
+        long endMonth = year * 12L + month - 1;
+        long startMonth = endMonth - 1;
+        if (monthCloseRepository.findById(period).map(MonthClose::getCompleted).orElse(false)) {
+            log.info("Monthly payments for period {} are already applied", period);
+            return;
+        }
+
+        for (int attempt = 1; ; attempt++) {
+            try {
+                long applied = applyBills(startMonth, endMonth, period);
+                MonthClose state = findState(period);
+                state.setCompleted(true);
+                monthCloseRepository.save(state);
+                monthCloseChunkRepository.deleteAllByPeriod(period);
+                log.info("Applied {} monthly payments for period {}", applied, period);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= ATTEMPTS) {
+                    throw e;
+                }
+                log.error("Month close for period {} failed, resuming: {}", period, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Runs the monthly top-up of a month once.
+     *
+     * @param year  the year of the month
+     * @param month the month of the year, from 1 to 12
+     * @param topUp the top-up, applied in the transaction of the mark
+     */
+    public void topUpOnce (int year, int month, Runnable topUp) {
+        runOnce(periodOf(year, month), "top-up", MonthClose::getToppedUp, state -> state.setToppedUp(true), topUp);
+    }
+
+    /**
+     * Runs the monthly tariff changes of a month once.
+     *
+     * @param year          the year of the month
+     * @param month         the month of the year, from 1 to 12
+     * @param changeTariffs the tariff changes, applied in the transaction of the mark
+     */
+    public void changeTariffsOnce (int year, int month, Runnable changeTariffs) {
+        runOnce(periodOf(year, month), "tariff change", MonthClose::getTariffsChanged,
+                state -> state.setTariffsChanged(true), changeTariffs);
+    }
+
+    /**
+     * Runs a step of a month close unless it is already marked as done, and marks it as done
+     * in the same transaction.
+     *
+     * @param period the key of the period
+     * @param name   the name of the step for the log
+     * @param done   the mark of the step in the month close
+     * @param mark   the setter of the mark
+     * @param step   the step, joining the transaction
+     */
+    private void runOnce (String period, String name, Function<MonthClose, Boolean> done,
+                          Consumer<MonthClose> mark, Runnable step) {
+        transactionTemplate.executeWithoutResult(status -> {
+            MonthClose state = findState(period);
+            if (Boolean.TRUE.equals(done.apply(state))) {
+                log.info("Monthly {} for period {} is already applied", name, period);
+                return;
+            }
+            step.run();
+            mark.accept(state);
+            monthCloseRepository.save(state);
+        });
+    }
+
+    /**
+     * Retrieves the progress of the month close of a period.
+     *
+     * @param period the key of the period
+     * @return the stored progress, or a new one with no step done
+     */
+    private MonthClose findState (String period) {
+        return monthCloseRepository.findById(period)
+                .orElseGet(() -> new MonthClose(period, false, false, false));
+    }
+
+    /**
+     * Builds the key of the period of a month.
+     *
+     * @param year  the year of the month
+     * @param month the month of the year, from 1 to 12
+     * @return the key of the period
+     */
+    private static String periodOf (int year, int month) {
+        return year + "-" + month;
+    }
+
+    /**
+     * Streams the bills of the period from the HRS and applies the chunks not applied yet.
+     * Months are passed to the HRS counted continuously across years.
+     *
+     * @param startMonth the month before the billing period, as {@code year * 12 + month - 1}
+     * @param endMonth   the month of the billing period, as {@code year * 12 + month - 1}
+     * @param period     the key of the period
+     * @return the number of bills applied
+     */
+    private long applyBills (long startMonth, long endMonth, String period) {
+        Set<Integer> applied = new HashSet<>();
+        for (MonthCloseChunk chunk : monthCloseChunkRepository.findAllByPeriod(period)) {
+            applied.add(chunk.getChunkId());
+        }
+
+        String url = String.format("http://%s:%s%s%s%s?%s=%s&%s=%s&%s=%s&%s=%s",
+                HOST,
+                PORT,
+                MS,
+                BASE,
+                MONTHLY_PAYMENT_STREAM,
+                PARAM_START_MONTH,
+                startMonth,
+                PARAM_END_MONTH,
+                endMonth,
+                PARAM_PERIOD,
+                URLEncoder.encode(period, StandardCharsets.UTF_8),
+                PARAM_RESUME,
+                !applied.isEmpty());
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKERS);
+        Semaphore inFlight = new Semaphore(WORKERS * 2);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        long count = 0;
+
+        try (Stream<String> lines = send(url)) {
+            List<BillDTO> chunk = new ArrayList<>();
+            Integer chunkId = null;
+            Iterator<String> iterator = lines.iterator();
+            while (iterator.hasNext() && failure.get() == null) {
+                String line = iterator.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                BillDTO bill = gson.fromJson(line, BillDTO.class);
+
+                if (!bill.getChunkId().equals(chunkId)) {
+                    count += submit(period, chunkId, chunk, workers, inFlight, failure);
+                    chunk = new ArrayList<>();
+                    chunkId = bill.getChunkId();
+                }
+                if (!applied.contains(chunkId)) {
+                    chunk.add(bill);
+                }
+            }
+            count += submit(period, chunkId, chunk, workers, inFlight, failure);
+        } finally {
+            // A resumed run must not start before every chunk in flight is either recorded or failed.
+            inFlight.acquireUninterruptibly(WORKERS * 2);
+            workers.shutdown();
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return count;
+    }
+
+    /**
+     * Hands a chunk to a worker, waiting while the maximum number of chunks is in flight.
+     *
+     * @param period   the key of the period
+     * @param chunkId  the number of the chunk given by the HRS
+     * @param chunk    the bills of the chunk
+     * @param workers  the worker pool
+     * @param inFlight the permits bounding the chunks in flight
+     * @param failure  the first failure of a worker
+     * @return the number of bills in the chunk
+     */
+    private int submit (String period, Integer chunkId, List<BillDTO> chunk, ExecutorService workers,
+                        Semaphore inFlight, AtomicReference<RuntimeException> failure) {
+        if (chunk.isEmpty()) {
+            return 0;
+        }
+
+        inFlight.acquireUninterruptibly();
+        workers.execute(() -> {
+            try {
+                applyChunk(period, chunkId, chunk);
+            } catch (RuntimeException e) {
+                failure.compareAndSet(null, e);
+            } finally {
+                inFlight.release();
+            }
+        });
+        return chunk.size();
+    }
+
+    /**
+     * Debits the bills of a chunk with one JDBC batch and records the chunk in the same transaction.
+     *
+     * @param period  the key of the period
+     * @param chunkId the number of the chunk given by the HRS
+     * @param chunk   the bills of the chunk
+     */
+    private void applyChunk (String period, Integer chunkId, List<BillDTO> chunk) {
+        List<Object[]> batch = new ArrayList<>(chunk.size());
+        for (BillDTO bill : chunk) {
+            if (bill.getToPay().compareTo(BigDecimal.ZERO) > 0) {
+                batch.add(new Object[] {bill.getToPay(), bill.getPhoneNumber()});
+            }
+        }
+
+        MonthCloseChunk record = MonthCloseChunk.builder()
+                .period(period)
+                .chunkId(chunkId)
+                .build();
+
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.batchUpdate(DEBIT_BALANCE, batch);
+            monthCloseChunkRepository.save(record);
+        });
+    }
+
+    /**
+     * Requests the bill stream from the HRS.
+     *
+     * @param url the URL of the bill stream
+     * @return the lines of the response, to be closed by the caller
+     */
+    private Stream<String> send (String url) {
+        try {
+            HttpResponse<Stream<String>> response = serviceHttpClient.sendLines(serviceHttpClient.get(url));
+            if (response.statusCode() == 409) {
+                response.body().close();
+                throw new IllegalStateException("HRS does not know the month close to resume, "
+                        + "the bills already applied cannot be matched");
+            }
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new IllegalStateException("HRS responded with status " + response.statusCode());
+            }
+            return response.body();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
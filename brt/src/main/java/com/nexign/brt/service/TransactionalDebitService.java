@@ -0,0 +1,140 @@
+package com.nexign.brt.service;
+
+import com.nexign.brt.dto.BillDTO;
+import com.nexign.brt.model.ConsumerOffset;
+import com.nexign.brt.repository.ConsumerOffsetRepository;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Service committing the debits of a consumed CDR message together with its offset.
+ * <p>
+ * The next offset of every partition is stored in the BRT database. The offset of a message is claimed
+ * with a conditional update, which only succeeds if the message is at or after the stored offset,
+ * and the debits of the message are applied in the same transaction. A message processed again after
+ * a restart or a rebalance is therefore never debited twice and a message whose transaction failed
+ * is consumed again from the stored offset. Offsets of a partition are not contiguous (transaction markers,
+ * compaction), so a message after a gap moves the stored offset past it.
+ */
+@Slf4j
+@Service
+public class TransactionalDebitService {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Resource
+    private ConsumerOffsetRepository consumerOffsetRepository;
+
+    @Resource
+    private BulkMutationService bulkMutationService;
+
+    @Resource
+    private CallChargeService callChargeService;
+
+    private static final String ADVANCE_OFFSET = "update consumer_offset set next_offset = ? "
+            + "where offset_key = ? and next_offset <= ?";
+    private static final String SELECT_OFFSET = "select next_offset from consumer_offset where offset_key = ?";
+    private static final String INSERT_OFFSET = "insert into consumer_offset (offset_key, next_offset) values (?, ?)";
+
+    /**
+     * Retrieves the stored offset of a partition.
+     *
+     * @param topic     the topic
+     * @param partition the partition
+     * @return the next offset to consume, empty if nothing was committed for the partition
+     */
+    public Optional<Long> findNextOffset (String topic, int partition) {
+        return consumerOffsetRepository.findById(keyOf(topic, partition)).map(ConsumerOffset::getNextOffset);
+    }
+
+    /**
+     * Checks whether a message has already been committed, so it is skipped before its calls are rated again.
+     *
+     * @param topic     the topic of the message
+     * @param partition the partition of the message
+     * @param offset    the offset of the message
+     * @return true if the stored offset of the partition is past the message
+     */
+    public boolean isCommitted (String topic, int partition, long offset) {
+        return findNextOffset(topic, partition).map(next -> offset < next).orElse(false);
+    }
+
+    /**
+     * Applies the bills of a message, records the charges of its calls and stores the offset after it
+     * in one transaction.
+     *
+     * @param topic     the topic of the message
+     * @param partition the partition of the message
+     * @param offset    the offset of the message
+     * @param bills     the bills of the calls of the message
+     * @return true if the bills were applied, false if the message had already been committed
+     */
+    public boolean commit (String topic, int partition, long offset, List<BillDTO> bills) {
+        Map<Long, BigDecimal> deltas = new HashMap<>();
+        for (BillDTO bill : bills) {
+            if (bill.getToPay().compareTo(BigDecimal.ZERO) > 0) {
+                deltas.merge(bill.getPhoneNumber(), bill.getToPay().negate(), BigDecimal::add);
+            }
+        }
+
+        Boolean applied = transactionTemplate.execute(status -> {
+            if (!claim(keyOf(topic, partition), offset)) {
+                return false;
+            }
+            bulkMutationService.addToBalances(deltas);
+            callChargeService.record(bills);
+            return true;
+        });
+
+        if (!Boolean.TRUE.equals(applied)) {
+            log.info("Message {}-{}@{} is already applied, skipping", topic, partition, offset);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Moves the stored offset of a partition past a message at or after it. The first message of a partition
+     * creates the stored offset.
+     *
+     * @param key    the key of the stored offset
+     * @param offset the offset of the message
+     * @return true if the offset was claimed, false if the stored offset is already past the message
+     */
+    private boolean claim (String key, long offset) {
+        if (jdbcTemplate.update(ADVANCE_OFFSET, offset + 1, key, offset) == 1) {
+            return true;
+        }
+
+        List<Long> stored = jdbcTemplate.queryForList(SELECT_OFFSET, Long.class, key);
+        if (stored.isEmpty()) {
+            jdbcTemplate.update(INSERT_OFFSET, key, offset + 1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Builds the key of the stored offset of a partition.
+     *
+     * @param topic     the topic
+     * @param partition the partition
+     * @return the key
+     */
+    private String keyOf (String topic, int partition) {
+        return topic + "-" + partition;
+    }
+}
@@ -0,0 +1,386 @@
+package com.nexign.brt.journal;
+
+import com.nexign.brt.model.BalanceCheckpoint;
+import com.nexign.brt.repository.BalanceCheckpointRepository;
+import com.nexign.brt.service.CallChargeService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BalanceJournalTests {
+
+    private static final long CALLER = 79000000001L;
+    private static final long OTHER = 79000000002L;
+
+    private Path dir;
+    private RecordingJdbcTemplate jdbcTemplate;
+    private List<BalanceCheckpoint> savedCheckpoints;
+    private Long storedSequence;
+    private BalanceJournal journal;
+    private boolean started;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        dir = Files.createTempDirectory("balance-journal");
+        jdbcTemplate = new RecordingJdbcTemplate();
+        savedCheckpoints = new ArrayList<>();
+        storedSequence = null;
+
+        CallChargeService callChargeService = new CallChargeService();
+        inject(callChargeService, "jdbcTemplate", jdbcTemplate);
+
+        journal = new BalanceJournal();
+        inject(journal, "JOURNAL_DIR", dir.toString());
+        inject(journal, "jdbcTemplate", jdbcTemplate);
+        inject(journal, "transactionTemplate", new DirectTransactionTemplate());
+        inject(journal, "balanceCheckpointRepository", checkpointRepository());
+        inject(journal, "callChargeService", callChargeService);
+    }
+
+    @AfterEach
+    void tearDown () throws Exception {
+        if (started) {
+            journal.stop();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void replayIgnoresTornLastLine () throws Exception {
+        writeSegment(1, "1;" + CALLER + ";-1.50\n"
+                + "2;" + CALLER + ";-2.00;1700000000;11;5\n"
+                + "3;" + OTHER + ";-7");
+
+        start();
+
+        assertEquals(new BigDecimal("-3.50"), deltaOf(jdbcTemplate.balanceUpdates(), CALLER));
+        assertNull(deltaOf(jdbcTemplate.balanceUpdates(), OTHER));
+        assertEquals(1, jdbcTemplate.chargeInserts().size());
+        assertArrayEquals(new Object[] {CALLER, 1700000000L, 11L, 5L, new BigDecimal("2.00")},
+                jdbcTemplate.chargeInserts().get(0));
+        assertEquals(2L, savedCheckpoints.get(0).getLastSequence());
+        assertFalse(Files.exists(segmentPath(1)));
+    }
+
+    @Test
+    void replaySkipsEntriesAlreadyFolded () throws Exception {
+        storedSequence = 1L;
+        writeSegment(1, "1;" + CALLER + ";-1.50\n"
+                + "2;" + OTHER + ";-2.00;1700000000;null;null\n");
+
+        start();
+
+        assertNull(deltaOf(jdbcTemplate.balanceUpdates(), CALLER));
+        assertEquals(new BigDecimal("-2.00"), deltaOf(jdbcTemplate.balanceUpdates(), OTHER));
+        assertArrayEquals(new Object[] {OTHER, 1700000000L, null, null, new BigDecimal("2.00")},
+                jdbcTemplate.chargeInserts().get(0));
+    }
+
+    @Test
+    void checkpointFoldsAppendedChangesAndCharges () throws Exception {
+        start();
+
+        journal.appendCharge(CALLER, new BigDecimal("0.00"), 1700000000L, 11L, 5L).get();
+        journal.appendCharge(CALLER, new BigDecimal("3.20"), 1700000100L, 11L, 5L).get();
+        journal.append(CALLER, new BigDecimal("100.00")).get();
+        journal.checkpoint();
+
+        assertEquals(new BigDecimal("96.80"), deltaOf(jdbcTemplate.balanceUpdates(), CALLER));
+        assertEquals(2, jdbcTemplate.chargeInserts().size());
+        assertEquals(3L, savedCheckpoints.get(savedCheckpoints.size() - 1).getLastSequence());
+    }
+
+    @Test
+    void appendedEntriesAreReplayedAfterRestart () throws Exception {
+        start();
+        journal.appendCharge(CALLER, new BigDecimal("1.10"), 1700000000L, 12L, 7L).get();
+        journal.append(OTHER, new BigDecimal("5")).get();
+        // Simulates a crash: nothing was folded, the segment stays on disk.
+        started = false;
+
+        BalanceJournal restarted = new BalanceJournal();
+        for (String field : new String[] {"JOURNAL_DIR", "jdbcTemplate", "transactionTemplate",
+                "balanceCheckpointRepository", "callChargeService"}) {
+            inject(restarted, field, read(journal, field));
+        }
+        journal = restarted;
+        start();
+
+        assertEquals(new BigDecimal("-1.10"), deltaOf(jdbcTemplate.balanceUpdates(), CALLER));
+        assertEquals(new BigDecimal("5"), deltaOf(jdbcTemplate.balanceUpdates(), OTHER));
+        assertArrayEquals(new Object[] {CALLER, 1700000000L, 12L, 7L, new BigDecimal("1.10")},
+                jdbcTemplate.chargeInserts().get(0));
+        assertTrue(savedCheckpoints.get(savedCheckpoints.size() - 1).getLastSequence() >= 2L);
+    }
+
+    @Test
+    void failedGroupIsCutFromTheSegmentAndNotReplayed () throws Exception {
+        start();
+        journal.append(CALLER, new BigDecimal("10")).get();
+        long size = Files.size(segmentPath(1));
+
+        FailingChannel failing = new FailingChannel((FileChannel) read(journal, "channel"));
+        inject(journal, "channel", failing);
+        failing.forceFailures = 1;
+        ExecutionException e = assertThrows(ExecutionException.class,
+                () -> journal.append(OTHER, new BigDecimal("-4")).get());
+        assertTrue(e.getCause() instanceof IOException);
+        assertEquals(size, Files.size(segmentPath(1)));
+
+        journal.append(OTHER, new BigDecimal("-4")).get();
+        assertEquals(3L, read(journal, "nextSequence"));
+        // Simulates a crash: the segment is replayed by a new instance.
+        started = false;
+
+        BalanceJournal restarted = new BalanceJournal();
+        for (String field : new String[] {"JOURNAL_DIR", "jdbcTemplate", "transactionTemplate",
+                "balanceCheckpointRepository", "callChargeService"}) {
+            inject(restarted, field, read(journal, field));
+        }
+        journal = restarted;
+        start();
+
+        assertEquals(new BigDecimal("10"), deltaOf(jdbcTemplate.balanceUpdates(), CALLER));
+        assertEquals(new BigDecimal("-4"), deltaOf(jdbcTemplate.balanceUpdates(), OTHER));
+        assertEquals(2L, savedCheckpoints.get(savedCheckpoints.size() - 1).getLastSequence());
+    }
+
+    @Test
+    void sequencesOfAGroupThatCannotBeCutAreNotReused () throws Exception {
+        start();
+        FailingChannel failing = new FailingChannel((FileChannel) read(journal, "channel"));
+        inject(journal, "channel", failing);
+        failing.forceFailures = 1;
+        failing.failTruncate = true;
+
+        assertThrows(ExecutionException.class, () -> journal.append(CALLER, new BigDecimal("1")).get());
+
+        assertEquals(2L, read(journal, "nextSequence"));
+    }
+
+    private void start () throws IOException {
+        journal.start();
+        started = true;
+    }
+
+    private void writeSegment (long id, String content) throws IOException {
+        Files.writeString(segmentPath(id), content, StandardCharsets.US_ASCII);
+    }
+
+    private Path segmentPath (long id) {
+        return dir.resolve(String.format("balance-%020d.log", id));
+    }
+
+    private static BigDecimal deltaOf (List<Object[]> updates, long msisdn) {
+        BigDecimal total = null;
+        for (Object[] update : updates) {
+            if (update[1].equals(msisdn)) {
+                total = total == null ? (BigDecimal) update[0] : total.add((BigDecimal) update[0]);
+            }
+        }
+        return total;
+    }
+
+    private BalanceCheckpointRepository checkpointRepository () {
+        return (BalanceCheckpointRepository) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {BalanceCheckpointRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.ofNullable(storedSequence)
+                            .map(sequence -> new BalanceCheckpoint((Long) args[0], sequence));
+                    case "save" -> {
+                        savedCheckpoints.add((BalanceCheckpoint) args[0]);
+                        yield args[0];
+                    }
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "BalanceCheckpointRepository stub";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    private static void inject (Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+
+    private static Object read (Object target, String name) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        return field.get(target);
+    }
+
+    /**
+     * Records JDBC batches instead of running them.
+     */
+    private static final class RecordingJdbcTemplate extends JdbcTemplate {
+        private final List<Map.Entry<String, List<Object[]>>> batches = new ArrayList<>();
+
+        @Override
+        public int[] batchUpdate (String sql, List<Object[]> batchArgs) {
+            batches.add(Map.entry(sql, new ArrayList<>(batchArgs)));
+            return new int[batchArgs.size()];
+        }
+
+        private List<Object[]> balanceUpdates () {
+            return rowsOf("update client");
+        }
+
+        private List<Object[]> chargeInserts () {
+            return rowsOf("insert into call_charge");
+        }
+
+        private List<Object[]> rowsOf (String prefix) {
+            List<Object[]> rows = new ArrayList<>();
+            batches.stream().filter(batch -> batch.getKey().startsWith(prefix))
+                    .forEach(batch -> rows.addAll(batch.getValue()));
+            return rows;
+        }
+    }
+
+    /**
+     * Delegates to a segment channel and fails the next forces or every truncation on demand.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel delegate;
+        private volatile int forceFailures;
+        private volatile boolean failTruncate;
+
+        private FailingChannel (FileChannel delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public int read (ByteBuffer dst) throws IOException {
+            return delegate.read(dst);
+        }
+
+        @Override
+        public long read (ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return delegate.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write (ByteBuffer src) throws IOException {
+            return delegate.write(src);
+        }
+
+        @Override
+        public long write (ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return delegate.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position () throws IOException {
+            return delegate.position();
+        }
+
+        @Override
+        public FileChannel position (long newPosition) throws IOException {
+            delegate.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size () throws IOException {
+            return delegate.size();
+        }
+
+        @Override
+        public FileChannel truncate (long size) throws IOException {
+            if (failTruncate) {
+                throw new IOException("Truncate failed");
+            }
+            delegate.truncate(size);
+            return this;
+        }
+
+        @Override
+        public void force (boolean metaData) throws IOException {
+            if (forceFailures > 0) {
+                forceFailures--;
+                throw new IOException("Force failed");
+            }
+            delegate.force(metaData);
+        }
+
+        @Override
+        public long transferTo (long position, long count, WritableByteChannel target) throws IOException {
+            return delegate.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom (ReadableByteChannel src, long position, long count) throws IOException {
+            return delegate.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read (ByteBuffer dst, long position) throws IOException {
+            return delegate.read(dst, position);
+        }
+
+        @Override
+        public int write (ByteBuffer src, long position) throws IOException {
+            return delegate.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map (MapMode mode, long position, long size) throws IOException {
+            return delegate.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock (long position, long size, boolean shared) throws IOException {
+            return delegate.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock (long position, long size, boolean shared) throws IOException {
+            return delegate.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel () throws IOException {
+            delegate.close();
+        }
+    }
+
+    /**
+     * Runs the callback without a transaction manager.
+     */
+    private static final class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public void executeWithoutResult (Consumer<TransactionStatus> action) {
+            action.accept(null);
+        }
+    }
+}
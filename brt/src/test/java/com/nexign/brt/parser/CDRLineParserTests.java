@@ -0,0 +1,118 @@
+package com.nexign.brt.parser;
+
+import com.nexign.brt.model.CallType;
+import com.nexign.common.cdr.MalformedCDRException;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CDRLineParserTests {
+
+    private static CDRLineParser parser (String batch) {
+        return new CDRLineParser(batch.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @Test
+    void parsesWellFormedLinesAndSkipsBlankOnes () {
+        CDRLineParser parser = parser("01,79000000001,79000000002,1700000000,1700000060\r\n\n  \n02,79000000003,79000000004,1700000100,1700000200");
+        CDRRecord record = new CDRRecord();
+
+        assertTrue(parser.next(record));
+        assertEquals(CallType.INCOMING, record.getCallType());
+        assertEquals(79000000001L, record.getCallerNumber());
+        assertEquals(79000000002L, record.getCalleeNumber());
+        assertEquals(1700000000L, record.getStartTime());
+        assertEquals(1700000060L, record.getEndTime());
+
+        assertTrue(parser.next(record));
+        assertEquals(CallType.OUTCOMING, record.getCallType());
+        assertEquals(4, parser.getLine());
+        assertFalse(parser.next(record));
+    }
+
+    @Test
+    void skipsLeadingWhitespaceOfALine () {
+        CDRLineParser parser = parser("  \t01,79000000001,79000000002,1700000000,1700000060\n 02,79000000003,79000000004,10,20\n");
+        CDRRecord record = new CDRRecord();
+
+        assertTrue(parser.next(record));
+        assertEquals(CallType.INCOMING, record.getCallType());
+        assertEquals(79000000001L, record.getCallerNumber());
+        assertTrue(parser.next(record));
+        assertEquals(CallType.OUTCOMING, record.getCallType());
+        assertEquals(2, parser.getLine());
+        assertFalse(parser.next(record));
+    }
+
+    @Test
+    void reportsColumnsFromTheStartOfAnIndentedLine () {
+        MalformedCDRException e = assertThrows(MalformedCDRException.class,
+                () -> parser("  03,79000000001,79000000002,1,2\n").next(new CDRRecord()));
+
+        assertEquals(1, e.getLine());
+        assertEquals(3, e.getColumn());
+    }
+
+    @Test
+    void rejectsUnknownCallType () {
+        MalformedCDRException e = assertThrows(MalformedCDRException.class,
+                () -> parser("03,79000000001,79000000002,1,2\n").next(new CDRRecord()));
+
+        assertEquals(1, e.getLine());
+        assertEquals(1, e.getColumn());
+    }
+
+    @Test
+    void rejectsMissingField () {
+        MalformedCDRException e = assertThrows(MalformedCDRException.class,
+                () -> parser("01,79000000001,79000000002,1\n").next(new CDRRecord()));
+
+        assertEquals(1, e.getLine());
+        assertEquals(29, e.getColumn());
+    }
+
+    @Test
+    void rejectsNonDigitCharacters () {
+        MalformedCDRException e = assertThrows(MalformedCDRException.class,
+                () -> parser("01,7900000000x,79000000002,1,2\n").next(new CDRRecord()));
+
+        assertEquals(14, e.getColumn());
+    }
+
+    @Test
+    void rejectsEmptyAndNegativeFields () {
+        assertThrows(MalformedCDRException.class, () -> parser("01,,79000000002,1,2\n").next(new CDRRecord()));
+        assertThrows(MalformedCDRException.class, () -> parser("01,79000000001,79000000002,-1,2\n").next(new CDRRecord()));
+    }
+
+    @Test
+    void rejectsTrailingCharactersAfterTheLastField () {
+        assertThrows(MalformedCDRException.class,
+                () -> parser("01,79000000001,79000000002,1,2,3\n").next(new CDRRecord()));
+        assertThrows(MalformedCDRException.class,
+                () -> parser("01,79000000001,79000000002,1,2 \n").next(new CDRRecord()));
+    }
+
+    @Test
+    void rejectsNumbersTooLongForALong () {
+        assertThrows(MalformedCDRException.class,
+                () -> parser("01,1234567890123456789,79000000002,1,2\n").next(new CDRRecord()));
+    }
+
+    @Test
+    void continuesWithTheNextLineAfterAMalformedOne () {
+        CDRLineParser parser = parser("01,garbage\n\n02,79000000003,79000000004,10,20\n");
+        CDRRecord record = new CDRRecord();
+
+        assertThrows(MalformedCDRException.class, () -> parser.next(record));
+        assertTrue(parser.next(record));
+        assertEquals(79000000003L, record.getCallerNumber());
+        assertEquals(3, parser.getLine());
+        assertFalse(parser.next(record));
+    }
+}
@@ -0,0 +1,143 @@
+package com.nexign.brt.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonthBarrierTests {
+
+    private static final long MONTH = 2024 * 12L;
+
+    private MonthBarrier barrier;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        barrier = new MonthBarrier();
+        Field timeout = MonthBarrier.class.getDeclaredField("TIMEOUT_MS");
+        timeout.setAccessible(true);
+        timeout.set(barrier, 10_000L);
+    }
+
+    @Test
+    void waitsUntilEveryPartitionReachesTheMonth () throws Exception {
+        CountDownLatch assigned = new CountDownLatch(2);
+        CountDownLatch secondMayArrive = new CountDownLatch(1);
+        CompletableFuture<Void> first = onNewThread(() -> {
+            barrier.assign(List.of(0));
+            assigned.countDown();
+            awaitQuietly(assigned);
+            barrier.reading(0);
+            barrier.await(0, MONTH);
+        });
+        CompletableFuture<Void> second = onNewThread(() -> {
+            barrier.assign(List.of(1));
+            assigned.countDown();
+            barrier.reading(1);
+            awaitQuietly(secondMayArrive);
+            barrier.await(1, MONTH);
+        });
+
+        assertFalse(waitFor(first, 300), "the first partition must wait for the second one");
+
+        secondMayArrive.countDown();
+
+        assertTrue(waitFor(first, 5000));
+        assertTrue(waitFor(second, 5000));
+    }
+
+    @Test
+    void doesNotWaitForPartitionsWithNothingLeft () throws Exception {
+        CountDownLatch idle = new CountDownLatch(1);
+        onNewThread(() -> {
+            barrier.assign(List.of(1));
+            barrier.reading(1);
+            barrier.read(1, true);
+            idle.countDown();
+        }).get(5, TimeUnit.SECONDS);
+        idle.await();
+
+        CompletableFuture<Void> first = onNewThread(() -> {
+            barrier.assign(List.of(0));
+            barrier.reading(0);
+            barrier.await(0, MONTH);
+        });
+
+        assertTrue(waitFor(first, 5000));
+    }
+
+    @Test
+    void partitionWithRecordsLeftIsWaitedFor () throws Exception {
+        onNewThread(() -> {
+            barrier.assign(List.of(1));
+            barrier.reading(1);
+            barrier.read(1, false);
+        }).get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> first = onNewThread(() -> {
+            barrier.assign(List.of(0));
+            barrier.await(0, MONTH);
+        });
+
+        assertFalse(waitFor(first, 300));
+
+        barrier.revoke(List.of(1));
+
+        assertTrue(waitFor(first, 5000), "a revoked partition must release the waiting threads");
+    }
+
+    @Test
+    void doesNotWaitForOtherPartitionsOfTheWaitingThread () throws Exception {
+        CompletableFuture<Void> thread = onNewThread(() -> {
+            barrier.assign(List.of(0, 1));
+            barrier.await(0, MONTH);
+        });
+
+        assertTrue(waitFor(thread, 5000));
+    }
+
+    @Test
+    void closesTheMonthAfterTheTimeout () throws Exception {
+        Field timeout = MonthBarrier.class.getDeclaredField("TIMEOUT_MS");
+        timeout.setAccessible(true);
+        timeout.set(barrier, 200L);
+        onNewThread(() -> barrier.assign(List.of(1))).get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> first = onNewThread(() -> {
+            barrier.assign(List.of(0));
+            barrier.await(0, MONTH);
+        });
+
+        assertTrue(waitFor(first, 5000));
+    }
+
+    // Every listener thread owns its partitions, so each task runs on a thread of its own, never a pooled one.
+    private static CompletableFuture<Void> onNewThread (Runnable task) {
+        return CompletableFuture.runAsync(task, command -> new Thread(command).start());
+    }
+
+    private static boolean waitFor (CompletableFuture<Void> future, long millis) throws Exception {
+        try {
+            future.get(millis, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    private static void awaitQuietly (CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.nexign.brt.service;
+
+import com.google.gson.Gson;
+import com.nexign.brt.dto.BillDTO;
+import com.nexign.brt.model.MonthClose;
+import com.nexign.brt.model.MonthCloseChunk;
+import com.nexign.brt.repository.MonthCloseChunkRepository;
+import com.nexign.brt.repository.MonthCloseRepository;
+import com.nexign.common.http.ServiceHttpClient;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.net.ssl.SSLSession;
+import java.io.UncheckedIOException;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MonthCloseServiceTests {
+
+    private static final String PERIOD = "2024-3";
+    private static final long A = 79000000001L;
+    private static final long B = 79000000002L;
+    private static final long C = 79000000003L;
+    private static final long D = 79000000004L;
+
+    private final Gson gson = new Gson();
+    private final Deque<HttpResponse<Stream<String>>> responses = new ArrayDeque<>();
+    private final List<String> urls = new ArrayList<>();
+    private final List<Object[]> debits = Collections.synchronizedList(new ArrayList<>());
+    private final List<MonthCloseChunk> chunks = Collections.synchronizedList(new ArrayList<>());
+    private final Map<String, MonthClose> states = new HashMap<>();
+    private MonthCloseService service;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        service = new MonthCloseService();
+        inject("serviceHttpClient", new ScriptedHttpClient());
+        inject("jdbcTemplate", new RecordingJdbcTemplate());
+        inject("transactionTemplate", new DirectTransactionTemplate());
+        inject("monthCloseRepository", repository(MonthCloseRepository.class, (method, args) -> switch (method) {
+            case "findById" -> Optional.ofNullable(states.get((String) args[0]));
+            case "save" -> {
+                MonthClose state = (MonthClose) args[0];
+                states.put(state.getPeriod(), state);
+                yield state;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        }));
+        inject("monthCloseChunkRepository", repository(MonthCloseChunkRepository.class, (method, args) -> switch (method) {
+            case "findAllByPeriod" -> chunks.stream().filter(chunk -> chunk.getPeriod().equals(args[0])).toList();
+            case "save" -> {
+                chunks.add((MonthCloseChunk) args[0]);
+                yield args[0];
+            }
+            case "deleteAllByPeriod" -> {
+                chunks.removeIf(chunk -> chunk.getPeriod().equals(args[0]));
+                yield null;
+            }
+            default -> throw new UnsupportedOperationException(method);
+        }));
+        inject("HOST", "localhost");
+        inject("WORKERS", 2);
+        inject("ATTEMPTS", 3);
+    }
+
+    @Test
+    void resumeSkipsTheChunksAlreadyApplied () {
+        chunks.add(MonthCloseChunk.builder().period(PERIOD).chunkId(0).build());
+        responses.add(response(200, lines(bill(0, A), bill(0, B), bill(1, C))));
+
+        service.closeMonth(2024, 3);
+
+        assertTrue(urls.get(0).endsWith("&resume=true"));
+        assertEquals(List.of(C), debitedMsisdns());
+        assertTrue(states.get(PERIOD).getCompleted());
+        assertTrue(chunks.isEmpty());
+    }
+
+    @Test
+    void failedStreamIsResumedWithoutApplyingAChunkTwice () {
+        responses.add(response(200, failingAfter(bill(0, A), bill(0, B), bill(1, C))));
+        responses.add(response(200, lines(bill(0, A), bill(0, B), bill(1, C), bill(2, D))));
+
+        service.closeMonth(2024, 3);
+
+        assertEquals(2, urls.size());
+        assertTrue(urls.get(0).endsWith("&resume=false"));
+        assertTrue(urls.get(1).endsWith("&resume=true"));
+        assertEquals(List.of(A, B, C, D), debitedMsisdns());
+        assertTrue(states.get(PERIOD).getCompleted());
+    }
+
+    @Test
+    void unknownPeriodToResumeFailsTheMonthClose () {
+        chunks.add(MonthCloseChunk.builder().period(PERIOD).chunkId(0).build());
+        for (int i = 0; i < 3; i++) {
+            responses.add(response(409, Stream.empty()));
+        }
+
+        assertThrows(IllegalStateException.class, () -> service.closeMonth(2024, 3));
+
+        assertTrue(debits.isEmpty());
+        assertFalse(states.containsKey(PERIOD));
+        assertEquals(1, chunks.size());
+    }
+
+    @Test
+    void completedMonthIsNotClosedAgain () {
+        states.put(PERIOD, new MonthClose(PERIOD, true, true, false));
+
+        service.closeMonth(2024, 3);
+
+        assertTrue(urls.isEmpty());
+    }
+
+    private String bill (int chunkId, long msisdn) {
+        return gson.toJson(BillDTO.builder().phoneNumber(msisdn).toPay(new BigDecimal("100")).chunkId(chunkId).build());
+    }
+
+    private static Stream<String> lines (String... lines) {
+        return Stream.of(lines);
+    }
+
+    private static Stream<String> failingAfter (String... lines) {
+        Iterator<String> iterator = Arrays.asList(lines).iterator();
+        return Stream.generate(() -> {
+            if (iterator.hasNext()) {
+                return iterator.next();
+            }
+            throw new UncheckedIOException(new IOException("Connection reset"));
+        });
+    }
+
+    private List<Long> debitedMsisdns () {
+        return debits.stream().map(debit -> (Long) debit[1]).sorted().toList();
+    }
+
+    private void inject (String name, Object value) throws ReflectiveOperationException {
+        Field field = MonthCloseService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+
+    private static <T> T repository (Class<T> type, RepositoryMethod methods) {
+        return type.cast(Proxy.newProxyInstance(MonthCloseServiceTests.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> type.getSimpleName() + " stub";
+                    default -> methods.invoke(method.getName(), args);
+                }));
+    }
+
+    private static HttpResponse<Stream<String>> response (int status, Stream<String> body) {
+        return new HttpResponse<>() {
+            @Override
+            public int statusCode () {
+                return status;
+            }
+
+            @Override
+            public HttpRequest request () {
+                return null;
+            }
+
+            @Override
+            public Optional<HttpResponse<Stream<String>>> previousResponse () {
+                return Optional.empty();
+            }
+
+            @Override
+            public HttpHeaders headers () {
+                return HttpHeaders.of(Map.of(), (name, value) -> true);
+            }
+
+            @Override
+            public Stream<String> body () {
+                return body;
+            }
+
+            @Override
+            public Optional<SSLSession> sslSession () {
+                return Optional.empty();
+            }
+
+            @Override
+            public URI uri () {
+                return null;
+            }
+
+            @Override
+            public HttpClient.Version version () {
+                return HttpClient.Version.HTTP_1_1;
+            }
+        };
+    }
+
+    /**
+     * A method of a stubbed repository.
+     */
+    @FunctionalInterface
+    private interface RepositoryMethod {
+        Object invoke (String method, Object[] args);
+    }
+
+    /**
+     * Answers the bill stream requests with the scripted responses in order.
+     */
+    private final class ScriptedHttpClient extends ServiceHttpClient {
+        @Override
+        public HttpRequest get (String url) {
+            return HttpRequest.newBuilder(URI.create(url)).GET().build();
+        }
+
+        @Override
+        public HttpResponse<Stream<String>> sendLines (HttpRequest request) {
+            urls.add(request.uri().toString());
+            return responses.remove();
+        }
+    }
+
+    /**
+     * Records the debits instead of running them.
+     */
+    private final class RecordingJdbcTemplate extends JdbcTemplate {
+        @Override
+        public int[] batchUpdate (String sql, List<Object[]> batchArgs) {
+            debits.addAll(batchArgs);
+            return new int[batchArgs.size()];
+        }
+    }
+
+    /**
+     * Runs the callback without a transaction manager.
+     */
+    private static final class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public void executeWithoutResult (Consumer<TransactionStatus> action) {
+            action.accept(null);
+        }
+    }
+}
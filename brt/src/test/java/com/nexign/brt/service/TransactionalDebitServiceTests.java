@@ -0,0 +1,160 @@
+package com.nexign.brt.service;
+
+import com.nexign.brt.dto.BillDTO;
+import com.nexign.brt.model.ConsumerOffset;
+import com.nexign.brt.repository.ConsumerOffsetRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionalDebitServiceTests {
+
+    private static final String TOPIC = "cdr-topic";
+    private static final String KEY = TOPIC + "-0";
+    private static final long MSISDN = 79000000001L;
+
+    private final Map<String, Long> offsets = new HashMap<>();
+    private final List<Map<Long, BigDecimal>> debits = new ArrayList<>();
+    private TransactionalDebitService service;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        service = new TransactionalDebitService();
+        inject("jdbcTemplate", new OffsetTable());
+        inject("transactionTemplate", new DirectTransactionTemplate());
+        inject("bulkMutationService", new RecordingBulkMutationService());
+        inject("callChargeService", new IgnoringCallChargeService());
+        inject("consumerOffsetRepository", Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] {ConsumerOffsetRepository.class}, (proxy, method, args) -> switch (method.getName()) {
+                    case "findById" -> Optional.ofNullable(offsets.get((String) args[0]))
+                            .map(next -> new ConsumerOffset((String) args[0], next));
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "ConsumerOffsetRepository stub";
+                    default -> throw new UnsupportedOperationException(method.getName());
+                }));
+    }
+
+    @Test
+    void firstMessageCreatesTheStoredOffset () {
+        assertTrue(service.commit(TOPIC, 0, 5, bills()));
+
+        assertEquals(6L, offsets.get(KEY));
+        assertEquals(1, debits.size());
+    }
+
+    @Test
+    void messageAtTheStoredOffsetIsClaimed () {
+        offsets.put(KEY, 5L);
+
+        assertTrue(service.commit(TOPIC, 0, 5, bills()));
+
+        assertEquals(6L, offsets.get(KEY));
+        assertEquals(1, debits.size());
+    }
+
+    @Test
+    void messageAfterAGapMovesTheStoredOffsetPastIt () {
+        offsets.put(KEY, 5L);
+
+        assertTrue(service.commit(TOPIC, 0, 8, bills()));
+
+        assertEquals(9L, offsets.get(KEY));
+        assertEquals(1, debits.size());
+    }
+
+    @Test
+    void duplicateMessageIsNotDebitedAgain () {
+        offsets.put(KEY, 5L);
+
+        assertFalse(service.commit(TOPIC, 0, 4, bills()));
+
+        assertEquals(5L, offsets.get(KEY));
+        assertTrue(debits.isEmpty());
+    }
+
+    @Test
+    void onlyMessagesBeforeTheStoredOffsetAreCommitted () {
+        offsets.put(KEY, 5L);
+
+        assertTrue(service.isCommitted(TOPIC, 0, 4));
+        assertFalse(service.isCommitted(TOPIC, 0, 5));
+        assertFalse(service.isCommitted(TOPIC, 1, 0));
+    }
+
+    private static List<BillDTO> bills () {
+        return List.of(BillDTO.builder().phoneNumber(MSISDN).toPay(new BigDecimal("1.5")).build());
+    }
+
+    private void inject (String name, Object value) throws ReflectiveOperationException {
+        Field field = TransactionalDebitService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+
+    /**
+     * Keeps the consumer_offset table in memory.
+     */
+    private final class OffsetTable extends JdbcTemplate {
+        @Override
+        public int update (String sql, Object... args) {
+            if (sql.startsWith("insert")) {
+                offsets.put((String) args[0], (Long) args[1]);
+                return 1;
+            }
+            Long stored = offsets.get((String) args[1]);
+            if (stored == null || stored > (Long) args[2]) {
+                return 0;
+            }
+            offsets.put((String) args[1], (Long) args[0]);
+            return 1;
+        }
+
+        @Override
+        public <T> List<T> queryForList (String sql, Class<T> elementType, Object... args) {
+            Long stored = offsets.get((String) args[0]);
+            return stored == null ? List.of() : List.of(elementType.cast(stored));
+        }
+    }
+
+    /**
+     * Runs the callback without a transaction manager.
+     */
+    private static final class DirectTransactionTemplate extends TransactionTemplate {
+        @Override
+        public <T> T execute (TransactionCallback<T> action) {
+            return action.doInTransaction(null);
+        }
+    }
+
+    /**
+     * Records the debits instead of running them.
+     */
+    private final class RecordingBulkMutationService extends BulkMutationService {
+        @Override
+        public int addToBalances (Map<Long, BigDecimal> deltas) {
+            debits.add(deltas);
+            return deltas.size();
+        }
+    }
+
+    /**
+     * Drops the charges of the calls.
+     */
+    private static final class IgnoringCallChargeService extends CallChargeService {
+        @Override
+        public void record (List<BillDTO> bills) {
+        }
+    }
+}
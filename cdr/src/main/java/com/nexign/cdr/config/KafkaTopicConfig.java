@@ -0,0 +1,50 @@
+package com.nexign.cdr.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration class declaring the Kafka topics used by the CDR generator.
+ */
+@Configuration
+public class KafkaTopicConfig {
+
+    @Value("${cdr.topic.partitions:6}")
+    private Integer PARTITIONS;
+    @Value("${client.changelog.partitions:3}")
+    private Integer CLIENT_CHANGELOG_PARTITIONS;
+    private static final String CDR_TOPIC = "cdr-topic";
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+
+    /**
+     * Declares the CDR topic. Records are partitioned by caller MSISDN, so the number of partitions
+     * bounds how many BRT consumers can process CDRs in parallel.
+     *
+     * @return The CDR topic definition.
+     */
+    @Bean
+    public NewTopic cdrTopic () {
+        return TopicBuilder.name(CDR_TOPIC)
+                .partitions(PARTITIONS)
+                .replicas(1)
+                .build();
+    }
+
+    /**
+     * Declares the compacted client changelog topic, so it exists before the listener is assigned
+     * its partitions even if the generator starts before BRT.
+     *
+     * @return The client changelog topic definition.
+     */
+    @Bean
+    public NewTopic clientChangelogTopic () {
+        return TopicBuilder.name(CLIENT_CHANGELOG_TOPIC)
+                .partitions(CLIENT_CHANGELOG_PARTITIONS)
+                .replicas(1)
+                .compact()
+                .build();
+    }
+}
@@ -1,5 +1,9 @@
 package com.nexign.cdr.controller;
 
+import com.nexign.cdr.model.LoadReport;
+import com.nexign.cdr.model.ProducerStats;
+import com.nexign.cdr.producers.KafkaCDRProducer;
+import com.nexign.cdr.service.BackfillService;
 import com.nexign.cdr.service.CDRService;
 import com.nexign.cdr.service.SubscriberService;
 import jakarta.annotation.Resource;
@@ -21,6 +25,12 @@ public class CDRController {
     @Resource
     private SubscriberService subscriberService;
 
+    @Resource
+    private KafkaCDRProducer kafkaCDRProducer;
+
+    @Resource
+    private BackfillService backfillService;
+
     /**
      * Start emulating the switch.
      *
@@ -31,6 +41,40 @@ public class CDRController {
         cdrService.startEmulate();
         return ResponseEntity.status(HttpStatus.OK).body("Эмуляция коммутатора прошла успешно.");
     }
+    /**
+     * Start generating synthetic load at the configured rate.
+     *
+     * @return ResponseEntity with the number of generated CDRs and the achieved throughput.
+     */
+    @PostMapping("/load")
+    public ResponseEntity<String> load() {
+        LoadReport report = cdrService.startLoad();
+        return ResponseEntity.status(HttpStatus.OK).body("Нагрузочная генерация завершена: %d CDR за %d мс, %d CDR/с (цель %d CDR/с)."
+                .formatted(report.getGenerated(), report.getElapsedMillis(), Math.round(report.getAchievedRate()), report.getTargetRate()));
+    }
+
+    /**
+     * Re-rate the stored CDRs of a time range in the HRS.
+     *
+     * @param from The start of the range in unix time, inclusive.
+     * @param to   The end of the range in unix time, exclusive.
+     * @return ResponseEntity with the JSON report of the HRS, including the delta ledger.
+     */
+    @PostMapping("/backfill")
+    public ResponseEntity<String> backfill(@RequestParam long from, @RequestParam long to) {
+        return ResponseEntity.status(HttpStatus.OK).body(backfillService.backfill(from, to));
+    }
+
+    /**
+     * Get the delivery statistics of the CDR producer.
+     *
+     * @return ResponseEntity with the sent, acknowledged, failed and in-flight messages and the send rate.
+     */
+    @GetMapping("/producer-stats")
+    public ResponseEntity<ProducerStats> producerStats() {
+        return ResponseEntity.status(HttpStatus.OK).body(kafkaCDRProducer.getStats());
+    }
+
     /**
      * Register a stop-point for CDR.
      *
@@ -8,7 +8,7 @@ import lombok.experimental.FieldDefaults;
  * Represents a Call Detail Record (CDR) entity storing information about a call.
  */
 @Entity
-@Table
+@Table(indexes = @Index(name = "idx_cdr_start_time", columnList = "start_time, call_id"))
 @Data
 @Builder
 @FieldDefaults(level = AccessLevel.PRIVATE)
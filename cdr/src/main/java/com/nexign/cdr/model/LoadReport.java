@@ -0,0 +1,25 @@
+package com.nexign.cdr.model;
+
+import lombok.Value;
+
+/**
+ * Represents the result of a load generation run.
+ */
+@Value
+public class LoadReport {
+
+    long generated;
+
+    long elapsedMillis;
+
+    long targetRate;
+
+    /**
+     * Computes the achieved number of CDRs per second.
+     *
+     * @return The achieved throughput.
+     */
+    public double getAchievedRate() {
+        return elapsedMillis > 0 ? generated * 1000.0 / elapsedMillis : 0;
+    }
+}
@@ -0,0 +1,26 @@
+package com.nexign.cdr.model;
+
+import lombok.Value;
+
+/**
+ * Represents the delivery statistics of the CDR producer.
+ */
+@Value
+public class ProducerStats {
+
+    long sent;
+
+    long acknowledged;
+
+    long failed;
+
+    long inFlight;
+
+    long bytesSent;
+
+    double sendRate;
+
+    double batchSizeAvg;
+
+    double compressionRateAvg;
+}
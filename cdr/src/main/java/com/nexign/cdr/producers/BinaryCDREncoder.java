@@ -0,0 +1,54 @@
+package com.nexign.cdr.producers;
+
+import com.nexign.cdr.model.CDR;
+import com.nexign.cdr.model.CallType;
+import com.nexign.common.cdr.BinaryCDRFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Encoder of CDRs into the fixed-width binary batch format described by {@link BinaryCDRFormat}.
+ */
+public final class BinaryCDREncoder {
+
+    private BinaryCDREncoder() {
+    }
+
+    /**
+     * Encodes a batch of CDRs into a byte array.
+     *
+     * @param cdrList The CDRs to encode, in the order they must be processed.
+     * @return The encoded batch.
+     */
+    public static byte[] encode(List<CDR> cdrList) {
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCDRFormat.HEADER_SIZE + cdrList.size() * BinaryCDRFormat.RECORD_SIZE)
+                .order(ByteOrder.BIG_ENDIAN);
+        BinaryCDRFormat.putHeader(buffer, cdrList.size());
+
+        for (CDR cdr : cdrList) {
+            putRecord(buffer, cdr.getCallType(), cdr.getCallerNumber(), cdr.getCalleeNumber(),
+                    cdr.getStartTime(), cdr.getEndTime());
+        }
+
+        return buffer.array();
+    }
+
+    /**
+     * Writes one record at the current position of the buffer.
+     *
+     * @param buffer       The big-endian buffer to write to.
+     * @param callType     The call type.
+     * @param callerNumber The caller MSISDN.
+     * @param calleeNumber The callee MSISDN.
+     * @param startTime    The start of the call in epoch seconds.
+     * @param endTime      The end of the call in epoch seconds.
+     */
+    public static void putRecord(ByteBuffer buffer, CallType callType, long callerNumber, long calleeNumber,
+                                 long startTime, long endTime) {
+        BinaryCDRFormat.putRecord(buffer,
+                CallType.INCOMING.equals(callType) ? BinaryCDRFormat.TYPE_INCOMING : BinaryCDRFormat.TYPE_OUTCOMING,
+                callerNumber, calleeNumber, startTime, endTime);
+    }
+}
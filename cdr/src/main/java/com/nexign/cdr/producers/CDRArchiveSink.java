@@ -0,0 +1,71 @@
+package com.nexign.cdr.producers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Sink archiving the sent CDR batches on local disk.
+ * <p>
+ * The batches of every partition are appended to their own file {@code cdr_partition_<n>.bin},
+ * each batch prefixed with its length as a 4-byte big-endian integer, in the order they were sent.
+ */
+public class CDRArchiveSink implements CDRBatchSink, Closeable {
+
+    private final Path directory;
+    private final FileChannel[] channels;
+
+    /**
+     * Constructor for CDRArchiveSink.
+     *
+     * @param directory     The directory of the archive files.
+     * @param numPartitions The number of partitions of the CDR topic.
+     * @throws IOException if the directory cannot be created.
+     */
+    public CDRArchiveSink(Path directory, int numPartitions) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.channels = new FileChannel[numPartitions];
+    }
+
+    /**
+     * Appends a batch to the archive file of its partition.
+     *
+     * @param partition The partition of the CDR topic holding the callers of the batch.
+     * @param key       The record key of the batch, not archived.
+     * @param batch     The encoded batch.
+     * @param records   The number of CDRs of the batch.
+     */
+    @Override
+    public synchronized void accept(int partition, long key, byte[] batch, int records) {
+        try {
+            if (channels[partition] == null) {
+                channels[partition] = FileChannel.open(directory.resolve("cdr_partition_" + partition + ".bin"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer[] record = {ByteBuffer.allocate(4).putInt(0, batch.length), ByteBuffer.wrap(batch)};
+            while (record[1].hasRemaining()) {
+                channels[partition].write(record);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Closes the archive files.
+     *
+     * @throws IOException if a file cannot be closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : channels) {
+            if (channel != null) {
+                channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.nexign.cdr.producers;
+
+import com.nexign.cdr.model.CDR;
+import com.nexign.cdr.model.CallType;
+import com.nexign.common.cdr.BinaryCDRFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Cuts a stream of CDRs into batches per partition of the CDR topic and hands them to a sink.
+ * <p>
+ * Records are encoded straight into one reusable buffer per partition, in the binary format or as the lines
+ * of a CSV file, and a batch is handed over when it reaches the maximum number of records or bytes.
+ * Only the exactly sized array passed to the sink is allocated per batch. The order of the records within
+ * a partition is kept. The caller of the first record is handed over as the key of the batch: it hashes to
+ * the partition of the batch like every other caller in it. An instance is meant to be used by a single thread.
+ */
+public class CDRBatchChunker {
+    private static final int CSV_RECORD_SIZE = 96;
+
+    private final boolean csv;
+    private final int maxRecords;
+    private final int limit;
+    private final CDRBatchSink sink;
+    private final ByteBuffer[] buffers;
+    private final int[] counts;
+    private final long[] keys;
+    private final byte[] digits = new byte[20];
+
+    /**
+     * Constructor for CDRBatchChunker.
+     *
+     * @param csv           Whether batches are Base64-encoded CSV files instead of the binary format.
+     * @param maxRecords    The maximum number of records of a batch, 0 for no limit.
+     * @param maxBytes      The maximum size of the encoded records of a batch before Base64, 0 for no limit.
+     * @param numPartitions The number of partitions of the CDR topic.
+     * @param sink          The receiver of the batches.
+     */
+    public CDRBatchChunker(boolean csv, int maxRecords, int maxBytes, int numPartitions, CDRBatchSink sink) {
+        if (maxRecords <= 0 && maxBytes <= 0) {
+            throw new IllegalArgumentException("A batch must be limited by records or bytes");
+        }
+        this.csv = csv;
+        this.maxRecords = maxRecords > 0 ? maxRecords : Integer.MAX_VALUE;
+        int recordSize = csv ? CSV_RECORD_SIZE : BinaryCDRFormat.RECORD_SIZE;
+        int headerSize = csv ? 0 : BinaryCDRFormat.HEADER_SIZE;
+        long byRecords = maxRecords > 0 ? headerSize + (long) maxRecords * recordSize : Integer.MAX_VALUE;
+        long byBytes = maxBytes > 0 ? Math.max(maxBytes, headerSize + recordSize) : Integer.MAX_VALUE;
+        this.limit = (int) Math.min(byRecords, byBytes);
+        this.sink = sink;
+        this.buffers = new ByteBuffer[numPartitions];
+        this.counts = new int[numPartitions];
+        this.keys = new long[numPartitions];
+    }
+
+    /**
+     * Adds a CDR to the batch of the given partition.
+     *
+     * @param cdr       The CDR to add.
+     * @param partition The partition of the caller.
+     */
+    public void add(CDR cdr, int partition) {
+        add(partition, cdr.getCallType(), cdr.getCallerNumber(), cdr.getCalleeNumber(), cdr.getStartTime(), cdr.getEndTime());
+    }
+
+    /**
+     * Adds a call to the batch of the given partition, handing the batch to the sink when it is full.
+     *
+     * @param partition    The partition of the caller.
+     * @param callType     The call type.
+     * @param callerNumber The caller MSISDN.
+     * @param calleeNumber The callee MSISDN.
+     * @param startTime    The start of the call in epoch seconds.
+     * @param endTime      The end of the call in epoch seconds.
+     */
+    public void add(int partition, CallType callType, long callerNumber, long calleeNumber, long startTime, long endTime) {
+        ByteBuffer buffer = buffer(partition);
+        if (counts[partition] > 0 && buffer.remaining() < (csv ? CSV_RECORD_SIZE : BinaryCDRFormat.RECORD_SIZE)) {
+            flush(partition);
+        }
+        if (counts[partition] == 0) {
+            keys[partition] = callerNumber;
+        }
+
+        if (csv) {
+            buffer.put((byte) '0').put(CallType.INCOMING.equals(callType) ? (byte) '1' : (byte) '2').put((byte) ',');
+            putDigits(buffer, callerNumber);
+            buffer.put((byte) ',');
+            putDigits(buffer, calleeNumber);
+            buffer.put((byte) ',');
+            putDigits(buffer, startTime);
+            buffer.put((byte) ',');
+            putDigits(buffer, endTime);
+            buffer.put((byte) '\n');
+        } else {
+            BinaryCDREncoder.putRecord(buffer, callType, callerNumber, calleeNumber, startTime, endTime);
+        }
+
+        if (++counts[partition] >= maxRecords) {
+            flush(partition);
+        }
+    }
+
+    /**
+     * Hands the unfinished batches of all partitions to the sink.
+     */
+    public void flush() {
+        for (int partition = 0; partition < buffers.length; partition++) {
+            flush(partition);
+        }
+    }
+
+    /**
+     * Hands the batch of a partition to the sink and starts a new batch in the same buffer.
+     *
+     * @param partition The partition of the batch.
+     */
+    private void flush(int partition) {
+        if (counts[partition] == 0) {
+            return;
+        }
+
+        ByteBuffer buffer = buffers[partition];
+        byte[] batch;
+        if (csv) {
+            batch = Base64.getEncoder().encode(ByteBuffer.wrap(buffer.array(), 0, buffer.position())).array();
+        } else {
+            BinaryCDRFormat.putCount(buffer, 0, counts[partition]);
+            batch = Arrays.copyOf(buffer.array(), buffer.position());
+        }
+        sink.accept(partition, keys[partition], batch, counts[partition]);
+        reset(buffer, partition);
+    }
+
+    /**
+     * Returns the buffer of a partition, allocating it on first use.
+     *
+     * @param partition The partition.
+     * @return The buffer of the partition.
+     */
+    private ByteBuffer buffer(int partition) {
+        if (buffers[partition] == null) {
+            buffers[partition] = ByteBuffer.allocate(limit).order(ByteOrder.BIG_ENDIAN);
+            reset(buffers[partition], partition);
+        }
+        return buffers[partition];
+    }
+
+    /**
+     * Empties the buffer of a partition and writes the header of a new batch.
+     *
+     * @param buffer    The buffer of the partition.
+     * @param partition The partition.
+     */
+    private void reset(ByteBuffer buffer, int partition) {
+        buffer.clear();
+        counts[partition] = 0;
+        if (!csv) {
+            BinaryCDRFormat.putHeader(buffer, 0);
+        }
+    }
+
+    /**
+     * Writes the decimal digits of a number as ASCII.
+     *
+     * @param buffer The buffer to write to.
+     * @param value  The number to write.
+     */
+    private void putDigits(ByteBuffer buffer, long value) {
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        int length = 0;
+        do {
+            digits[length++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        while (length > 0) {
+            buffer.put(digits[--length]);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.nexign.cdr.producers;
+
+/**
+ * Receiver of encoded CDR batches, such as the Kafka producer or an on-disk archive.
+ */
+@FunctionalInterface
+public interface CDRBatchSink {
+
+    /**
+     * Accepts one encoded batch. The array belongs to the sink and is not reused by the caller.
+     *
+     * @param partition The partition of the CDR topic holding the callers of the batch.
+     * @param key       The caller MSISDN of the first CDR of the batch, the record key of the batch.
+     * @param batch     The encoded batch.
+     * @param records   The number of CDRs of the batch.
+     */
+    void accept(int partition, long key, byte[] batch, int records);
+
+    /**
+     * Returns a sink passing every batch to this sink and then to the given one.
+     *
+     * @param next The sink receiving the batches after this one.
+     * @return The combined sink.
+     */
+    default CDRBatchSink andThen(CDRBatchSink next) {
+        return (partition, key, batch, records) -> {
+            accept(partition, key, batch, records);
+            next.accept(partition, key, batch, records);
+        };
+    }
+}
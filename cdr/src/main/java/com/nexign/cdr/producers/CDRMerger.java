@@ -0,0 +1,112 @@
+package com.nexign.cdr.producers;
+
+import com.nexign.cdr.model.CDR;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runnable implementation merging the time-ordered outputs of several generators into one stream.
+ * <p>
+ * Every input is a bounded queue of blocks of CDRs ordered by end time and closed with {@link #END_OF_STREAM}.
+ * The merger keeps the current CDR of each input in a priority queue and always emits the earliest one,
+ * so the output is ordered by end time, CDRs with the same end time in the order of the inputs.
+ * The output is written in blocks to a bounded queue, so a slow publisher holds back the merger
+ * and, through the full input queues, the generators.
+ */
+public class CDRMerger implements Runnable {
+
+    /**
+     * Marker closing a stream of blocks.
+     */
+    public static final List<CDR> END_OF_STREAM = List.of();
+
+    private final List<BlockingQueue<List<CDR>>> inputs;
+    private final BlockingQueue<List<CDR>> output;
+    private final int blockSize;
+
+    /**
+     * Constructor for CDRMerger.
+     *
+     * @param inputs    The queues of the generators, each ordered by end time.
+     * @param output    The queue receiving the merged blocks.
+     * @param blockSize The number of CDRs of an output block.
+     */
+    public CDRMerger(List<BlockingQueue<List<CDR>>> inputs, BlockingQueue<List<CDR>> output, int blockSize) {
+        this.inputs = inputs;
+        this.output = output;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Implements the k-way merge until every input is closed, then closes the output.
+     */
+    @Override
+    public void run() {
+        PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, inputs.size()),
+                Comparator.<Head>comparingLong(head -> head.current.getEndTime()).thenComparingInt(head -> head.index));
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Head head = new Head(i);
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+
+            List<CDR> block = new ArrayList<>(blockSize);
+            while (!heads.isEmpty()) {
+                Head head = heads.poll();
+                block.add(head.current);
+                if (block.size() >= blockSize) {
+                    output.put(block);
+                    block = new ArrayList<>(blockSize);
+                }
+                if (head.advance()) {
+                    heads.add(head);
+                }
+            }
+
+            if (!block.isEmpty()) {
+                output.put(block);
+            }
+            output.put(END_OF_STREAM);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The current position in the stream of one input.
+     */
+    private final class Head {
+        private final int index;
+        private List<CDR> block = END_OF_STREAM;
+        private int position;
+        private CDR current;
+
+        private Head(int index) {
+            this.index = index;
+        }
+
+        /**
+         * Moves to the next CDR of the input, waiting for the next block if needed.
+         *
+         * @return false if the input is closed.
+         * @throws InterruptedException if interrupted while waiting.
+         */
+        private boolean advance() throws InterruptedException {
+            if (position >= block.size()) {
+                block = inputs.get(index).take();
+                position = 0;
+                if (block == END_OF_STREAM) {
+                    return false;
+                }
+            }
+            current = block.get(position++);
+            return true;
+        }
+    }
+}
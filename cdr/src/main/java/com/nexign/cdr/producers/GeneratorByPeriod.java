@@ -6,37 +6,43 @@ import com.nexign.cdr.model.Subscriber;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Phaser;
 
 /**
  * Runnable implementation for generating Call Detail Records (CDRs) over a specified period.
+ * <p>
+ * Calls are generated one after another, at least 16 hours apart and shorter than 30 minutes,
+ * so the CDRs are emitted ordered by end time, in blocks to a bounded queue that is closed with
+ * {@link CDRMerger#END_OF_STREAM}.
  */
 public class GeneratorByPeriod implements Runnable {
     private final BlockingQueue<List<CDR>> queue;
-    private final List<CDR> cdrList;
     private final List<Subscriber> subscribers;
-    private final Phaser phaser;
+    private final SplittableRandom random;
+    private final int blockSize;
+    private List<CDR> cdrList;
     private long startTime;
     private final long endTime;
 
     /**
      * Constructor for GeneratorByPeriod.
      *
-     * @param queue       The blocking queue to which generated CDR batches are added.
+     * @param queue       The bounded queue to which blocks of generated CDRs are added.
      * @param subscribers The list of subscribers to generate calls between.
-     * @param phaser      The phaser to synchronize with other threads.
      * @param startTime   The start time of the period for CDR generation.
      * @param endTime     The end time of the period for CDR generation.
+     * @param random      The random generator of this thread, split from the seeded generator of the emulation.
+     * @param blockSize   The number of CDRs of a block.
      */
-    public GeneratorByPeriod(BlockingQueue<List<CDR>> queue, List<Subscriber> subscribers, Phaser phaser, long startTime, long endTime) {
+    public GeneratorByPeriod(BlockingQueue<List<CDR>> queue, List<Subscriber> subscribers, long startTime, long endTime, SplittableRandom random, int blockSize) {
         this.queue = queue;
-        this.cdrList = new ArrayList<>();
         this.subscribers = subscribers;
-        this.phaser = phaser;
         this.startTime = startTime;
         this.endTime = endTime;
+        this.random = random;
+        this.blockSize = blockSize;
+        this.cdrList = new ArrayList<>(blockSize);
     }
 
     /**
@@ -45,7 +51,6 @@ public class GeneratorByPeriod implements Runnable {
      * @return The randomly generated call type.
      */
     private CallType randCallType () {
-        Random random = new Random();
         if (0 == random.nextInt(2)) {
             return CallType.INCOMING;
         } else {
@@ -76,7 +81,6 @@ public class GeneratorByPeriod implements Runnable {
      */
     private long randNextCall (long prevCallUnixTime, long limitMonthUnixTime) {
         int min = 57600, max = 115200;
-        Random random = new Random();
         int plus = random.nextInt(max - min) + min;
         long newCallUnixTime = prevCallUnixTime + plus;
 
@@ -90,18 +94,22 @@ public class GeneratorByPeriod implements Runnable {
      * @return The Unix timestamp for the call time.
      */
     private long randCallTime (long startCallUnixTime) {
-        Random random = new Random();
         return startCallUnixTime + random.nextInt(1800);
     }
 
     /**
-     * Produces the generated CDR list into the blocking queue.
+     * Adds a CDR to the current block and puts the block into the queue when it is full,
+     * waiting while the queue is full.
      *
-     * @param cdrList The list of generated CDRs to be added to the queue.
+     * @param cdr The generated CDR.
      * @throws InterruptedException if interrupted while adding to the queue.
      */
-    private synchronized void produce(List<CDR> cdrList) throws InterruptedException {
-        queue.put(cdrList);
+    private void produce(CDR cdr) throws InterruptedException {
+        cdrList.add(cdr);
+        if (cdrList.size() >= blockSize) {
+            queue.put(cdrList);
+            cdrList = new ArrayList<>(blockSize);
+        }
     }
 
     /**
@@ -109,7 +117,42 @@ public class GeneratorByPeriod implements Runnable {
      */
     @Override
     public void run() {
-        Random random = new Random();
+        try {
+            generate();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Generates the calls of the period and closes the queue, also when the generation fails,
+     * so the merger does not wait for this generator forever.
+     *
+     * @throws InterruptedException if interrupted while adding to the queue.
+     */
+    private void generate() throws InterruptedException {
+        RuntimeException failure = null;
+        try {
+            generateCalls();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        if (!cdrList.isEmpty()) {
+            queue.put(cdrList);
+        }
+        queue.put(CDRMerger.END_OF_STREAM);
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Generates the calls of the period.
+     *
+     * @throws InterruptedException if interrupted while adding to the queue.
+     */
+    private void generateCalls() throws InterruptedException {
         while (startTime < endTime) {
             Subscriber caller = subscribers.get(random.nextInt(subscribers.size()));
             int generateCalleeIndex;
@@ -129,7 +172,7 @@ public class GeneratorByPeriod implements Runnable {
                     .build();
 
 
-            cdrList.add(cdr);
+            produce(cdr);
             if (caller.getIsRomashka() && callee.getIsRomashka()) {
                 CDR newCdr = CDR.builder()
                         .callType(mirrorCallType(callType))
@@ -139,17 +182,10 @@ public class GeneratorByPeriod implements Runnable {
                         .endTime(endTime)
                         .build();
 
-                cdrList.add(newCdr);
+                produce(newCdr);
             }
 
             startTime = randNextCall(startTime, this.endTime);
         }
-
-        try {
-            produce(cdrList);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-        phaser.arriveAndDeregister();
     }
 }
@@ -1,35 +1,191 @@
 package com.nexign.cdr.producers;
 
+import com.nexign.cdr.model.ProducerStats;
+import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 /**
  * KafkaCDRProducer is a utility class responsible for producing Kafka messages related to Call Detail Records (CDRs).
+ * <p>
+ * Messages are sent asynchronously; the delivery of every message is tracked by a callback that counts
+ * acknowledged and failed sends, so the producer can report its throughput and errors. Batching, compression
+ * and idempotence are configured through the {@code spring.kafka.producer} properties. If
+ * {@code cdr.producer.max-in-flight} is positive, senders wait while that many messages are unacknowledged.
  */
 @Slf4j
 @Service
 public class KafkaCDRProducer {
 
-    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    @Value("${cdr.producer.max-in-flight:0}")
+    private Integer MAX_IN_FLIGHT;
+    private static final String PRODUCER_METRICS = "producer-metrics";
+    private static final String BATCH_SIZE_AVG = "batch-size-avg";
+    private static final String COMPRESSION_RATE_AVG = "compression-rate-avg";
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder acknowledged = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final AtomicLong inFlight = new AtomicLong();
+    private final long startedNanos = System.nanoTime();
+    private Semaphore permits;
 
     /**
      * Constructor for KafkaCDRProducer.
      *
      * @param kafkaTemplate The KafkaTemplate used for producing messages to Kafka.
      */
-    public KafkaCDRProducer(KafkaTemplate<String, String> kafkaTemplate) {
+    public KafkaCDRProducer(KafkaTemplate<String, byte[]> kafkaTemplate) {
         this.kafkaTemplate = kafkaTemplate;
     }
 
     /**
-     * Sends a transaction message to the specified Kafka topic and partition.
+     * Creates the in-flight limit if one is configured.
+     */
+    @PostConstruct
+    public void init() {
+        if (MAX_IN_FLIGHT > 0) {
+            permits = new Semaphore(MAX_IN_FLIGHT);
+        }
+    }
+
+    /**
+     * Returns the number of partitions of the topic.
+     *
+     * @param topic The Kafka topic.
+     * @return The number of partitions.
+     */
+    public int partitionCount(String topic) {
+        return kafkaTemplate.partitionsFor(topic).size();
+    }
+
+    /**
+     * Returns the partition of the topic that holds the CDRs of the given caller.
+     * Uses the same hash as the default Kafka partitioner for a caller MSISDN key,
+     * so all CDRs of one subscriber always land in one partition and keep their order.
+     *
+     * @param topic  The Kafka topic.
+     * @param msisdn The caller MSISDN.
+     * @return The partition number for the caller.
+     */
+    public int partitionFor(String topic, Long msisdn) {
+        int numPartitions = partitionCount(topic);
+        byte[] keyBytes = String.valueOf(msisdn).getBytes(StandardCharsets.UTF_8);
+        return Utils.toPositive(Utils.murmur2(keyBytes)) % numPartitions;
+    }
+
+    /**
+     * Sends a transaction message to the specified Kafka topic with the given key.
+     *
+     * @param topic   The Kafka topic to which the message will be sent.
+     * @param key     The key of the message, which selects the partition.
+     * @param message The message content to be sent to Kafka.
+     */
+    public void sendTransaction(String topic, String key,  byte[] message) {
+        send(new ProducerRecord<>(topic, key, message));
+    }
+
+    /**
+     * Sends a transaction message to the specified Kafka topic and partition with the given key.
+     * The key is kept on the record even though the partition is explicit, so the broker and
+     * the consumers see which caller the batch was routed by.
      *
      * @param topic     The Kafka topic to which the message will be sent.
      * @param partition The Kafka partition to which the message will be sent.
+     * @param key       The caller MSISDN the partition was chosen by.
      * @param message   The message content to be sent to Kafka.
      */
-    public void sendTransaction(String topic, String partition,  String message) {
-        kafkaTemplate.send(topic, partition,  message);
+    public void sendTransaction(String topic, int partition, String key, byte[] message) {
+        send(new ProducerRecord<>(topic, partition, key, message));
+    }
+
+    /**
+     * Returns the delivery statistics of the producer. The send rate is the number of acknowledged
+     * messages per second since the start; the batch size and the compression rate are the averages
+     * reported by the Kafka client.
+     *
+     * @return The producer statistics.
+     */
+    public ProducerStats getStats() {
+        double seconds = (System.nanoTime() - startedNanos) / 1e9;
+        long acked = acknowledged.sum();
+        return new ProducerStats(sent.sum(), acked, failed.sum(), inFlight.get(), bytesSent.sum(),
+                seconds > 0 ? acked / seconds : 0, clientMetric(BATCH_SIZE_AVG), clientMetric(COMPRESSION_RATE_AVG));
+    }
+
+    /**
+     * Sends a record asynchronously and counts its delivery, waiting first if the in-flight limit is reached.
+     *
+     * @param record The record to send.
+     */
+    private void send(ProducerRecord<String, byte[]> record) {
+        if (permits != null) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            }
+        }
+        sent.increment();
+        inFlight.incrementAndGet();
+
+        try {
+            kafkaTemplate.send(record).whenComplete((result, error) -> complete(record, error));
+        } catch (RuntimeException e) {
+            complete(record, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Counts the delivery of a record and frees its in-flight slot.
+     *
+     * @param record The record sent.
+     * @param error  The failure of the send, null if the record was acknowledged.
+     */
+    private void complete(ProducerRecord<String, byte[]> record, Throwable error) {
+        inFlight.decrementAndGet();
+        if (permits != null) {
+            permits.release();
+        }
+        if (error == null) {
+            acknowledged.increment();
+            bytesSent.add(record.value().length);
+        } else {
+            failed.increment();
+            log.error("Fail to send CDR batch to {}-{}: {}", record.topic(), record.partition(), error.getMessage());
+        }
+    }
+
+    /**
+     * Reads a metric of the Kafka producer client.
+     *
+     * @param name The name of the metric in the producer metrics group.
+     * @return The value of the metric, 0 if it is not available.
+     */
+    private double clientMetric(String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : kafkaTemplate.metrics().entrySet()) {
+            if (PRODUCER_METRICS.equals(metric.getKey().group()) && name.equals(metric.getKey().name())) {
+                Object value = metric.getValue().metricValue();
+                return value instanceof Double number && !number.isNaN() ? number : 0;
+            }
+        }
+        return 0;
     }
 }
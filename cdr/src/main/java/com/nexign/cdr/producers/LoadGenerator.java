@@ -0,0 +1,143 @@
+package com.nexign.cdr.producers;
+
+import com.nexign.cdr.model.CallType;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runnable implementation generating synthetic CDRs at a target rate for load testing.
+ * <p>
+ * Every generator has its own {@link SplittableRandom}, split from a seeded root, so a run with the same
+ * seed and thread count produces the same calls, and records are generated without any shared lock.
+ * A generator is the only source of calls of the callers it owns, so their CDRs are emitted in time order;
+ * the mirrored CDR of a call between two Romashka subscribers is emitted only if the callee is owned too.
+ * Calls are written straight into the generator's own {@link CDRBatchChunker}, without creating CDR objects.
+ */
+public class LoadGenerator implements Runnable {
+    private static final int PACE_EVERY = 1024;
+    private static final int MAX_CALL_SECONDS = 1800;
+
+    private final long[] phoneNumbers;
+    private final boolean[] isRomashka;
+    private final int[] partitions;
+    private final int[] ownCallers;
+    private final boolean[] owned;
+    private final SplittableRandom random;
+    private final long ratePerSecond;
+    private final long durationNanos;
+    private final int maxCallGapSeconds;
+    private final CDRBatchChunker chunker;
+    private long startTime;
+    private long generated;
+    private long elapsedNanos;
+
+    /**
+     * Constructor for LoadGenerator.
+     *
+     * @param phoneNumbers      The phone numbers of all subscribers.
+     * @param isRomashka        Whether each subscriber is a Romashka subscriber.
+     * @param partitions        The partition of the CDR topic of each subscriber.
+     * @param ownCallers        The indexes of the subscribers calling from this generator.
+     * @param random            The random generator of this generator.
+     * @param ratePerSecond     The target number of CDRs per second, 0 for no limit.
+     * @param durationNanos     The duration of the generation.
+     * @param startTime         The call time of the first generated call.
+     * @param maxCallGapSeconds The maximum time between two generated calls.
+     * @param chunker           The chunker of this generator, encoding the calls into batches.
+     */
+    public LoadGenerator(long[] phoneNumbers, boolean[] isRomashka, int[] partitions, int[] ownCallers,
+                         SplittableRandom random, long ratePerSecond, long durationNanos, long startTime,
+                         int maxCallGapSeconds, CDRBatchChunker chunker) {
+        this.phoneNumbers = phoneNumbers;
+        this.isRomashka = isRomashka;
+        this.partitions = partitions;
+        this.ownCallers = ownCallers;
+        this.owned = new boolean[phoneNumbers.length];
+        for (int caller : ownCallers) {
+            owned[caller] = true;
+        }
+        this.random = random;
+        this.ratePerSecond = ratePerSecond;
+        this.durationNanos = durationNanos;
+        this.startTime = startTime;
+        this.maxCallGapSeconds = maxCallGapSeconds;
+        this.chunker = chunker;
+    }
+
+    /**
+     * Returns the number of CDRs generated by this generator.
+     *
+     * @return The number of generated CDRs.
+     */
+    public long getGenerated() {
+        return generated;
+    }
+
+    /**
+     * Returns the time this generator was running.
+     *
+     * @return The running time in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Waits while the generator is ahead of the target rate.
+     *
+     * @param began The time the generation began, in nanoseconds.
+     */
+    private void pace(long began) {
+        if (ratePerSecond <= 0) {
+            return;
+        }
+        long due = began + generated * 1_000_000_000L / ratePerSecond;
+        long ahead = due - System.nanoTime();
+        if (ahead > 0) {
+            LockSupport.parkNanos(ahead);
+        }
+    }
+
+    /**
+     * Implements the load generation until the duration is over.
+     */
+    @Override
+    public void run() {
+        long began = System.nanoTime();
+        long deadline = began + durationNanos;
+        long sincePace = 0;
+
+        while (ownCallers.length > 0 && phoneNumbers.length > 1) {
+            int caller = ownCallers[random.nextInt(ownCallers.length)];
+            int callee = random.nextInt(phoneNumbers.length - 1);
+            if (callee >= caller) {
+                callee++;
+            }
+            CallType callType = random.nextBoolean() ? CallType.INCOMING : CallType.OUTCOMING;
+            long endTime = startTime + random.nextInt(MAX_CALL_SECONDS);
+
+            chunker.add(partitions[caller], callType, phoneNumbers[caller], phoneNumbers[callee], startTime, endTime);
+            generated++;
+
+            if (isRomashka[caller] && isRomashka[callee] && owned[callee]) {
+                CallType mirrored = callType == CallType.INCOMING ? CallType.OUTCOMING : CallType.INCOMING;
+                chunker.add(partitions[callee], mirrored, phoneNumbers[callee], phoneNumbers[caller], startTime, endTime);
+                generated++;
+            }
+
+            startTime += 1 + random.nextInt(maxCallGapSeconds);
+
+            if (generated - sincePace >= PACE_EVERY) {
+                sincePace = generated;
+                if (System.nanoTime() >= deadline) {
+                    break;
+                }
+                pace(began);
+            }
+        }
+
+        chunker.flush();
+        elapsedNanos = System.nanoTime() - began;
+    }
+}
@@ -1,9 +1,31 @@
 package com.nexign.cdr.repository;
 
 import com.nexign.cdr.model.CDR;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 @Repository
 public interface CDRRepository extends JpaRepository<CDR, Long> {
+
+    /**
+     * Finds the next page of CDRs of a time range in ascending order of start time and id. The page starts
+     * right after the last CDR of the previous page, so it is found through the index without an offset.
+     *
+     * @param from      The start of the range, inclusive.
+     * @param to        The end of the range, exclusive.
+     * @param afterTime The start time of the last CDR of the previous page.
+     * @param afterId   The id of the last CDR of the previous page.
+     * @param page      The size of the page, the page number must be 0.
+     * @return The CDRs of the page.
+     */
+    @Query("select c from CDR c where c.startTime >= :from and c.startTime < :to " +
+            "and (c.startTime > :afterTime or (c.startTime = :afterTime and c.id > :afterId)) " +
+            "order by c.startTime, c.id")
+    List<CDR> findPageAfter(@Param("from") Long from, @Param("to") Long to, @Param("afterTime") Long afterTime,
+                            @Param("afterId") Long afterId, Pageable page);
 }
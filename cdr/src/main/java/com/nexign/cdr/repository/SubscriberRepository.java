@@ -4,6 +4,10 @@ import com.nexign.cdr.model.Subscriber;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Optional;
+
 @Repository
 public interface SubscriberRepository extends JpaRepository<Subscriber, Long> {
+
+    Optional<Subscriber> findFirstByPhoneNumber(Long phoneNumber);
 }
@@ -0,0 +1,212 @@
+package com.nexign.cdr.service;
+
+import com.nexign.cdr.model.CDR;
+import com.nexign.cdr.producers.BinaryCDREncoder;
+import com.nexign.cdr.repository.CDRRepository;
+import com.nexign.common.http.ServiceHttpClient;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Service re-rating a time range of stored CDRs in the HRS, without Kafka and without the BRT.
+ * <p>
+ * The CDRs are read from the switch database in pages of {@code cdr.backfill.page-size}, found by the
+ * last start time and id of the previous page, so a page costs the same at any depth of the range. Each
+ * page is encoded as one binary CDR batch and the batches are streamed as the body of a single request to
+ * the HRS through the shared {@link ServiceHttpClient}; the next page is read while the current one is sent. The HRS compares the calls with the charges
+ * BRT recorded for the same range and answers with the delta ledger.
+ * <p>
+ * The HRS fills the package minutes at the start of every UTC month, so a range starting mid-month is moved back
+ * to the start of its month: the calls before the requested start use up the package of the month.
+ */
+@Slf4j
+@Service
+public class BackfillService {
+
+    @Resource
+    private CDRRepository cdrRepository;
+
+    @Resource
+    private ServiceHttpClient serviceHttpClient;
+
+    @Value("${gateway.host}")
+    private String HOST;
+    @Value("${cdr.backfill.page-size:10000}")
+    private Integer PAGE_SIZE;
+    private static final String PORT = "8765";
+    private static final String BASE = "/api";
+    private static final String MS = "/hrs";
+    private static final String RERATE = "/rerate";
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * Streams the CDRs of a time range to the HRS for re-rating.
+     *
+     * @param from The start of the range in unix time, inclusive, moved back to the start of its UTC month.
+     * @param to   The end of the range in unix time, exclusive.
+     * @return The JSON report of the HRS with the delta ledger.
+     * @throws IllegalStateException if the HRS cannot re-rate the range
+     */
+    public String backfill (long from, long to) {
+        long monthStart = LocalDate.ofEpochDay(Math.floorDiv(from, 86400L)).withDayOfMonth(1).toEpochDay() * 86400L;
+        if (monthStart != from) {
+            log.info("Backfill range starts mid-month at {}, moved back to the start of the month {}", from, monthStart);
+            from = monthStart;
+        }
+        String url = String.format("http://%s:%s%s%s%s?from=%d&to=%d", HOST, PORT, MS, BASE, RERATE, from, to);
+        ExecutorService prefetch = Executors.newSingleThreadExecutor();
+        PageStream pages = new PageStream(from, to, prefetch);
+
+        HttpRequest request = serviceHttpClient.postStream(url, OCTET_STREAM, () -> pages);
+
+        try {
+            HttpResponse<String> response = serviceHttpClient.send(request);
+            if (response.statusCode() == 409) {
+                throw new IllegalStateException("HRS cannot re-rate the range against the charges: " + response.body());
+            }
+            if (response.statusCode() != 200) {
+                throw new IllegalStateException("HRS responded with status " + response.statusCode());
+            }
+            log.info("Backfill of {} CDRs from {} to {} is done", pages.records, from, to);
+            return response.body();
+        } catch (CompletionException e) {
+            throw new IllegalStateException("Fail to send the CDRs to HRS", e.getCause());
+        } finally {
+            prefetch.shutdownNow();
+        }
+    }
+
+    /**
+     * Input stream of the encoded pages of a time range, reading the next page in the background.
+     */
+    private class PageStream extends InputStream {
+        private final long from;
+        private final long to;
+        private final ExecutorService prefetch;
+        private long afterTime;
+        private long afterId;
+        private boolean last;
+        private Future<byte[]> next;
+        private byte[] current = new byte[0];
+        private int position;
+        private long records;
+
+        /**
+         * Constructor for PageStream.
+         *
+         * @param from     The start of the range, inclusive.
+         * @param to       The end of the range, exclusive.
+         * @param prefetch The executor reading the next page.
+         */
+        private PageStream (long from, long to, ExecutorService prefetch) {
+            this.from = from;
+            this.to = to;
+            this.prefetch = prefetch;
+            this.afterTime = from - 1;
+            this.afterId = 0;
+            this.next = prefetch.submit(this::readPage);
+        }
+
+        /**
+         * Reads and encodes the page after the last read CDR.
+         *
+         * @return The encoded page, or null if the range is exhausted.
+         */
+        private byte[] readPage () {
+            if (last) {
+                return null;
+            }
+            List<CDR> page = cdrRepository.findPageAfter(from, to, afterTime, afterId, PageRequest.of(0, PAGE_SIZE));
+            if (page.isEmpty()) {
+                return null;
+            }
+
+            CDR tail = page.get(page.size() - 1);
+            afterTime = tail.getStartTime();
+            afterId = tail.getId();
+            last = page.size() < PAGE_SIZE;
+            records += page.size();
+            return BinaryCDREncoder.encode(page);
+        }
+
+        /**
+         * Makes the next page current and starts reading the one after it.
+         *
+         * @return True if there is a page to read from.
+         * @throws IOException if the page cannot be read
+         */
+        private boolean advance () throws IOException {
+            while (position == current.length) {
+                if (next == null) {
+                    return false;
+                }
+                byte[] page;
+                try {
+                    page = next.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException(e);
+                } catch (ExecutionException e) {
+                    throw new IOException("Fail to read CDRs", e.getCause());
+                }
+                if (page == null) {
+                    next = null;
+                    return false;
+                }
+                current = page;
+                position = 0;
+                next = prefetch.submit(this::readPage);
+            }
+            return true;
+        }
+
+        /**
+         * Reads one byte of the encoded pages.
+         *
+         * @return The byte, or -1 at the end of the range.
+         * @throws IOException if a page cannot be read
+         */
+        @Override
+        public int read () throws IOException {
+            return advance() ? current[position++] & 0xFF : -1;
+        }
+
+        /**
+         * Reads bytes of the encoded pages.
+         *
+         * @param b   The buffer to read into.
+         * @param off The offset in the buffer.
+         * @param len The maximum number of bytes to read.
+         * @return The number of bytes read, or -1 at the end of the range.
+         * @throws IOException if a page cannot be read
+         */
+        @Override
+        public int read (byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+    }
+}
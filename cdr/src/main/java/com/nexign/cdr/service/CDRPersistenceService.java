@@ -0,0 +1,122 @@
+package com.nexign.cdr.service;
+
+import com.nexign.cdr.model.CDR;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Service storing generated CDRs in the switch database off the generation path.
+ * <p>
+ * Lists of CDRs are queued and written by a single background thread with JDBC batches of
+ * {@code cdr.store.batch-size} inserts, one transaction per list. The ids are generated by the database
+ * and not read back, so the inserts are batched, unlike {@code saveAll} with identity ids, which sends
+ * one INSERT per CDR. The emulation only waits when {@code cdr.store.queue-capacity} lists are queued.
+ */
+@Slf4j
+@Service
+public class CDRPersistenceService {
+
+    @Resource
+    private JdbcTemplate jdbcTemplate;
+
+    @Resource
+    private TransactionTemplate transactionTemplate;
+
+    @Value("${cdr.store.batch-size:1000}")
+    private Integer BATCH_SIZE;
+    @Value("${cdr.store.queue-capacity:64}")
+    private Integer QUEUE_CAPACITY;
+    private static final String INSERT_CDR = "insert into cdr (call_type, caller_number, callee_number, start_time, end_time) values (?, ?, ?, ?, ?)";
+    private static final List<CDR> STOP = List.of();
+
+    private BlockingQueue<List<CDR>> pending;
+    private Thread writer;
+
+    /**
+     * Starts the writer thread.
+     */
+    @PostConstruct
+    public void start () {
+        pending = new LinkedBlockingQueue<>(QUEUE_CAPACITY);
+        writer = new Thread(this::write, "cdr-store");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes the queued CDRs and stops the writer thread.
+     *
+     * @throws InterruptedException if interrupted while waiting for the writer
+     */
+    @PreDestroy
+    public void stop () throws InterruptedException {
+        pending.put(STOP);
+        writer.join();
+    }
+
+    /**
+     * Queues a list of CDRs for storing, waiting only while the queue is full.
+     *
+     * @param cdrList The CDRs to store. The list must not be changed afterwards.
+     */
+    public void store (List<CDR> cdrList) {
+        if (cdrList.isEmpty()) {
+            return;
+        }
+        try {
+            pending.put(cdrList);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Takes the queued lists and inserts them until stopped.
+     */
+    private void write () {
+        while (true) {
+            List<CDR> cdrList;
+            try {
+                cdrList = pending.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (cdrList == STOP) {
+                return;
+            }
+
+            try {
+                transactionTemplate.executeWithoutResult(status -> insert(cdrList));
+            } catch (RuntimeException e) {
+                log.error("Fail to store {} CDRs: {}", cdrList.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Inserts a list of CDRs with JDBC batches.
+     *
+     * @param cdrList The CDRs to insert.
+     */
+    private void insert (List<CDR> cdrList) {
+        jdbcTemplate.batchUpdate(INSERT_CDR, cdrList, BATCH_SIZE, (ps, cdr) -> {
+            ps.setInt(1, cdr.getCallType().ordinal());
+            ps.setLong(2, cdr.getCallerNumber());
+            ps.setLong(3, cdr.getCalleeNumber());
+            ps.setLong(4, cdr.getStartTime());
+            ps.setLong(5, cdr.getEndTime());
+        });
+    }
+}
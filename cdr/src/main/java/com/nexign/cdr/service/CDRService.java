@@ -1,19 +1,28 @@
 package com.nexign.cdr.service;
 
+import com.nexign.cdr.producers.CDRArchiveSink;
+import com.nexign.cdr.producers.CDRBatchChunker;
+import com.nexign.cdr.producers.CDRBatchSink;
+import com.nexign.cdr.producers.CDRMerger;
 import com.nexign.cdr.producers.GeneratorByPeriod;
 import com.nexign.cdr.model.CDR;
 import com.nexign.cdr.model.CallType;
+import com.nexign.cdr.model.LoadReport;
 import com.nexign.cdr.model.Subscriber;
 import com.nexign.cdr.producers.KafkaCDRProducer;
-import com.nexign.cdr.repository.CDRRepository;
+import com.nexign.cdr.producers.LoadGenerator;
 import com.nexign.cdr.repository.SubscriberRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.javatuples.Pair;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.io.*;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -23,25 +32,27 @@ import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.tomcat.util.http.fileupload.FileUtils.deleteDirectory;
 
 /**
  * CDRService manages the generation and processing of Call Detail Records (CDRs).
+ * Every CDR sent to BRT is counted by the {@code cdr.emitted} counter, whose rate is the emission rate.
  */
 @Slf4j
 @Service
 public class CDRService {
 
-    private final BlockingQueue<List<CDR>> queue = new ArrayBlockingQueue<>(10);
-
     @Resource
-    private CDRRepository cdrRepository;
+    private CDRPersistenceService cdrPersistenceService;
 
     @Resource
     private SubscriberRepository subscriberRepository;
@@ -49,14 +60,60 @@ public class CDRService {
     @Resource
     private KafkaCDRProducer kafkaCDRProducer;
 
+    @Resource
+    private MeterRegistry meterRegistry;
+
     private final Phaser phaser = new Phaser(1);
 
     @Value("${directory.cdr.name}")
     private String CDR_FILES;
+    @Value("${cdr.batch.format:binary}")
+    private String BATCH_FORMAT;
+    @Value("${cdr.batch.max-records:500}")
+    private Integer BATCH_MAX_RECORDS;
+    @Value("${cdr.batch.max-bytes:0}")
+    private Integer BATCH_MAX_BYTES;
+    @Value("${cdr.archive.enabled:false}")
+    private Boolean ARCHIVE_ENABLED;
+    @Value("${cdr.generator.threads:4}")
+    private Integer GENERATOR_THREADS;
+    @Value("${cdr.generator.seed:#{null}}")
+    private Long GENERATOR_SEED;
+    @Value("${cdr.pipeline.block-size:256}")
+    private Integer PIPELINE_BLOCK_SIZE;
+    @Value("${cdr.pipeline.queue-capacity:16}")
+    private Integer PIPELINE_QUEUE_CAPACITY;
+    @Value("${cdr.load.threads:4}")
+    private Integer LOAD_THREADS;
+    @Value("${cdr.load.rate:100000}")
+    private Long LOAD_RATE;
+    @Value("${cdr.load.duration-seconds:60}")
+    private Long LOAD_DURATION_SECONDS;
+    @Value("${cdr.load.seed:42}")
+    private Long LOAD_SEED;
+    @Value("${cdr.load.max-call-gap-seconds:60}")
+    private Integer LOAD_MAX_CALL_GAP_SECONDS;
+    @Value("${cdr.load.batch-size:1000}")
+    private Integer LOAD_BATCH_SIZE;
+    private static final String CSV_FORMAT = "csv";
     private static final String CDR_TOPIC = "cdr-topic";
 
+    private Counter emittedCdrs;
+
+    /**
+     * Registers the counter of the CDRs sent to BRT.
+     */
+    @PostConstruct
+    public void initMetrics () {
+        emittedCdrs = Counter.builder("cdr.emitted")
+                .description("CDRs sent to BRT through the CDR topic")
+                .baseUnit("cdrs")
+                .register(meterRegistry);
+    }
+
     /**
      * Advances the Phaser to the next phase, allowing waiting threads to proceed.
+     * The Phaser only gates the emulation: after each month it waits until every registered stop-point has iterated.
      */
     public void nextIteration () {
         phaser.arriveAndAwaitAdvance();
@@ -133,173 +190,248 @@ public class CDRService {
     }
 
     /**
-     * Consumes CDRs from the blocking queue and saves them to the database.
+     * Creates the sink sending CDR batches to BRT through the CDR topic and counting their CDRs.
      *
-     * @return The list of consumed CDRs.
+     * @return The Kafka sink.
      */
-    synchronized public List<CDR> consume () {
-        try {
-            List<CDR> cdrList = queue.take();
-            cdrRepository.saveAll(cdrList);
-            return cdrList;
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
+    private CDRBatchSink kafkaSink () {
+        return (partition, key, batch, records) -> {
+            kafkaCDRProducer.sendTransaction(CDR_TOPIC, partition, String.valueOf(key), batch);
+            emittedCdrs.increment(records);
+        };
     }
 
     /**
-     * Converts a call type to an integer representation.
+     * Creates a chunker in the configured batch format.
      *
-     * @param callType The call type to convert.
-     * @return An integer representation of the call type (1 for INCOMING, 2 for OUTGOING).
+     * @param maxRecords The maximum number of records of a batch.
+     * @param sink       The receiver of the batches.
+     * @return The chunker.
      */
-    private int callTypeToInt (CallType callType) {
-        return CallType.INCOMING.equals(callType) ? 1 : 2;
+    private CDRBatchChunker newChunker (int maxRecords, CDRBatchSink sink) {
+        return new CDRBatchChunker(CSV_FORMAT.equals(BATCH_FORMAT), maxRecords, BATCH_MAX_BYTES,
+                kafkaCDRProducer.partitionCount(CDR_TOPIC), sink);
     }
 
     /**
-     * Converts epoch time to LocalDateTime.
+     * Publishes the merged CDRs of a month to BRT and queues them for storing, block by block.
+     * The CDRs are cut into batches per caller partition, so CDRs of one subscriber are always consumed in order.
      *
-     * @param epoch The epoch time to convert.
-     * @return The LocalDateTime equivalent of the epoch time.
+     * @param merged     The queue of merged blocks, closed with the end-of-stream marker.
+     * @param chunker    The chunker encoding the batches.
+     * @param partitions The partition of every caller seen so far.
+     * @return The number of published CDRs.
+     * @throws InterruptedException if interrupted while waiting for a block.
      */
-    private LocalDateTime epochToLocalDateTime (long epoch) {
-        return  LocalDateTime.ofInstant(Instant.ofEpochSecond(epoch), ZoneOffset.UTC);
+    private long publishMonth (BlockingQueue<List<CDR>> merged, CDRBatchChunker chunker, Map<Long, Integer> partitions)
+            throws InterruptedException {
+        long published = 0;
+        for (List<CDR> block = merged.take(); block != CDRMerger.END_OF_STREAM; block = merged.take()) {
+            cdrPersistenceService.store(block);
+            for (CDR cdr : block) {
+                int partition = partitions.computeIfAbsent(cdr.getCallerNumber(), caller -> kafkaCDRProducer.partitionFor(CDR_TOPIC, caller));
+                chunker.add(cdr, partition);
+            }
+            published += block.size();
+        }
+        chunker.flush();
+        return published;
     }
 
     /**
-     * Sends CDR data to BRT by encoding it as Base64 and producing it to Kafka.
+     * Generates, merges and publishes the CDRs of one month.
+     * Every generator covers its own part of the month and feeds a bounded queue, the merger combines
+     * the queues into one stream ordered by end time and the calling thread publishes it, so every stage
+     * waits when the next one falls behind.
      *
-     * @param path The path to the CDR data file.
+     * @param startMonth The start of the month (epoch time).
+     * @param endMonth   The end of the month (epoch time).
+     * @param random     The seeded random generator of the emulation.
+     * @param chunker    The chunker encoding the batches.
+     * @param partitions The partition of every caller seen so far.
      */
-    private void sendDataToBRT (Path path) {
+    private void emulateMonth (long startMonth, long endMonth, SplittableRandom random,
+                               CDRBatchChunker chunker, Map<Long, Integer> partitions) {
+        List<Subscriber> subscribers = subscriberRepository.findAll();
+        List<BlockingQueue<List<CDR>>> generated = new ArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+
+        List<Pair<Long, Long>> splitMonth = splitMonth(startMonth, endMonth, GENERATOR_THREADS);
+        for (int i = 0; i < splitMonth.size(); i++) {
+            BlockingQueue<List<CDR>> queue = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+            generated.add(queue);
+            GeneratorByPeriod generator = new GeneratorByPeriod(queue, subscribers, splitMonth.get(i).getValue0(),
+                    splitMonth.get(i).getValue1(), random.split(), PIPELINE_BLOCK_SIZE);
+            threads.add(new Thread(generator, "cdr-generator-" + i));
+        }
+        BlockingQueue<List<CDR>> merged = new ArrayBlockingQueue<>(PIPELINE_QUEUE_CAPACITY);
+        threads.add(new Thread(new CDRMerger(generated, merged, PIPELINE_BLOCK_SIZE), "cdr-merger"));
+
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
         try {
-            String str = Base64.getEncoder().encodeToString(Files.readAllBytes(path));
-            kafkaCDRProducer.sendTransaction(CDR_TOPIC, "0", str);
-        } catch (IOException e) {
+            long published = publishMonth(merged, chunker, partitions);
+            log.info("Published {} CDRs of the month", published);
+        } catch (InterruptedException e) {
+            threads.forEach(Thread::interrupt);
+            Thread.currentThread().interrupt();
             throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            threads.forEach(Thread::interrupt);
+            throw e;
         }
     }
 
     /**
-     * Processes and sends CDRs grouped by month to BRT.
-     *
-     * @param cdrList The list of CDRs to process and send.
-     * @param phaser  The phaser used to coordinate threads.
+     * Starts the emulation process by generating CDRs for a billing period.
      */
-    private void sendByMonthList (List<CDR> cdrList, Phaser phaser) {
-        cdrList.sort(Comparator.comparingLong(CDR::getEndTime));
-        List<CDR> subList;
-        while (!cdrList.isEmpty()) {
-            if (cdrList.size() > 10) {
-                subList = cdrList.subList(0, 10);
-            }
-            else {
-                subList = cdrList;
-            }
-
-            LocalDateTime startLocalDateTime = epochToLocalDateTime(subList.get(0).getStartTime());
-            LocalDateTime endLocalDateTime = epochToLocalDateTime(subList.get(subList.size() - 1).getStartTime());
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("MM-dd-yyyy");
+    public void startEmulate () {
+        System.out.println("Start emulation");
+        long currentUnixTime = getStartBillingPeriod();
+        long nextMonthUnixTime = countNextUnixTimeMonth(currentUnixTime);
 
-            String pathFileString = CDR_FILES + "/cdr_"
-                    + startLocalDateTime.format(formatter)
-                    + "_"
-                    + endLocalDateTime.format(formatter)
-                    + ".txt";
-            Path pathFile = Paths.get(pathFileString);
+        SplittableRandom random = GENERATOR_SEED != null ? new SplittableRandom(GENERATOR_SEED) : new SplittableRandom();
 
+        CDRBatchSink sink = kafkaSink();
+        CDRArchiveSink archive = null;
+        if (ARCHIVE_ENABLED) {
             try {
-                if (!Files.exists(pathFile)) Files.createFile(pathFile);
-            } catch (IOException e) {
-                log.error("Fail to create file: {}", pathFile);
-            }
-
-            try (PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(pathFileString, true)))) {
-                for (CDR cdr : subList) {
-                    out.println("""
-                            0%d,%d,%d,%d,%d
-                            """.formatted(
-                            callTypeToInt(cdr.getCallType()),
-                            cdr.getCallerNumber(),
-                            cdr.getCalleeNumber(),
-                            cdr.getStartTime(),
-                            cdr.getEndTime()));
+                Path path = Paths.get(CDR_FILES);
+                if (Files.exists(path)) {
+                    deleteDirectory(path.toFile());
                 }
+                archive = new CDRArchiveSink(path, kafkaCDRProducer.partitionCount(CDR_TOPIC));
+                sink = sink.andThen(archive);
             } catch (IOException e) {
-                throw new RuntimeException(e);
+                log.error("Fail to create directory: " + CDR_FILES);
             }
+        }
+        CDRBatchChunker chunker = newChunker(BATCH_MAX_RECORDS, sink);
+        Map<Long, Integer> partitions = new HashMap<>();
 
-            sendDataToBRT(pathFile);
+        for (int month = 1; month <= 12; month++) {
+            System.out.println("Month: " + month);
+            emulateMonth(currentUnixTime, nextMonthUnixTime, random, chunker, partitions);
+
+            phaser.arriveAndAwaitAdvance();
+            currentUnixTime = nextMonthUnixTime;
+            nextMonthUnixTime = countNextUnixTimeMonth(currentUnixTime);
+        }
 
+        if (archive != null) {
             try {
-                Files.deleteIfExists(pathFile);
+                archive.close();
             } catch (IOException e) {
-                log.error("Fail to delete file: {}", pathFile);
+                log.error("Fail to close CDR archive: {}", e.getMessage());
             }
-
-            cdrList.removeAll(subList);
         }
-
-        phaser.arriveAndAwaitAdvance();
+        System.out.println("End of billing period");
     }
 
     /**
-     * Starts the emulation process by generating CDRs for a billing period.
+     * Generates synthetic CDRs at the configured rate for the configured duration and sends them to BRT
+     * in binary batches, without storing them. Each thread calls from its own share of the subscribers
+     * with its own random generator split from the configured seed. The target rate is split across the threads
+     * with the remainder going to the first threads, and there are never more threads than CDRs per second.
+     * A rate of 0 generates without a limit.
+     *
+     * @return The report with the number of generated CDRs and the achieved throughput.
+     * @throws IllegalArgumentException if the configured rate is negative.
      */
-    public void startEmulate () {
-        System.out.println("Start emulation");
-        List<CDR> monthCDRs = new ArrayList<>();
-        long currentUnixTime = getStartBillingPeriod();
-        long nextMonthUnixTime = countNextUnixTimeMonth(currentUnixTime);
+    public LoadReport startLoad () {
+        if (LOAD_RATE < 0) {
+            throw new IllegalArgumentException("Load rate must not be negative, got " + LOAD_RATE);
+        }
+        List<Subscriber> subscribers = subscriberRepository.findAll();
+        int size = subscribers.size();
+        long[] phoneNumbers = new long[size];
+        boolean[] isRomashka = new boolean[size];
+        int[] partitions = new int[size];
+        for (int i = 0; i < size; i++) {
+            phoneNumbers[i] = subscribers.get(i).getPhoneNumber();
+            isRomashka[i] = Boolean.TRUE.equals(subscribers.get(i).getIsRomashka());
+            partitions[i] = kafkaCDRProducer.partitionFor(CDR_TOPIC, phoneNumbers[i]);
+        }
 
-        int numberOfThreads = 4;
+        int numberOfThreads = Math.max(1, Math.min(LOAD_THREADS, size));
+        if (LOAD_RATE > 0) {
+            numberOfThreads = (int) Math.min(numberOfThreads, LOAD_RATE);
+        }
+        SplittableRandom random = new SplittableRandom(LOAD_SEED);
+        LoadGenerator[] generators = new LoadGenerator[numberOfThreads];
         Thread[] threads = new Thread[numberOfThreads];
-
-        try {
-            Path path = Paths.get(CDR_FILES);
-            if (!Files.exists(path)) {
-                Files.createDirectory(path);
-            } else {
-                deleteDirectory(path.toFile());
-                Files.createDirectory(path);
+        for (int t = 0; t < numberOfThreads; t++) {
+            int[] ownCallers = new int[(size - t + numberOfThreads - 1) / numberOfThreads];
+            for (int i = 0; i < ownCallers.length; i++) {
+                ownCallers[i] = t + i * numberOfThreads;
             }
-        } catch (IOException e) {
-            log.error("Fail to create directory: " + CDR_FILES);
+            generators[t] = new LoadGenerator(phoneNumbers, isRomashka, partitions, ownCallers,
+                    random.split(), LOAD_RATE / numberOfThreads + (t < LOAD_RATE % numberOfThreads ? 1 : 0), TimeUnit.SECONDS.toNanos(LOAD_DURATION_SECONDS),
+                    getStartBillingPeriod(), Math.max(1, LOAD_MAX_CALL_GAP_SECONDS), newChunker(LOAD_BATCH_SIZE, kafkaSink()));
+            threads[t] = new Thread(generators[t], "cdr-load-" + t);
         }
 
-        for (int month = 1; month <= 12; month++) {
-            System.out.println("Month: " + month);
-            List<Pair<Long, Long>> splitMonth = splitMonth(currentUnixTime, nextMonthUnixTime, numberOfThreads);
-
-            for (int i = 0; i < splitMonth.size(); i++) {
-                phaser.register();
-
-                List<Subscriber> subscribers = subscriberRepository.findAll();
-                GeneratorByPeriod generator = new GeneratorByPeriod(queue, subscribers, phaser, splitMonth.get(i).getValue0(), splitMonth.get(i).getValue1());
-                threads[i] = new Thread(generator);
-                threads[i].start();
-            }
+        log.info("Start load generation: {} threads, target {} CDR/s, seed {}", numberOfThreads, LOAD_RATE, LOAD_SEED);
+        for (Thread thread : threads) {
+            thread.start();
+        }
 
-            while (!queue.isEmpty()) {
-                monthCDRs.addAll(consume());
+        long generated = 0;
+        long elapsedNanos = 0;
+        try {
+            for (int t = 0; t < numberOfThreads; t++) {
+                threads[t].join();
+                generated += generators[t].getGenerated();
+                elapsedNanos = Math.max(elapsedNanos, generators[t].getElapsedNanos());
             }
-
-            sendByMonthList(monthCDRs, phaser);
-
-            monthCDRs.clear();
-            currentUnixTime = nextMonthUnixTime;
-            nextMonthUnixTime = countNextUnixTimeMonth(currentUnixTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
-        System.out.println("End of billing period");
+
+        LoadReport report = new LoadReport(generated, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), LOAD_RATE);
+        log.info("Load generation finished: {} CDRs in {} ms, {} CDR/s",
+                report.getGenerated(), report.getElapsedMillis(), Math.round(report.getAchievedRate()));
+        return report;
     }
 
     /**
      * Sends a CDR file encoded as Base64 to BRT using Kafka.
+     * The calls of the file are cut into batches per caller partition in the configured format, like the
+     * emulated CDRs, so CDRs of one subscriber are always consumed in order. Malformed lines are logged and skipped.
      *
      * @param base64CDRFile The CDR file encoded as a Base64 string.
      */
     public void sendCDRToBRT (String base64CDRFile) {
-        kafkaCDRProducer.sendTransaction(CDR_TOPIC, "0", base64CDRFile);
+        String file = new String(Base64.getDecoder().decode(base64CDRFile), StandardCharsets.US_ASCII);
+        CDRBatchChunker chunker = newChunker(BATCH_MAX_RECORDS, kafkaSink());
+        Map<Long, Integer> partitions = new HashMap<>();
+
+        for (String line : file.split("\n")) {
+            if (line.isBlank()) {
+                continue;
+            }
+            String[] fields = line.trim().split(",");
+            try {
+                if (fields.length != 5) {
+                    throw new IllegalArgumentException("Expected 5 fields separated by ','");
+                }
+                CallType callType = switch (fields[0]) {
+                    case "01" -> CallType.INCOMING;
+                    case "02" -> CallType.OUTCOMING;
+                    default -> throw new IllegalArgumentException("Unknown call type " + fields[0]);
+                };
+                long callerNumber = Long.parseLong(fields[1]);
+                int partition = partitions.computeIfAbsent(callerNumber, caller -> kafkaCDRProducer.partitionFor(CDR_TOPIC, caller));
+                chunker.add(partition, callType, callerNumber, Long.parseLong(fields[2]),
+                        Long.parseLong(fields[3]), Long.parseLong(fields[4]));
+            } catch (IllegalArgumentException e) {
+                log.error("Failure to read cdr line '{}': {}", line, e.getMessage());
+            }
+        }
+        chunker.flush();
     }
-}
\ No newline at end of file
+}
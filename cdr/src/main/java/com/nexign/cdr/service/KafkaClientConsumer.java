@@ -0,0 +1,37 @@
+package com.nexign.cdr.service;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import jakarta.annotation.Resource;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.PartitionOffset;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Service;
+
+/**
+ * Kafka consumer keeping the subscriber registry of the generator in sync with the client changelog.
+ */
+@Service
+public class KafkaClientConsumer {
+
+    @Resource
+    private SubscriberService subscriberService;
+
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+    private static final String GROUP = "cdr-client-group";
+    private static final String MSISDN = "msisdn";
+
+    /**
+     * Listens to all partitions of the client changelog. The partitions are assigned manually and read
+     * from the beginning on every start, so the registry is bootstrapped from the compacted log
+     * and then follows the new clients published by BRT.
+     *
+     * @param message the JSON representation of the client state
+     */
+    @KafkaListener(groupId = GROUP, topicPartitions = @TopicPartition(topic = CLIENT_CHANGELOG_TOPIC,
+            partitionOffsets = @PartitionOffset(partition = "*", initialOffset = "0")))
+    public void consume (String message) {
+        JsonObject client = JsonParser.parseString(message).getAsJsonObject();
+        subscriberService.applyClientChange(client.get(MSISDN).getAsLong());
+    }
+}
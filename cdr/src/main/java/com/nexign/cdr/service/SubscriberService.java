@@ -28,4 +28,21 @@ public class SubscriberService {
                 .build();
         subscriberRepository.save(subscriber);
     }
+
+    /**
+     * Registers a client of the operator from the client changelog. A known phone number is marked
+     * as a subscriber of the operator, an unknown one is added as a new subscriber.
+     *
+     * @param msisdn The MSISDN of the client.
+     */
+    @Transactional
+    public void applyClientChange (Long msisdn) {
+        Subscriber subscriber = subscriberRepository.findFirstByPhoneNumber(msisdn).orElse(null);
+        if (subscriber == null) {
+            addNewUser(msisdn);
+        } else if (!Boolean.TRUE.equals(subscriber.getIsRomashka())) {
+            subscriber.setIsRomashka(true);
+            subscriberRepository.save(subscriber);
+        }
+    }
 }
@@ -0,0 +1,118 @@
+package com.nexign.common.cdr;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Definition of the fixed-width binary format of CDR batches, written by the CDR generator and read by
+ * BRT and by the HRS re-rating.
+ * <p>
+ * Layout (big-endian):
+ * <pre>
+ * header, 8 bytes:  magic (2) | version (1) | reserved (1) | record count (4)
+ * record, 25 bytes: call type (1) | caller (8) | callee (8) | start time (4, unsigned) | end time (4, unsigned)
+ * </pre>
+ */
+public final class BinaryCDRFormat {
+
+    public static final byte MAGIC_0 = (byte) 0xCD;
+    public static final byte MAGIC_1 = (byte) 0xB0;
+    public static final byte VERSION = 1;
+    public static final int HEADER_SIZE = 8;
+    public static final int RECORD_SIZE = 25;
+    public static final byte TYPE_INCOMING = 1;
+    public static final byte TYPE_OUTCOMING = 2;
+
+    private static final int COUNT_OFFSET = 4;
+
+    private BinaryCDRFormat() {
+    }
+
+    /**
+     * Checks whether the buffer starts with the binary CDR batch magic bytes.
+     * Base64-encoded CSV batches never start with these bytes.
+     *
+     * @param buffer The buffer to check.
+     * @return true if the buffer holds a binary CDR batch, otherwise false.
+     */
+    public static boolean isBinary(ByteBuffer buffer) {
+        return buffer.remaining() >= HEADER_SIZE
+                && buffer.get(buffer.position()) == MAGIC_0
+                && buffer.get(buffer.position() + 1) == MAGIC_1;
+    }
+
+    /**
+     * Validates the header at the current position of the buffer and returns the record count.
+     *
+     * @param buffer The big-endian buffer holding at least the header.
+     * @return The number of records of the batch.
+     * @throws IllegalArgumentException if the header is not a supported binary CDR batch header.
+     */
+    public static int recordCount(ByteBuffer buffer) {
+        if (!isBinary(buffer)) {
+            throw new IllegalArgumentException("Not a binary CDR batch");
+        }
+        byte version = buffer.get(buffer.position() + 2);
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported binary CDR version " + version);
+        }
+        int count = buffer.getInt(buffer.position() + COUNT_OFFSET);
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid binary CDR record count " + count);
+        }
+        return count;
+    }
+
+    /**
+     * Checks whether a byte is a known call type.
+     *
+     * @param type The call type byte of a record.
+     * @return true for an incoming or outgoing call.
+     */
+    public static boolean isValidType(byte type) {
+        return type == TYPE_INCOMING || type == TYPE_OUTCOMING;
+    }
+
+    /**
+     * Writes the header of a batch at the current position of the buffer.
+     *
+     * @param buffer The big-endian buffer to write to.
+     * @param count  The number of records of the batch.
+     */
+    public static void putHeader(ByteBuffer buffer, int count) {
+        buffer.put(MAGIC_0)
+                .put(MAGIC_1)
+                .put(VERSION)
+                .put((byte) 0)
+                .putInt(count);
+    }
+
+    /**
+     * Overwrites the record count in the header of a batch starting at the given offset.
+     *
+     * @param buffer The big-endian buffer holding the batch.
+     * @param offset The offset of the header.
+     * @param count  The number of records of the batch.
+     */
+    public static void putCount(ByteBuffer buffer, int offset, int count) {
+        buffer.putInt(offset + COUNT_OFFSET, count);
+    }
+
+    /**
+     * Writes one record at the current position of the buffer.
+     *
+     * @param buffer       The big-endian buffer to write to.
+     * @param type         The call type, {@link #TYPE_INCOMING} or {@link #TYPE_OUTCOMING}.
+     * @param callerNumber The caller MSISDN.
+     * @param calleeNumber The callee MSISDN.
+     * @param startTime    The start of the call in epoch seconds.
+     * @param endTime      The end of the call in epoch seconds.
+     */
+    public static void putRecord(ByteBuffer buffer, byte type, long callerNumber, long calleeNumber,
+                                 long startTime, long endTime) {
+        buffer.put(type)
+                .putLong(callerNumber)
+                .putLong(calleeNumber)
+                .putInt((int) startTime)
+                .putInt((int) endTime);
+    }
+}
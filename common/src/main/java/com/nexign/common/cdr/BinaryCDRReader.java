@@ -0,0 +1,117 @@
+package com.nexign.common.cdr;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.nexign.common.cdr.BinaryCDRFormat.HEADER_SIZE;
+import static com.nexign.common.cdr.BinaryCDRFormat.RECORD_SIZE;
+
+/**
+ * Reader for CDR batches in the fixed-width binary format described by {@link BinaryCDRFormat}.
+ * The reader does not copy the buffer: fields of the current record are read in place.
+ */
+public class BinaryCDRReader {
+
+    private final ByteBuffer buffer;
+    private final int recordCount;
+    private int index = -1;
+    private int offset;
+
+    /**
+     * Creates a reader over the given buffer and validates the batch header.
+     *
+     * @param buffer The buffer holding a binary CDR batch.
+     * @throws IllegalArgumentException if the header is malformed or the buffer is truncated.
+     */
+    public BinaryCDRReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice().order(ByteOrder.BIG_ENDIAN);
+        this.recordCount = BinaryCDRFormat.recordCount(this.buffer);
+        if (this.buffer.remaining() < HEADER_SIZE + (long) recordCount * RECORD_SIZE) {
+            throw new IllegalArgumentException("Truncated binary CDR batch, records: " + recordCount
+                    + ", bytes: " + this.buffer.remaining());
+        }
+    }
+
+    /**
+     * Returns the number of records in the batch.
+     *
+     * @return The record count from the header.
+     */
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Moves to the next record and validates its call type.
+     * A malformed record is skipped: the next call moves past it.
+     *
+     * @return true if there is a current record after the move, false at the end of the batch.
+     * @throws MalformedCDRException if the call type of the record is unknown, with the record number as the line.
+     */
+    public boolean next() {
+        if (index + 1 >= recordCount) {
+            return false;
+        }
+        index++;
+        offset = HEADER_SIZE + index * RECORD_SIZE;
+        byte callType = buffer.get(offset);
+        if (!BinaryCDRFormat.isValidType(callType)) {
+            throw new MalformedCDRException("Invalid call type " + callType, index + 1, 1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns the call type of the current record.
+     *
+     * @return The call type, {@link BinaryCDRFormat#TYPE_INCOMING} or {@link BinaryCDRFormat#TYPE_OUTCOMING}.
+     */
+    public byte getType() {
+        return buffer.get(offset);
+    }
+
+    /**
+     * Checks whether the current record is an incoming call.
+     *
+     * @return true for an incoming call, false for an outgoing one.
+     */
+    public boolean isIncoming() {
+        return buffer.get(offset) == BinaryCDRFormat.TYPE_INCOMING;
+    }
+
+    /**
+     * Returns the caller number of the current record.
+     *
+     * @return The caller number.
+     */
+    public long getCallerNumber() {
+        return buffer.getLong(offset + 1);
+    }
+
+    /**
+     * Returns the callee number of the current record.
+     *
+     * @return The callee number.
+     */
+    public long getCalleeNumber() {
+        return buffer.getLong(offset + 9);
+    }
+
+    /**
+     * Returns the start time of the current record in epoch seconds.
+     *
+     * @return The start time of the call.
+     */
+    public long getStartTime() {
+        return Integer.toUnsignedLong(buffer.getInt(offset + 17));
+    }
+
+    /**
+     * Returns the end time of the current record in epoch seconds.
+     *
+     * @return The end time of the call.
+     */
+    public long getEndTime() {
+        return Integer.toUnsignedLong(buffer.getInt(offset + 21));
+    }
+}
@@ -0,0 +1,28 @@
+package com.nexign.common.cdr;
+
+import lombok.Getter;
+
+/**
+ * Exception thrown when a CDR line or binary record cannot be parsed. Carries the position of the failure.
+ */
+@Getter
+public class MalformedCDRException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int line;
+    private final int column;
+
+    /**
+     * Constructs the exception for the given position in the batch.
+     *
+     * @param message the reason of the failure
+     * @param line    the line number, starting from 1
+     * @param column  the column in the line, starting from 1
+     */
+    public MalformedCDRException(String message, int line, int column) {
+        super(String.format("%s at line %d, column %d", message, line, column));
+        this.line = line;
+        this.column = column;
+    }
+}
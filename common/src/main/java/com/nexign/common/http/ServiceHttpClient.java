@@ -0,0 +1,327 @@
+package com.nexign.common.http;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Shared HTTP client for requests to the other services.
+ * <p>
+ * A single {@link HttpClient} is kept for the lifetime of the application, so connections are reused
+ * and HTTP/2 is negotiated where the server supports it. The number of requests in flight is bounded:
+ * asynchronous requests without a free slot are queued and sent when a slot is released, so no thread
+ * is blocked waiting for one. Idempotent (GET) requests are retried on failures and 5xx responses and,
+ * if configured, hedged: when no response arrives within the hedge delay a second copy is sent and the
+ * first successful response wins. Retries and hedges are scheduled on a dedicated thread of the client.
+ */
+@Slf4j
+@Component
+public class ServiceHttpClient {
+
+    @Value("${http.client.connect-timeout-ms:10000}")
+    private Long CONNECT_TIMEOUT_MS;
+    @Value("${http.client.request-timeout-ms:30000}")
+    private Long REQUEST_TIMEOUT_MS;
+    @Value("${http.client.max-in-flight:64}")
+    private Integer MAX_IN_FLIGHT;
+    @Value("${http.client.retries:2}")
+    private Integer RETRIES;
+    @Value("${http.client.retry-backoff-ms:100}")
+    private Long RETRY_BACKOFF_MS;
+    @Value("${http.client.hedge-after-ms:0}")
+    private Long HEDGE_AFTER_MS;
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String APPLICATION_JSON = "application/json";
+
+    private HttpClient httpClient;
+    private Semaphore inFlight;
+    private final Queue<Runnable> waiting = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Builds the shared HttpClient from the configured settings.
+     */
+    @PostConstruct
+    public void init () {
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(CONNECT_TIMEOUT_MS))
+                .build();
+        this.inFlight = new Semaphore(MAX_IN_FLIGHT);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "service-http-client-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Stops the thread scheduling retries and hedges.
+     */
+    @PreDestroy
+    public void shutdown () {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Builds a GET request for the specified URL.
+     *
+     * @param url the URL to request
+     * @return the HttpRequest object
+     */
+    public HttpRequest get (String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .GET()
+                .build();
+    }
+
+    /**
+     * Builds a POST request with a JSON body for the specified URL.
+     *
+     * @param url  the URL to request
+     * @param json the JSON body
+     * @return the HttpRequest object
+     */
+    public HttpRequest postJson (String url, String json) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .header(CONTENT_TYPE, APPLICATION_JSON)
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build();
+    }
+
+    /**
+     * Builds a POST request without a body for the specified URL.
+     *
+     * @param url the URL to request
+     * @return the HttpRequest object
+     */
+    public HttpRequest post (String url) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .timeout(Duration.ofMillis(REQUEST_TIMEOUT_MS))
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .build();
+    }
+
+    /**
+     * Builds a POST request whose body is read from a stream while the request is sent, for bodies too large
+     * to be held in memory. The request is not bounded by the request timeout, since its duration depends on
+     * the size of the body; the connect timeout still applies. The request is sent once, the body is not replayed.
+     *
+     * @param url         the URL to request
+     * @param contentType the content type of the body
+     * @param body        the supplier of the body stream, called once when the request is sent
+     * @return the HttpRequest object
+     */
+    public HttpRequest postStream (String url, String contentType, Supplier<InputStream> body) {
+        return HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header(CONTENT_TYPE, contentType)
+                .POST(HttpRequest.BodyPublishers.ofInputStream(body))
+                .build();
+    }
+
+    /**
+     * Sends a request and waits for the response.
+     *
+     * @param request the request to send
+     * @return the response with the body as a string
+     */
+    public HttpResponse<String> send (HttpRequest request) {
+        return sendAsync(request).join();
+    }
+
+    /**
+     * Sends a request asynchronously. GET requests are retried and hedged, other requests are sent once.
+     *
+     * @param request the request to send
+     * @return a future completed with the response
+     */
+    public CompletableFuture<HttpResponse<String>> sendAsync (HttpRequest request) {
+        boolean idempotent = "GET".equals(request.method());
+        return attempt(request, idempotent ? RETRIES : 0, idempotent);
+    }
+
+    /**
+     * Sends a request and returns the body as a lazily read stream of lines, for responses too large
+     * to be held in memory. The request is sent once; its in-flight slot is held until the stream is closed.
+     *
+     * @param request the request to send
+     * @return the response with the body as a stream of lines, to be closed by the caller
+     * @throws IOException          if the request fails
+     * @throws InterruptedException if interrupted while waiting for a slot or the response
+     */
+    public HttpResponse<Stream<String>> sendLines (HttpRequest request) throws IOException, InterruptedException {
+        inFlight.acquire();
+        HttpResponse<Stream<String>> response;
+        try {
+            response = httpClient.send(request, HttpResponse.BodyHandlers.ofLines());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        response.body().onClose(this::release);
+        return response;
+    }
+
+    /**
+     * Sends one attempt of the request and schedules a retry if it fails.
+     *
+     * @param request     the request to send
+     * @param retriesLeft the number of retries still allowed
+     * @param hedge       whether the attempt may be hedged
+     * @return a future completed with the response of the first successful attempt
+     */
+    private CompletableFuture<HttpResponse<String>> attempt (HttpRequest request, int retriesLeft, boolean hedge) {
+        CompletableFuture<HttpResponse<String>> response = hedge && HEDGE_AFTER_MS > 0
+                ? sendHedged(request)
+                : sendLimited(request);
+
+        return response.handle((result, error) -> {
+            if (isFailed(result, error) && retriesLeft > 0) {
+                log.info("Retrying request {}, retries left: {}", request.uri(), retriesLeft);
+                CompletableFuture<HttpResponse<String>> retry = new CompletableFuture<>();
+                scheduler.schedule(() -> attempt(request, retriesLeft - 1, hedge).whenComplete((retried, retryError) -> {
+                    if (retryError == null) {
+                        retry.complete(retried);
+                    } else {
+                        retry.completeExceptionally(retryError);
+                    }
+                }), RETRY_BACKOFF_MS, TimeUnit.MILLISECONDS);
+                return retry;
+            }
+            return error != null
+                    ? CompletableFuture.<HttpResponse<String>>failedFuture(error)
+                    : CompletableFuture.completedFuture(result);
+        }).thenCompose(result -> result);
+    }
+
+    /**
+     * Checks whether an attempt failed: it ended with an error or the server answered with a 5xx status.
+     *
+     * @param response the response of the attempt, or null
+     * @param error    the error of the attempt, or null
+     * @return true if the attempt failed
+     */
+    private static boolean isFailed (HttpResponse<String> response, Throwable error) {
+        return error != null || response.statusCode() >= 500;
+    }
+
+    /**
+     * Sends the request and, if no response arrives within the hedge delay and a slot is free,
+     * sends a second copy. The first successful response completes the future; a 5xx response
+     * counts as a failed copy, and when both copies fail the outcome of the last one is returned.
+     *
+     * @param request the request to send
+     * @return a future completed with the first successful response
+     */
+    private CompletableFuture<HttpResponse<String>> sendHedged (HttpRequest request) {
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        AtomicInteger outstanding = new AtomicInteger(1);
+        BiConsumer<HttpResponse<String>, Throwable> onComplete = (response, error) -> {
+            if (!isFailed(response, error)) {
+                result.complete(response);
+            } else if (outstanding.decrementAndGet() == 0) {
+                if (error != null) {
+                    result.completeExceptionally(error);
+                } else {
+                    result.complete(response);
+                }
+            }
+        };
+
+        sendLimited(request).whenComplete(onComplete);
+        scheduler.schedule(() -> {
+            if (!result.isDone() && inFlight.tryAcquire()) {
+                if (outstanding.incrementAndGet() > 1) {
+                    dispatch(request, onComplete);
+                } else {
+                    release();
+                }
+            }
+        }, HEDGE_AFTER_MS, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    /**
+     * Sends the request on a free in-flight slot, or queues it until a slot is released.
+     *
+     * @param request the request to send
+     * @return a future completed with the response
+     */
+    private CompletableFuture<HttpResponse<String>> sendLimited (HttpRequest request) {
+        CompletableFuture<HttpResponse<String>> result = new CompletableFuture<>();
+        Runnable send = () -> dispatch(request, (response, error) -> {
+            if (error == null) {
+                result.complete(response);
+            } else {
+                result.completeExceptionally(error);
+            }
+        });
+
+        if (inFlight.tryAcquire()) {
+            send.run();
+        } else {
+            waiting.add(send);
+            // A slot may have been released before the request was queued.
+            sendWaiting();
+        }
+        return result;
+    }
+
+    /**
+     * Sends the request on an already acquired in-flight slot and releases the slot on completion.
+     *
+     * @param request    the request to send
+     * @param onComplete the callback receiving the response or the error
+     */
+    private void dispatch (HttpRequest request, BiConsumer<HttpResponse<String>, Throwable> onComplete) {
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> {
+                    release();
+                    onComplete.accept(response, error);
+                });
+    }
+
+    /**
+     * Releases an in-flight slot and hands it to a queued request, if any.
+     */
+    private void release () {
+        inFlight.release();
+        sendWaiting();
+    }
+
+    /**
+     * Sends queued requests while there are free in-flight slots.
+     */
+    private void sendWaiting () {
+        while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+            Runnable send = waiting.poll();
+            if (send == null) {
+                inFlight.release();
+                return;
+            }
+            send.run();
+        }
+    }
+}
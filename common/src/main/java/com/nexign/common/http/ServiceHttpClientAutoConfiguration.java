@@ -0,0 +1,12 @@
+package com.nexign.common.http;
+
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.context.annotation.Import;
+
+/**
+ * Registers the shared {@link ServiceHttpClient} in every service depending on this module.
+ */
+@AutoConfiguration
+@Import(ServiceHttpClient.class)
+public class ServiceHttpClientAutoConfiguration {
+}
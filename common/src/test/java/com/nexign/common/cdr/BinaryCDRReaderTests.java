@@ -0,0 +1,89 @@
+package com.nexign.common.cdr;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BinaryCDRReaderTests {
+
+    private static ByteBuffer batch (long[][] records) {
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCDRFormat.HEADER_SIZE + records.length * BinaryCDRFormat.RECORD_SIZE);
+        BinaryCDRFormat.putHeader(buffer, records.length);
+        for (long[] record : records) {
+            BinaryCDRFormat.putRecord(buffer, (byte) record[0], record[1], record[2], record[3], record[4]);
+        }
+        return buffer.flip();
+    }
+
+    @Test
+    void readsBackEncodedRecords () {
+        BinaryCDRReader reader = new BinaryCDRReader(batch(new long[][] {
+                {1, 79000000001L, 79000000002L, 1700000000L, 1700000060L},
+                {2, 79000000003L, 79000000004L, 1700000100L, 1700000200L}
+        }));
+
+        assertEquals(2, reader.getRecordCount());
+        assertTrue(reader.next());
+        assertEquals(BinaryCDRFormat.TYPE_INCOMING, reader.getType());
+        assertTrue(reader.isIncoming());
+        assertEquals(79000000001L, reader.getCallerNumber());
+        assertEquals(79000000002L, reader.getCalleeNumber());
+        assertEquals(1700000000L, reader.getStartTime());
+        assertEquals(1700000060L, reader.getEndTime());
+        assertTrue(reader.next());
+        assertEquals(BinaryCDRFormat.TYPE_OUTCOMING, reader.getType());
+        assertFalse(reader.isIncoming());
+        assertFalse(reader.next());
+    }
+
+    @Test
+    void readsTimesPastTheSignedIntRangeAsUnsigned () {
+        long start = (1L << 31) + 5;
+        long end = 0xFFFFFFFFL;
+        BinaryCDRReader reader = new BinaryCDRReader(batch(new long[][] {{2, 79000000001L, 79000000002L, start, end}}));
+
+        assertTrue(reader.next());
+        assertEquals(start, reader.getStartTime());
+        assertEquals(end, reader.getEndTime());
+    }
+
+    @Test
+    void rejectsInvalidCallTypeAndSkipsTheRecord () {
+        BinaryCDRReader reader = new BinaryCDRReader(batch(new long[][] {
+                {3, 79000000001L, 79000000002L, 1, 2},
+                {1, 79000000003L, 79000000004L, 3, 4}
+        }));
+
+        MalformedCDRException e = assertThrows(MalformedCDRException.class, reader::next);
+        assertEquals(1, e.getLine());
+        assertTrue(reader.next());
+        assertEquals(79000000003L, reader.getCallerNumber());
+    }
+
+    @Test
+    void rejectsTruncatedBatch () {
+        ByteBuffer full = batch(new long[][] {{1, 79000000001L, 79000000002L, 1, 2}});
+        ByteBuffer truncated = full.slice(0, full.limit() - 1);
+
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCDRReader(truncated));
+    }
+
+    @Test
+    void rejectsUnsupportedVersion () {
+        ByteBuffer buffer = batch(new long[0][]);
+        buffer.put(2, (byte) (BinaryCDRFormat.VERSION + 1));
+
+        assertThrows(IllegalArgumentException.class, () -> new BinaryCDRReader(buffer));
+    }
+
+    @Test
+    void recognisesOnlyBatchesStartingWithTheMagicBytes () {
+        assertTrue(BinaryCDRFormat.isBinary(batch(new long[0][])));
+        assertFalse(BinaryCDRFormat.isBinary(ByteBuffer.wrap("MDEsNzkwMDAwMDAwMDEs".getBytes())));
+    }
+}
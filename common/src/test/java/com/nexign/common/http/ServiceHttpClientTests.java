@@ -0,0 +1,83 @@
+package com.nexign.common.http;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.InetSocketAddress;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ServiceHttpClientTests {
+
+    private HttpServer server;
+    private ServiceHttpClient client;
+    private final AtomicReference<String> received = new AtomicReference<>();
+    private final AtomicReference<String> contentType = new AtomicReference<>();
+
+    @BeforeEach
+    void setUp () throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/echo", exchange -> {
+            try (InputStream body = exchange.getRequestBody()) {
+                byte[] bytes = body.readAllBytes();
+                received.set(new String(bytes, StandardCharsets.US_ASCII));
+                contentType.set(exchange.getRequestHeaders().getFirst("Content-Type"));
+                byte[] answer = String.valueOf(bytes.length).getBytes(StandardCharsets.US_ASCII);
+                exchange.sendResponseHeaders(200, answer.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(answer);
+                }
+            }
+        });
+        server.start();
+
+        client = new ServiceHttpClient();
+        inject("CONNECT_TIMEOUT_MS", 10000L);
+        inject("REQUEST_TIMEOUT_MS", 30000L);
+        inject("MAX_IN_FLIGHT", 4);
+        inject("RETRIES", 0);
+        inject("RETRY_BACKOFF_MS", 100L);
+        inject("HEDGE_AFTER_MS", 0L);
+        client.init();
+    }
+
+    @AfterEach
+    void tearDown () {
+        client.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void postStreamSendsTheBodyReadFromTheStreamOnce () {
+        String body = "0123456789".repeat(100_000);
+        AtomicInteger opened = new AtomicInteger();
+        String url = "http://localhost:" + server.getAddress().getPort() + "/echo";
+
+        HttpResponse<String> response = client.send(client.postStream(url, "application/octet-stream", () -> {
+            opened.incrementAndGet();
+            return new ByteArrayInputStream(body.getBytes(StandardCharsets.US_ASCII));
+        }));
+
+        assertEquals(200, response.statusCode());
+        assertEquals(String.valueOf(body.length()), response.body());
+        assertEquals(body, received.get());
+        assertEquals("application/octet-stream", contentType.get());
+        assertEquals(1, opened.get());
+    }
+
+    private void inject (String name, Object value) throws ReflectiveOperationException {
+        Field field = ServiceHttpClient.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(client, value);
+    }
+}
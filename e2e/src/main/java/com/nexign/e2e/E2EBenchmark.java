@@ -0,0 +1,221 @@
+package com.nexign.e2e;
+
+import com.nexign.brt.BrtApplication;
+import com.nexign.cdr.CdrApplication;
+import com.nexign.cdr.model.LoadReport;
+import com.nexign.cdr.service.CDRService;
+import com.nexign.hrs.HrsApplication;
+import com.nexign.hrs.cache.ClientCache;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+import org.springframework.kafka.test.EmbeddedKafkaKraftBroker;
+import org.springframework.kafka.test.utils.ContainerTestUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end throughput benchmark: CDR → Kafka → BRT → HRS → balance, all in one JVM and offline.
+ * <p>
+ * The broker is an embedded KRaft broker, the databases are in-memory H2 databases in the PostgreSQL mode,
+ * the API gateway is replaced by {@link GatewayStub} and Eureka is switched off. The CDR service generates
+ * the configured number of CDRs with its load generator; the run ends when the BRT has processed all of them.
+ * <p>
+ * Configured with system properties:
+ * <ul>
+ *     <li>{@code e2e.subscribers} - clients of the operator, 10000 by default;</li>
+ *     <li>{@code e2e.other-subscribers} - subscribers of other operators, a tenth of the clients by default;</li>
+ *     <li>{@code e2e.cdrs} - CDRs to generate, 1000000 by default;</li>
+ *     <li>{@code e2e.rate} - target CDRs per second of the generator, 50000 by default;</li>
+ *     <li>{@code e2e.load-threads} - generator threads, 4 by default;</li>
+ *     <li>{@code e2e.consumer-concurrency} - listener threads of the BRT, 6 by default, one per CDR topic partition;</li>
+ *     <li>{@code e2e.seed} - seed of the subscribers and the calls, 42 by default;</li>
+ *     <li>{@code e2e.timeout-seconds} - the longest wait for the BRT after the generation, 600 by default.</li>
+ * </ul>
+ * The report gives the throughput, the p50 and p99 latency of a CDR and the database round-trips per CDR
+ * of every service, counted from the start of the generation until the BRT has processed the last CDR
+ * and written its next balance checkpoint.
+ */
+public final class E2EBenchmark {
+
+    private static final int SUBSCRIBERS = Integer.getInteger("e2e.subscribers", 10_000);
+    private static final int OTHER_SUBSCRIBERS = Integer.getInteger("e2e.other-subscribers", SUBSCRIBERS / 10);
+    private static final long CDRS = Long.getLong("e2e.cdrs", 1_000_000L);
+    private static final long RATE = Long.getLong("e2e.rate", 50_000L);
+    private static final int LOAD_THREADS = Integer.getInteger("e2e.load-threads", 4);
+    private static final int CONSUMER_CONCURRENCY = Integer.getInteger("e2e.consumer-concurrency", 6);
+    private static final long SEED = Long.getLong("e2e.seed", 42L);
+    private static final long TIMEOUT_SECONDS = Long.getLong("e2e.timeout-seconds", 600L);
+
+    private static final int GATEWAY_PORT = 8765;
+    private static final long POLL_MILLIS = 100;
+    private static final int STARTUP_TIMEOUT_SECONDS = 60;
+
+    private E2EBenchmark() {
+    }
+
+    /**
+     * Runs the benchmark and prints the report.
+     *
+     * @param args Not used.
+     * @throws Exception if the run fails
+     */
+    public static void main(String[] args) throws Exception {
+        if (RATE <= 0 || CDRS <= 0) {
+            throw new IllegalArgumentException("e2e.rate and e2e.cdrs must be positive");
+        }
+        Path workDir = Files.createTempDirectory("e2e");
+        SeedData seed = new SeedData(SUBSCRIBERS, OTHER_SUBSCRIBERS, SEED);
+        Path subscribers = seed.writeSubscribers(workDir.resolve("cdr-import.sql"));
+        Path clients = seed.writeClients(workDir.resolve("brt-import.sql"));
+        Path tariffs = SeedData.writeTariffs(workDir.resolve("hrs-import.sql"));
+
+        EmbeddedKafkaKraftBroker broker = new EmbeddedKafkaKraftBroker(1, 1);
+        broker.afterPropertiesSet();
+        String brokers = broker.getBrokersAsString();
+        LatencyRecorder latencies = new LatencyRecorder();
+        long durationSeconds = (CDRS + RATE - 1) / RATE;
+
+        try (GatewayStub gateway = new GatewayStub(GATEWAY_PORT);
+             ServiceInstance cdr = gateway.route(new ServiceInstance("cdr", CdrApplication.class, brokers, subscribers, Map.of(
+                     "directory.cdr.name", workDir.resolve("cdr_files").toString(),
+                     "cdr.batch.format", "binary",
+                     "cdr.archive.enabled", "false",
+                     "cdr.load.rate", String.valueOf(RATE),
+                     "cdr.load.duration-seconds", String.valueOf(durationSeconds),
+                     "cdr.load.threads", String.valueOf(LOAD_THREADS),
+                     "cdr.load.seed", String.valueOf(SEED)), null));
+             ServiceInstance hrs = gateway.route(new ServiceInstance("hrs", HrsApplication.class, brokers, tariffs, Map.of(
+                     "hrs.allowance.dir", workDir.resolve("allowance_journal").toString()), null));
+             ServiceInstance brt = gateway.route(new ServiceInstance("brt", BrtApplication.class, brokers, clients, Map.of(
+                     "brt.journal.dir", workDir.resolve("balance_journal").toString(),
+                     "cdr.consumer.concurrency", String.valueOf(CONSUMER_CONCURRENCY)), latencies))) {
+            List<ServiceInstance> services = List.of(cdr, brt, hrs);
+
+            awaitClients(hrs.getBean(ClientCache.class), seed.clientCount());
+            int partitions = Integer.parseInt(cdr.getProperty("cdr.topic.partitions"));
+            for (MessageListenerContainer container : brt.getBean(KafkaListenerEndpointRegistry.class).getListenerContainers()) {
+                ContainerTestUtils.waitForAssignment(container, partitions);
+            }
+
+            latencies.reset();
+            services.forEach(service -> service.getRoundTrips().reset());
+            System.out.printf("Generating %d CDR/s for %d s from %d clients and %d other subscribers%n",
+                    RATE, durationSeconds, SUBSCRIBERS, OTHER_SUBSCRIBERS);
+            long started = System.currentTimeMillis();
+            LoadReport load = cdr.getBean(CDRService.class).startLoad();
+
+            boolean completed = awaitProcessed(latencies, load.getGenerated());
+            long finished = latencies.getLastProcessedAt();
+            Thread.sleep(Long.parseLong(brt.getProperty("brt.journal.checkpoint-interval-ms")) + POLL_MILLIS);
+
+            report(load, latencies, services, finished - started, completed);
+        } finally {
+            broker.destroy();
+            deleteDirectory(workDir);
+        }
+    }
+
+    /**
+     * Waits until the HRS has read all clients from the client changelog.
+     *
+     * @param clientCache The client cache of the HRS.
+     * @param clients     The number of clients.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static void awaitClients(ClientCache clientCache, int clients) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(STARTUP_TIMEOUT_SECONDS);
+        while (clientCache.countByTariffId(SeedData.CLASSIC_TARIFF) + clientCache.countByTariffId(SeedData.MONTH_TARIFF) < clients) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("HRS has not received all clients from the client changelog");
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+    }
+
+    /**
+     * Waits until the BRT has processed the generated CDRs.
+     *
+     * @param latencies The recorder of the BRT.
+     * @param generated The number of generated CDRs.
+     * @return Whether all CDRs were processed before the timeout.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private static boolean awaitProcessed(LatencyRecorder latencies, long generated) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (latencies.getProcessed() < generated) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        return true;
+    }
+
+    /**
+     * Prints the report of the run.
+     *
+     * @param load          The report of the generator.
+     * @param latencies     The recorder of the BRT.
+     * @param services      The services.
+     * @param elapsedMillis The time from the start of the generation to the last processed CDR.
+     * @param completed     Whether all CDRs were processed.
+     */
+    private static void report(LoadReport load, LatencyRecorder latencies, List<ServiceInstance> services,
+                               long elapsedMillis, boolean completed) {
+        long processed = latencies.getProcessed();
+        System.out.println();
+        System.out.println("End-to-end: CDR -> Kafka -> BRT -> HRS -> balance");
+        if (!completed) {
+            System.out.printf(Locale.ROOT, "  TIMEOUT: %d of %d CDRs processed in %d s%n",
+                    processed, load.getGenerated(), TIMEOUT_SECONDS);
+        }
+        System.out.printf(Locale.ROOT, "  generated      %,d CDRs in %,d ms (%,.0f CDR/s)%n",
+                load.getGenerated(), load.getElapsedMillis(), load.getAchievedRate());
+        System.out.printf(Locale.ROOT, "  processed      %,d CDRs in %,d ms, %,d failed%n",
+                processed, elapsedMillis, latencies.getFailed());
+        System.out.printf(Locale.ROOT, "  throughput     %,.0f CDR/s%n",
+                elapsedMillis > 0 ? processed * 1000.0 / elapsedMillis : 0);
+        System.out.printf(Locale.ROOT, "  latency        p50 %d ms, p99 %d ms%n",
+                latencies.percentile(50), latencies.percentile(99));
+
+        long total = 0;
+        for (ServiceInstance service : services) {
+            long roundTrips = service.getRoundTrips().get();
+            total += roundTrips;
+            System.out.printf(Locale.ROOT, "  db round-trips %-3s %,d (%.4f per CDR)%n",
+                    service.getName(), roundTrips, perCdr(roundTrips, processed));
+        }
+        System.out.printf(Locale.ROOT, "  db round-trips all %,d (%.4f per CDR)%n", total, perCdr(total, processed));
+    }
+
+    /**
+     * Divides a count by the number of processed CDRs.
+     *
+     * @param count     The count.
+     * @param processed The number of processed CDRs.
+     * @return The count per CDR.
+     */
+    private static double perCdr(long count, long processed) {
+        return processed > 0 ? (double) count / processed : 0;
+    }
+
+    /**
+     * Deletes the directory of the run with the scripts and the journals.
+     *
+     * @param directory The directory.
+     * @throws IOException if the directory cannot be listed
+     */
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
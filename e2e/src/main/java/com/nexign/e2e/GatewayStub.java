@@ -0,0 +1,134 @@
+package com.nexign.e2e;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stand-in for the API gateway: routes {@code /<service>/<path>} to {@code <path>} of the local port
+ * of the service, as the discovery locator of the gateway does, without Eureka.
+ * <p>
+ * The services address each other through the gateway port, so the stub listens on it. Requests are
+ * forwarded with their method, query, body and content type; a service that is not registered yet
+ * answers 503.
+ */
+final class GatewayStub implements AutoCloseable {
+
+    private static final String CONTENT_TYPE = "Content-Type";
+    private static final String ACCEPT = "Accept";
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private final Map<String, Integer> routes = new ConcurrentHashMap<>();
+
+    /**
+     * Starts the stub.
+     *
+     * @param port The port of the gateway.
+     * @throws IOException if the port cannot be bound
+     */
+    GatewayStub(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+        server.setExecutor(executor);
+        server.createContext("/", this::forward);
+        server.start();
+    }
+
+    /**
+     * Registers a started service under its name, the first segment of its paths.
+     *
+     * @param service The service.
+     * @return The service.
+     */
+    ServiceInstance route(ServiceInstance service) {
+        routes.put(service.getName(), service.getPort());
+        return service;
+    }
+
+    /**
+     * Forwards a request to its service and copies the response back.
+     *
+     * @param exchange The request and its response.
+     * @throws IOException if the exchange fails
+     */
+    private void forward(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            URI uri = exchange.getRequestURI();
+            String path = uri.getRawPath();
+            int slash = path.indexOf('/', 1);
+            String service = slash < 0 ? path.substring(1) : path.substring(1, slash);
+            Integer port = routes.get(service);
+            if (port == null) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            String target = "http://127.0.0.1:" + port + (slash < 0 ? "/" : path.substring(slash))
+                    + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : "");
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(target))
+                    .method(exchange.getRequestMethod(), body.length == 0
+                            ? HttpRequest.BodyPublishers.noBody()
+                            : HttpRequest.BodyPublishers.ofByteArray(body));
+            copyHeader(exchange, request, CONTENT_TYPE);
+            copyHeader(exchange, request, ACCEPT);
+
+            HttpResponse<byte[]> response;
+            try {
+                response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            } catch (IOException e) {
+                exchange.sendResponseHeaders(502, -1);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+
+            response.headers().firstValue(CONTENT_TYPE)
+                    .ifPresent(value -> exchange.getResponseHeaders().set(CONTENT_TYPE, value));
+            byte[] responseBody = response.body();
+            exchange.sendResponseHeaders(response.statusCode(), responseBody.length == 0 ? -1 : responseBody.length);
+            if (responseBody.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(responseBody);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a request header, if present, to the forwarded request.
+     *
+     * @param exchange The incoming request.
+     * @param request  The forwarded request.
+     * @param name     The name of the header.
+     */
+    private static void copyHeader(HttpExchange exchange, HttpRequest.Builder request, String name) {
+        String value = exchange.getRequestHeaders().getFirst(name);
+        if (value != null) {
+            request.header(name, value);
+        }
+    }
+
+    /**
+     * Stops the stub.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,160 @@
+package com.nexign.e2e;
+
+import com.nexign.common.cdr.BinaryCDRFormat;
+import com.nexign.common.cdr.BinaryCDRReader;
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.springframework.kafka.listener.RecordInterceptor;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Interceptor of the CDR listener of the BRT recording how long every CDR took through the pipeline.
+ * <p>
+ * The latency of a CDR is the time from the send of its batch by the CDR service, the create time
+ * of the Kafka record, to the return of the listener, when the calls are rated by the HRS and the debits
+ * are durable in the balance journal. All CDRs of a batch share its latency. The latencies are kept
+ * in a histogram with one bucket per millisecond, so the percentiles are exact to a millisecond.
+ */
+final class LatencyRecorder implements RecordInterceptor<Object, Object> {
+
+    private static final int MAX_MILLIS = 600_000;
+
+    private final AtomicLongArray histogram = new AtomicLongArray(MAX_MILLIS + 1);
+    private final LongAdder processed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final AtomicLong lastProcessedAt = new AtomicLong();
+
+    /**
+     * Passes the record to the listener unchanged.
+     *
+     * @param record   The record.
+     * @param consumer The consumer.
+     * @return The record.
+     */
+    @Override
+    public ConsumerRecord<Object, Object> intercept(ConsumerRecord<Object, Object> record, Consumer<Object, Object> consumer) {
+        return record;
+    }
+
+    /**
+     * Records the latency of the CDRs of a processed batch.
+     *
+     * @param record   The record of the batch.
+     * @param consumer The consumer.
+     */
+    @Override
+    public void success(ConsumerRecord<Object, Object> record, Consumer<Object, Object> consumer) {
+        long now = System.currentTimeMillis();
+        int count = countCdrs(record);
+        int latency = (int) Math.max(0, Math.min(MAX_MILLIS, now - record.timestamp()));
+        histogram.addAndGet(latency, count);
+        done(count, now);
+    }
+
+    /**
+     * Counts the CDRs of a batch the listener failed on as processed, so the run still ends.
+     *
+     * @param record    The record of the batch.
+     * @param exception The failure.
+     * @param consumer  The consumer.
+     */
+    @Override
+    public void failure(ConsumerRecord<Object, Object> record, Exception exception, Consumer<Object, Object> consumer) {
+        int count = countCdrs(record);
+        failed.add(count);
+        done(count, System.currentTimeMillis());
+    }
+
+    /**
+     * Adds CDRs to the processed ones.
+     *
+     * @param count The number of CDRs.
+     * @param now   The time they were processed, in epoch milliseconds.
+     */
+    private void done(int count, long now) {
+        processed.add(count);
+        lastProcessedAt.accumulateAndGet(now, Math::max);
+    }
+
+    /**
+     * Counts the CDRs of a batch from its header. The harness sends binary batches only;
+     * any other message counts as one CDR.
+     *
+     * @param record The record of the batch.
+     * @return The number of CDRs.
+     */
+    private static int countCdrs(ConsumerRecord<Object, Object> record) {
+        if (record.value() instanceof byte[] message) {
+            ByteBuffer buffer = ByteBuffer.wrap(message);
+            if (BinaryCDRFormat.isBinary(buffer)) {
+                return new BinaryCDRReader(buffer).getRecordCount();
+            }
+        }
+        return 1;
+    }
+
+    /**
+     * Forgets everything recorded so far.
+     */
+    void reset() {
+        for (int i = 0; i <= MAX_MILLIS; i++) {
+            histogram.set(i, 0);
+        }
+        processed.reset();
+        failed.reset();
+        lastProcessedAt.set(0);
+    }
+
+    /**
+     * Returns the number of CDRs processed since the last reset.
+     *
+     * @return The number of CDRs.
+     */
+    long getProcessed() {
+        return processed.sum();
+    }
+
+    /**
+     * Returns the number of CDRs of the batches the listener failed on.
+     *
+     * @return The number of CDRs.
+     */
+    long getFailed() {
+        return failed.sum();
+    }
+
+    /**
+     * Returns the time the last CDR was processed.
+     *
+     * @return The time in epoch milliseconds, 0 if none was.
+     */
+    long getLastProcessedAt() {
+        return lastProcessedAt.get();
+    }
+
+    /**
+     * Returns a percentile of the latencies of the successfully processed CDRs.
+     *
+     * @param percentile The percentile, from 0 to 100.
+     * @return The latency in milliseconds, {@value #MAX_MILLIS} standing for that much or more.
+     */
+    long percentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i <= MAX_MILLIS; i++) {
+            total += histogram.get(i);
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i <= MAX_MILLIS; i++) {
+            seen += histogram.get(i);
+            if (seen >= rank) {
+                return i;
+            }
+        }
+        return 0;
+    }
+}
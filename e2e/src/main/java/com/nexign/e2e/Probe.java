@@ -0,0 +1,47 @@
+package com.nexign.e2e;
+
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.kafka.config.AbstractKafkaListenerContainerFactory;
+
+import javax.sql.DataSource;
+
+/**
+ * Post-processor attaching the measurements to the beans of a service, without changing its configuration:
+ * the data source is wrapped by the round-trip counter and, when given a latency recorder, the Kafka listener
+ * containers are created with it as their record interceptor.
+ */
+final class Probe implements BeanPostProcessor {
+
+    private final RoundTripCounter roundTrips;
+    private final LatencyRecorder latencies;
+
+    /**
+     * Creates the post-processor.
+     *
+     * @param roundTrips The counter of the database round-trips of the service.
+     * @param latencies  The recorder of the CDR latencies, {@code null} for a service not consuming CDRs.
+     */
+    Probe(RoundTripCounter roundTrips, LatencyRecorder latencies) {
+        this.roundTrips = roundTrips;
+        this.latencies = latencies;
+    }
+
+    /**
+     * Wraps the data source and sets the record interceptor of the listener container factory.
+     *
+     * @param bean     The initialized bean.
+     * @param beanName The name of the bean.
+     * @return The bean, or the counting data source wrapping it.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (bean instanceof DataSource dataSource) {
+            return roundTrips.wrap(dataSource);
+        }
+        if (latencies != null && bean instanceof AbstractKafkaListenerContainerFactory<?, ?, ?> factory) {
+            ((AbstractKafkaListenerContainerFactory<?, Object, Object>) factory).setRecordInterceptor(latencies);
+        }
+        return bean;
+    }
+}
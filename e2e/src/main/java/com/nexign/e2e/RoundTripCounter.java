@@ -0,0 +1,123 @@
+package com.nexign.e2e;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter of the database round-trips of a service.
+ * <p>
+ * The data source of the service is wrapped so that every executed statement or batch and every commit
+ * or rollback of a connection counts as one round-trip, whether it comes from Hibernate or a JdbcTemplate.
+ */
+final class RoundTripCounter {
+
+    private static final Set<String> EXECUTE = Set.of("execute", "executeQuery", "executeUpdate",
+            "executeLargeUpdate", "executeBatch", "executeLargeBatch");
+    private static final Set<String> END_TRANSACTION = Set.of("commit", "rollback");
+    private static final Set<String> CREATE_STATEMENT = Set.of("createStatement", "prepareStatement", "prepareCall");
+
+    private final LongAdder roundTrips = new LongAdder();
+
+    /**
+     * Returns the number of round-trips since the last reset.
+     *
+     * @return The number of round-trips.
+     */
+    long get() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * Starts counting from zero.
+     */
+    void reset() {
+        roundTrips.reset();
+    }
+
+    /**
+     * Wraps a data source so that the round-trips of its connections are counted.
+     *
+     * @param dataSource The data source of the service.
+     * @return The counting data source.
+     */
+    DataSource wrap(DataSource dataSource) {
+        return proxy(DataSource.class, dataSource, (method, result) -> method.getName().equals("getConnection")
+                ? proxy(Connection.class, (Connection) result, this::onConnection)
+                : result);
+    }
+
+    /**
+     * Counts the end of a transaction and wraps the statements created by a connection.
+     *
+     * @param method The called method of the connection.
+     * @param result The result of the call.
+     * @return The result, wrapped if it is a statement.
+     */
+    private Object onConnection(Method method, Object result) {
+        if (END_TRANSACTION.contains(method.getName())) {
+            roundTrips.increment();
+        } else if (CREATE_STATEMENT.contains(method.getName())) {
+            return proxy(method.getReturnType(), result, this::onStatement);
+        }
+        return result;
+    }
+
+    /**
+     * Counts the execution of a statement.
+     *
+     * @param method The called method of the statement.
+     * @param result The result of the call.
+     * @return The result.
+     */
+    private Object onStatement(Method method, Object result) {
+        if (EXECUTE.contains(method.getName())) {
+            roundTrips.increment();
+        }
+        return result;
+    }
+
+    /**
+     * Creates a proxy delegating every call to the target and passing the result through a callback.
+     * {@code equals} compares the proxies themselves.
+     *
+     * @param type   The interface of the target.
+     * @param target The wrapped object.
+     * @param after  The callback receiving the called method and its result.
+     * @param <T>    The interface of the target.
+     * @return The proxy.
+     */
+    private static <T> T proxy(Class<T> type, Object target, Callback after) {
+        return type.cast(Proxy.newProxyInstance(RoundTripCounter.class.getClassLoader(), new Class<?>[] {type},
+                (proxy, method, args) -> {
+                    if (method.getName().equals("equals") && args != null && args.length == 1) {
+                        return proxy == args[0];
+                    }
+                    try {
+                        return after.apply(method, method.invoke(target, args));
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                }));
+    }
+
+    /**
+     * Callback of a proxied call.
+     */
+    @FunctionalInterface
+    private interface Callback {
+
+        /**
+         * Handles the result of a call.
+         *
+         * @param method The called method.
+         * @param result The result of the call.
+         * @return The result returned to the caller.
+         */
+        Object apply(Method method, Object result);
+    }
+}
@@ -0,0 +1,136 @@
+package com.nexign.e2e;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SplittableRandom;
+
+/**
+ * Subscribers of a run and the {@code import.sql} scripts seeding the databases of the services with them.
+ * <p>
+ * The clients of the operator alternate between the classic and the monthly tariff of the HRS
+ * {@code import.sql}, with the balance the BRT seeds its clients with. The CDR service also knows
+ * subscribers of other operators, which call and are called but are not rated.
+ */
+final class SeedData {
+
+    static final long CLASSIC_TARIFF = 11L;
+    static final long MONTH_TARIFF = 12L;
+
+    private static final long FIRST_NUMBER = 79000000000L;
+    private static final long NUMBER_RANGE = 1_000_000_000L;
+    private static final String BALANCE = "100.";
+
+    private final long[] clients;
+    private final long[] others;
+
+    /**
+     * Draws distinct phone numbers for the subscribers.
+     *
+     * @param clientCount The number of clients of the operator.
+     * @param otherCount  The number of subscribers of other operators.
+     * @param seed        The seed of the draw.
+     */
+    SeedData(int clientCount, int otherCount, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Set<Long> seen = new HashSet<>();
+        clients = draw(clientCount, random, seen);
+        others = draw(otherCount, random, seen);
+    }
+
+    /**
+     * Draws phone numbers not drawn before.
+     *
+     * @param count  The number of phone numbers.
+     * @param random The random generator.
+     * @param seen   The phone numbers drawn so far, updated.
+     * @return The phone numbers.
+     */
+    private static long[] draw(int count, SplittableRandom random, Set<Long> seen) {
+        long[] numbers = new long[count];
+        int filled = 0;
+        while (filled < count) {
+            long number = FIRST_NUMBER + random.nextLong(NUMBER_RANGE);
+            if (seen.add(number)) {
+                numbers[filled++] = number;
+            }
+        }
+        return numbers;
+    }
+
+    /**
+     * Returns the tariff of a client.
+     *
+     * @param index The index of the client.
+     * @return The tariff ID.
+     */
+    static long tariffOf(int index) {
+        return index % 2 == 0 ? CLASSIC_TARIFF : MONTH_TARIFF;
+    }
+
+    /**
+     * Returns the number of clients of the operator.
+     *
+     * @return The number of clients.
+     */
+    int clientCount() {
+        return clients.length;
+    }
+
+    /**
+     * Writes the subscribers of the CDR service, the clients and the subscribers of other operators.
+     *
+     * @param path The script to write.
+     * @return The script.
+     * @throws IOException if the script cannot be written
+     */
+    Path writeSubscribers(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (long number : clients) {
+                writer.write("insert into subscriber (phone_number, is_romashka) values (" + number + ", true);\n");
+            }
+            for (long number : others) {
+                writer.write("insert into subscriber (phone_number, is_romashka) values (" + number + ", false);\n");
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Writes the clients of the BRT.
+     *
+     * @param path The script to write.
+     * @return The script.
+     * @throws IOException if the script cannot be written
+     */
+    Path writeClients(Path path) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < clients.length; i++) {
+                writer.write("insert into client (msisdn, tariff_id, balance) values ("
+                        + clients[i] + ", " + tariffOf(i) + ", " + BALANCE + ");\n");
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Copies the tariffs of the HRS {@code import.sql} as they are.
+     *
+     * @param path The script to write.
+     * @return The script.
+     * @throws IOException if the HRS script cannot be read or the copy cannot be written
+     */
+    static Path writeTariffs(Path path) throws IOException {
+        URL script = ServiceInstance.moduleResource(com.nexign.hrs.HrsApplication.class, "import.sql");
+        try (InputStream in = script.openStream()) {
+            Files.copy(in, path);
+        }
+        return path;
+    }
+}
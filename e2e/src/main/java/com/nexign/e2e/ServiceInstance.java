@@ -0,0 +1,152 @@
+package com.nexign.e2e;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.context.ServletWebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * One of the services running inside the harness, with its own Spring context and its own H2 database.
+ * <p>
+ * The three services share the classpath, where each of them has an {@code application.properties}
+ * and an {@code import.sql}. So the service is started with its own {@code application.properties},
+ * read from its module, as the default properties, and with a configuration name no file has, so none
+ * of the others is picked up; the overrides point it at the embedded broker, at an in-memory database
+ * seeded from a script of the run and at the gateway stub, and switch Eureka off.
+ */
+final class ServiceInstance implements AutoCloseable {
+
+    private final String name;
+    private final ConfigurableApplicationContext context;
+    private final RoundTripCounter roundTrips = new RoundTripCounter();
+
+    /**
+     * Starts a service.
+     *
+     * @param name        The name of the service, also the name of its database.
+     * @param application The application class of the service.
+     * @param brokers     The bootstrap servers of the embedded broker.
+     * @param seed        The script seeding the database.
+     * @param overrides   The properties of the run for this service.
+     * @param latencies   The recorder of the CDR latencies, {@code null} for a service not consuming CDRs.
+     * @throws IOException if the properties of the service cannot be read
+     */
+    ServiceInstance(String name, Class<?> application, String brokers, Path seed, Map<String, Object> overrides,
+                    LatencyRecorder latencies) throws IOException {
+        this.name = name;
+
+        Properties defaults = new Properties();
+        try (InputStream in = moduleResource(application, "application.properties").openStream()) {
+            defaults.load(in);
+        }
+        Map<String, Object> properties = new HashMap<>();
+        defaults.forEach((key, value) -> properties.put((String) key, value));
+
+        properties.put("spring.config.name", "e2e-" + name);
+        properties.put("spring.main.banner-mode", "off");
+        properties.put("server.port", "0");
+        properties.put("eureka.client.enabled", "false");
+        properties.put("spring.cloud.discovery.enabled", "false");
+        properties.put("spring.cloud.service-registry.auto-registration.enabled", "false");
+        properties.put("spring.kafka.bootstrap-servers", brokers);
+        properties.put("spring.datasource.url", "jdbc:h2:mem:" + name + ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+        properties.put("spring.datasource.driver-class-name", "org.h2.Driver");
+        properties.put("spring.datasource.username", "sa");
+        properties.put("spring.datasource.password", "");
+        properties.put("spring.jpa.database-platform", "org.hibernate.dialect.H2Dialect");
+        properties.put("spring.jpa.show-sql", "false");
+        properties.put("spring.jpa.properties.hibernate.hbm2ddl.import_files", seed.toUri().toString());
+        properties.put("spring.jpa.properties.hibernate.hbm2ddl.charset_name", "UTF-8");
+        properties.put("spring.h2.console.enabled", "false");
+        properties.put("gateway.host", "127.0.0.1");
+        properties.putAll(overrides);
+
+        context = new SpringApplicationBuilder(application)
+                .properties(properties)
+                .initializers(context -> context.getBeanFactory().addBeanPostProcessor(new Probe(roundTrips, latencies)))
+                .run();
+    }
+
+    /**
+     * Locates a resource of the module of a service, rather than the first one of that name on the classpath.
+     *
+     * @param application The application class of the service.
+     * @param name        The name of the resource.
+     * @return The resource.
+     * @throws IOException if the location of the module is not a directory or a jar
+     */
+    static URL moduleResource(Class<?> application, String name) throws IOException {
+        URL location = application.getProtectionDomain().getCodeSource().getLocation();
+        String base = location.toString();
+        if (base.endsWith("/")) {
+            return new URL(location, name);
+        }
+        if (base.endsWith(".jar")) {
+            return new URL("jar:" + base + "!/" + name);
+        }
+        throw new IOException("Unsupported location of " + application.getSimpleName() + ": " + base);
+    }
+
+    /**
+     * Returns the name of the service.
+     *
+     * @return The name.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the local HTTP port of the service.
+     *
+     * @return The port.
+     */
+    int getPort() {
+        return ((ServletWebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    /**
+     * Returns a bean of the service.
+     *
+     * @param type The type of the bean.
+     * @param <T>  The type of the bean.
+     * @return The bean.
+     */
+    <T> T getBean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    /**
+     * Returns a property of the service.
+     *
+     * @param key The name of the property.
+     * @return The value, {@code null} if not set.
+     */
+    String getProperty(String key) {
+        return context.getEnvironment().getProperty(key);
+    }
+
+    /**
+     * Returns the counter of the database round-trips of the service.
+     *
+     * @return The counter.
+     */
+    RoundTripCounter getRoundTrips() {
+        return roundTrips;
+    }
+
+    /**
+     * Stops the service.
+     */
+    @Override
+    public void close() {
+        context.close();
+    }
+}
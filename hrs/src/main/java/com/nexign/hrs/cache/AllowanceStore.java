@@ -0,0 +1,286 @@
+package com.nexign.hrs.cache;
+
+import com.nexign.hrs.journal.AllowanceJournal;
+import com.nexign.hrs.model.AllowanceUsage;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Component holding the remaining package minutes of every subscriber.
+ * <p>
+ * Each subscriber has its own atomic counter and minutes are taken with a compare-and-set,
+ * so calls of the same subscriber can be rated in parallel without a lock and without
+ * spending the same minutes twice.
+ * <p>
+ * Every change of a counter is written to the {@link AllowanceJournal} together with a version
+ * increasing with each change, and the counters are periodically written to a snapshot.
+ * On startup the counters are restored from the snapshot and the journal.
+ * <p>
+ * The version of a removed counter is kept as a tombstone, in memory and in the snapshots, and a counter
+ * added again for the same subscriber continues from it, so the removal never wins over a later change.
+ * A tombstone is needed only while a record of the removed counter may still be read on recovery: once
+ * a snapshot has persisted it and every segment up to the removal is deleted, the next snapshot leaves it
+ * out and it is dropped from memory when that snapshot is written.
+ */
+@Slf4j
+@Component
+public class AllowanceStore {
+
+    @Resource
+    private AllowanceJournal allowanceJournal;
+
+    private static final long SEALED = -1L;
+    private static final long REMOVED = 0L;
+
+    private final Map<Long, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<Long, Tombstone> removedVersions = new ConcurrentHashMap<>();
+
+    /**
+     * Restores the counters from the latest snapshot and the journal.
+     *
+     * @throws IOException if the journal cannot be read
+     */
+    @PostConstruct
+    public void restore () throws IOException {
+        Map<Long, long[]> latest = new HashMap<>();
+        allowanceJournal.recover((msisdn, tariffId, version, remaining) -> {
+            long[] record = latest.get(msisdn);
+            if (record == null || version > record[1]) {
+                latest.put(msisdn, new long[] {tariffId, version, remaining});
+            }
+        });
+
+        // The segments of the restored removals are unknown: they are treated as written to the last segment.
+        long segmentId = allowanceJournal.roll() - 1;
+        latest.forEach((msisdn, record) -> {
+            if (record[0] != REMOVED) {
+                counters.put(msisdn, new Counter(record[0], (int) record[1], (int) record[2]));
+            } else {
+                removedVersions.put(msisdn, new Tombstone((int) record[1], segmentId));
+            }
+        });
+        log.info("Restored package minutes of {} subscribers", counters.size());
+    }
+
+    /**
+     * Writes the counters and the tombstones still needed to a new snapshot and drops the journal segments
+     * it covers, unless nothing has changed since the latest snapshot.
+     */
+    @Scheduled(fixedDelayString = "${hrs.allowance.checkpoint-interval-ms:10000}")
+    public void checkpoint () {
+        long previous = allowanceJournal.getSnapshotId();
+        long segmentId = allowanceJournal.roll();
+        if (segmentId == previous) {
+            return;
+        }
+        try {
+            allowanceJournal.writeSnapshot(segmentId, consumer -> {
+                counters.keySet().forEach(msisdn -> {
+                    while (true) {
+                        Counter counter = counters.get(msisdn);
+                        if (counter == null) {
+                            return;
+                        }
+                        long state = counter.state.get();
+                        if (state != SEALED) {
+                            consumer.accept(msisdn, counter.tariffId, versionOf(state), remainingOf(state));
+                            return;
+                        }
+                        Thread.onSpinWait();
+                    }
+                });
+                removedVersions.forEach((msisdn, tombstone) -> {
+                    if (tombstone.segmentId >= previous) {
+                        consumer.accept(msisdn, REMOVED, tombstone.version, 0);
+                    }
+                });
+            });
+        } catch (IOException | RuntimeException e) {
+            log.error("Failure during allowance checkpoint {}", e.getMessage());
+            return;
+        }
+        // Left out of the snapshot just written, whose segments follow the removals: no record of the removed
+        // counters remains on disk.
+        removedVersions.values().removeIf(tombstone -> tombstone.segmentId < previous);
+    }
+
+    /**
+     * Writes a final snapshot on shutdown.
+     */
+    @PreDestroy
+    public void stop () {
+        checkpoint();
+    }
+
+    /**
+     * Sets the package minutes of a subscriber for a tariff. The minutes are kept while the subscriber
+     * stays on the same tariff and set to the given value when the tariff changes. A subscriber added
+     * again after a removal continues from the version of the removal.
+     *
+     * @param msisdn   Phone number of the subscriber
+     * @param tariffId Tariff of the subscriber
+     * @param minutes  Package minutes of the tariff
+     */
+    public void assign (Long msisdn, Long tariffId, int minutes) {
+        counters.compute(msisdn, (key, counter) -> {
+            if (counter != null && counter.tariffId == tariffId) {
+                return counter;
+            }
+            int version;
+            if (counter != null) {
+                version = seal(counter) + 1;
+            } else {
+                Tombstone removed = removedVersions.remove(msisdn);
+                version = removed != null ? removed.version + 1 : 1;
+            }
+            allowanceJournal.append(msisdn, tariffId, version, minutes);
+            return new Counter(tariffId, version, minutes);
+        });
+    }
+
+    /**
+     * Retrieves the remaining minutes of a subscriber.
+     *
+     * @param msisdn Phone number of the subscriber
+     * @return Remaining package minutes, 0 for an unknown subscriber
+     */
+    public int getRemaining (Long msisdn) {
+        while (true) {
+            Counter counter = counters.get(msisdn);
+            if (counter == null) {
+                return 0;
+            }
+            long state = counter.state.get();
+            if (state != SEALED) {
+                return remainingOf(state);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /**
+     * Takes up to the given number of minutes from the package of a subscriber.
+     *
+     * @param msisdn  Phone number of the subscriber
+     * @param minutes Duration of the call in minutes
+     * @return The minutes covered by the package and the minutes exceeding it
+     */
+    public AllowanceUsage consume (Long msisdn, int minutes) {
+        while (true) {
+            Counter counter = counters.get(msisdn);
+            if (counter == null) {
+                return new AllowanceUsage(0, minutes);
+            }
+
+            long state = counter.state.get();
+            if (state == SEALED) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            int remaining = remainingOf(state);
+            int covered = Math.max(0, Math.min(remaining, minutes));
+            if (covered == 0) {
+                return new AllowanceUsage(0, minutes);
+            }
+
+            int version = versionOf(state) + 1;
+            if (counter.state.compareAndSet(state, stateOf(version, remaining - covered))) {
+                allowanceJournal.append(msisdn, counter.tariffId, version, remaining - covered);
+                return new AllowanceUsage(covered, minutes - covered);
+            }
+        }
+    }
+
+    /**
+     * Removes the counter of a subscriber, keeping the version of the removal as a tombstone.
+     *
+     * @param msisdn Phone number of the subscriber
+     */
+    public void remove (Long msisdn) {
+        counters.computeIfPresent(msisdn, (key, counter) -> {
+            int version = seal(counter) + 1;
+            long segmentId = allowanceJournal.append(msisdn, REMOVED, version, 0);
+            removedVersions.put(msisdn, new Tombstone(version, segmentId));
+            return null;
+        });
+    }
+
+    /**
+     * Seals a counter being replaced, so no more minutes are taken from it.
+     *
+     * @param counter the counter to seal
+     * @return the last version of the counter
+     */
+    private int seal (Counter counter) {
+        return versionOf(counter.state.getAndSet(SEALED));
+    }
+
+    /**
+     * Packs the version and the remaining minutes of a counter into one long.
+     *
+     * @param version   the version of the counter
+     * @param remaining the remaining minutes
+     * @return the packed state
+     */
+    private static long stateOf (int version, int remaining) {
+        return ((long) version << 32) | (remaining & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Extracts the version from a packed state.
+     *
+     * @param state the packed state
+     * @return the version of the counter
+     */
+    private static int versionOf (long state) {
+        return (int) (state >>> 32);
+    }
+
+    /**
+     * Extracts the remaining minutes from a packed state.
+     *
+     * @param state the packed state
+     * @return the remaining minutes
+     */
+    private static int remainingOf (long state) {
+        return (int) state;
+    }
+
+    /**
+     * The last version of a removed counter and the journal segment its removal was written to.
+     */
+    private static final class Tombstone {
+        private final int version;
+        private final long segmentId;
+
+        private Tombstone (int version, long segmentId) {
+            this.version = version;
+            this.segmentId = segmentId;
+        }
+    }
+
+    /**
+     * Package minutes of a subscriber on one tariff. The version and the remaining minutes
+     * are packed into one long, so both change with a single compare-and-set.
+     */
+    private static final class Counter {
+        private final long tariffId;
+        private final AtomicLong state;
+
+        private Counter (long tariffId, int version, int remaining) {
+            this.tariffId = tariffId;
+            this.state = new AtomicLong(stateOf(version, remaining));
+        }
+    }
+}
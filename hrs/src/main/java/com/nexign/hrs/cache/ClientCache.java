@@ -6,30 +6,46 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
 import com.nexign.hrs.dto.ClientDTO;
-import com.nexign.hrs.model.Tariff;
-import com.nexign.hrs.repository.TariffRepository;
+import com.nexign.hrs.model.TariffRates;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import jakarta.annotation.Resource;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.stereotype.Component;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * Component responsible for caching and managing client data.
+ * The cache is a local replica of the client changelog published by BRT, so entries are neither
+ * expired nor evicted.
+ * <p>
+ * A secondary index keeps the phone numbers of the clients of every tariff, sorted, together with their
+ * count. It is updated inside the atomic compute of the cache entry on every put, change and removal,
+ * so it always matches the cache.
+ * <p>
+ * The hits and misses of the cache are published as the {@code cache.*} meters of {@code ClientCache}.
  */
 @Component
-public class ClientCache {
+public class ClientCache implements MeterBinder {
 
     @Resource
-    private TariffRepository tariffRepository;
+    private TariffCache tariffCache;
+
+    @Resource
+    private AllowanceStore allowanceStore;
 
     private final Cache<Long, ClientDTO> cache = Caffeine.newBuilder()
-            .expireAfterWrite(1, TimeUnit.DAYS)
-            .maximumSize(1000)
+            .recordStats()
             .build();
 
+    private final Map<Long, TariffMembers> membersByTariff = new ConcurrentHashMap<>();
+
     private final Gson gson;
 
     /**
@@ -42,7 +58,17 @@ public class ClientCache {
     }
 
     /**
-     * Parses a JSON string into a ClientDTO object, enriches it with tariff details, and caches it.
+     * Binds the statistics of the cache to the meter registry.
+     *
+     * @param registry Meter registry
+     */
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        CaffeineCacheMetrics.monitor(registry, cache, "ClientCache");
+    }
+
+    /**
+     * Parses a JSON string into a ClientDTO object, assigns the package minutes of its tariff, and caches it.
      *
      * @param json JSON string representing a ClientDTO object
      * @return Parsed and cached ClientDTO object
@@ -50,13 +76,16 @@ public class ClientCache {
     public ClientDTO parseAndCacheJson (String json) {
         ClientDTO clientDTO = gson.fromJson(json, new TypeToken<ClientDTO>() {}.getType());
 
-        tariffRepository.findById(clientDTO.getTariffId()).ifPresent(t -> clientDTO.setRemainingMinutes(t.getMonthlyLimitMinutes()));
+        TariffRates tariff = tariffCache.getSnapshot().get(clientDTO.getTariffId());
+        if (tariff != null) {
+            allowanceStore.assign(clientDTO.getMsisdn(), clientDTO.getTariffId(), tariff.getMonthlyLimitMinutes());
+        }
         putDataIntoCache(clientDTO.getMsisdn(), clientDTO);
         return clientDTO;
     }
 
     /**
-     * Parses a JSON array string into a list of ClientDTO objects, enriches them with tariff details,
+     * Parses a JSON array string into a list of ClientDTO objects, assigns the package minutes of their tariffs,
      * and caches each of them individually.
      *
      * @param jsonArrayString JSON array string representing a list of ClientDTO objects
@@ -64,32 +93,105 @@ public class ClientCache {
     public void parseAndCacheJsonArray (String jsonArrayString) {
         List<ClientDTO> clientDTOList = gson.fromJson(jsonArrayString, new TypeToken<List<ClientDTO>>() {}.getType());
 
-        Map<Long, Integer> mapOfIdToRemainingMinutes = tariffRepository.findAll().stream()
-                .collect(Collectors.toMap(Tariff::getId, Tariff::getMonthlyLimitMinutes));
+        TariffSnapshot snapshot = tariffCache.getSnapshot();
 
         for (ClientDTO clientDTO : clientDTOList) {
-            clientDTO.setRemainingMinutes(mapOfIdToRemainingMinutes.get(clientDTO.getTariffId()));
+            TariffRates tariff = snapshot.get(clientDTO.getTariffId());
+            allowanceStore.assign(clientDTO.getMsisdn(), clientDTO.getTariffId(), tariff != null ? tariff.getMonthlyLimitMinutes() : 0);
             putDataIntoCache(clientDTO.getMsisdn(), clientDTO);
         }
     }
 
+    /**
+     * Applies a client change from the client changelog. Remaining minutes are kept while the tariff
+     * stays the same and reset to the monthly limit of the new tariff when it changes.
+     *
+     * @param json JSON string representing the current state of the client
+     */
+    public void applyClientChange (String json) {
+        ClientDTO clientDTO = gson.fromJson(json, new TypeToken<ClientDTO>() {}.getType());
+        applyClientChange(clientDTO.getMsisdn(), clientDTO.getTariffId());
+    }
+
+    /**
+     * Sets the tariff of a client. Remaining minutes are kept while the tariff stays the same
+     * and reset to the monthly limit of the new tariff when it changes.
+     *
+     * @param msisdn   Phone number of the client
+     * @param tariffId Current tariff ID of the client
+     * @return The cached ClientDTO object
+     */
+    public ClientDTO applyClientChange (Long msisdn, Long tariffId) {
+        return applyClientChange(msisdn, tariffId, tariffCache.getSnapshot());
+    }
+
+    /**
+     * Sets the tariff of a client, taking the monthly limit from the given tariff snapshot.
+     *
+     * @param msisdn   Phone number of the client
+     * @param tariffId Current tariff ID of the client
+     * @param snapshot Tariff snapshot used by the caller
+     * @return The cached ClientDTO object
+     */
+    public ClientDTO applyClientChange (Long msisdn, Long tariffId, TariffSnapshot snapshot) {
+        return cache.asMap().compute(msisdn, (key, cached) -> {
+            if (cached != null && cached.getTariffId().equals(tariffId)) {
+                return cached;
+            }
+            TariffRates tariff = snapshot.get(tariffId);
+            allowanceStore.assign(msisdn, tariffId, tariff != null ? tariff.getMonthlyLimitMinutes() : 0);
+            ClientDTO clientDTO = ClientDTO.builder()
+                    .msisdn(msisdn)
+                    .tariffId(tariffId)
+                    .build();
+            reindex(msisdn, cached, clientDTO);
+            return clientDTO;
+        });
+    }
+
     /**
      * Retrieves all cached ClientDTO objects matching the given tariff ID.
+     * Only the clients of the tariff are visited, using the tariff index.
      *
      * @param tariffId Tariff ID to filter ClientDTOs by
      * @return List of ClientDTO objects matching the tariff ID
      */
     public List<ClientDTO> getAllByTariffId (Long tariffId) {
-        List<ClientDTO> matchedClients = new ArrayList<>();
+        List<ClientDTO> matchedClients = new ArrayList<>(countByTariffId(tariffId));
+        forEachByTariffId(tariffId, matchedClients::add);
+        return matchedClients;
+    }
+
+    /**
+     * Passes the cached clients of a tariff to the action in ascending order of their phone numbers,
+     * without collecting them. Clients changing concurrently may or may not be visited.
+     *
+     * @param tariffId Tariff ID to visit the clients of
+     * @param action   Action called for every client of the tariff
+     */
+    public void forEachByTariffId (Long tariffId, Consumer<ClientDTO> action) {
+        TariffMembers members = membersByTariff.get(tariffId);
+        if (members == null) {
+            return;
+        }
 
-        Map<Long, ClientDTO> cacheMap = cache.asMap();
-        for (ClientDTO clientDTO : cacheMap.values()) {
-            if (clientDTO.getTariffId().equals(tariffId)) {
-                matchedClients.add(clientDTO);
+        for (Long msisdn : members.msisdns) {
+            ClientDTO clientDTO = cache.getIfPresent(msisdn);
+            if (clientDTO != null && clientDTO.getTariffId().equals(tariffId)) {
+                action.accept(clientDTO);
             }
         }
+    }
 
-        return matchedClients;
+    /**
+     * Counts the cached clients of a tariff.
+     *
+     * @param tariffId Tariff ID to count the clients of
+     * @return Number of cached clients of the tariff
+     */
+    public int countByTariffId (Long tariffId) {
+        TariffMembers members = membersByTariff.get(tariffId);
+        return members != null ? members.size.get() : 0;
     }
 
     /**
@@ -110,15 +212,65 @@ public class ClientCache {
      * @param data        ClientDTO object to cache
      */
     public void putDataIntoCache(Long phoneNumber, ClientDTO data) {
-        cache.put(phoneNumber, data);
+        cache.asMap().compute(phoneNumber, (key, cached) -> {
+            reindex(phoneNumber, cached, data);
+            return data;
+        });
     }
 
     /**
-     * Removes a ClientDTO object from the cache based on the phone number (key).
+     * Removes a ClientDTO object and its package minutes from the cache based on the phone number (key).
      *
      * @param phoneNumber Phone number used as the cache key
      */
     public void removeFromCache(Long phoneNumber) {
-        cache.invalidate(phoneNumber);
+        cache.asMap().computeIfPresent(phoneNumber, (key, cached) -> {
+            reindex(phoneNumber, cached, null);
+            return null;
+        });
+        allowanceStore.remove(phoneNumber);
+    }
+
+    /**
+     * Moves a client between the tariff index entries of its old and new state.
+     * Must be called inside the compute of the cache entry of the client.
+     *
+     * @param phoneNumber Phone number of the client
+     * @param previous    Previously cached ClientDTO object, or null
+     * @param current     Newly cached ClientDTO object, or null if the client is removed
+     */
+    private void reindex (Long phoneNumber, ClientDTO previous, ClientDTO current) {
+        Long previousTariff = previous != null ? previous.getTariffId() : null;
+        Long currentTariff = current != null ? current.getTariffId() : null;
+        if (Objects.equals(previousTariff, currentTariff)) {
+            return;
+        }
+
+        if (previousTariff != null) {
+            membersByTariff.computeIfPresent(previousTariff, (tariffId, members) -> {
+                if (members.msisdns.remove(phoneNumber)) {
+                    members.size.decrementAndGet();
+                }
+                return members.size.get() == 0 ? null : members;
+            });
+        }
+        if (currentTariff != null) {
+            membersByTariff.compute(currentTariff, (tariffId, members) -> {
+                TariffMembers updated = members != null ? members : new TariffMembers();
+                if (updated.msisdns.add(phoneNumber)) {
+                    updated.size.incrementAndGet();
+                }
+                return updated;
+            });
+        }
+    }
+
+    /**
+     * Phone numbers of the clients of one tariff in ascending order and their count,
+     * kept separately because the size of a skip list set is not constant-time.
+     */
+    private static final class TariffMembers {
+        private final NavigableSet<Long> msisdns = new ConcurrentSkipListSet<>();
+        private final AtomicInteger size = new AtomicInteger();
     }
 }
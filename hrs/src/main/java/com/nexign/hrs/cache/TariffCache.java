@@ -0,0 +1,73 @@
+package com.nexign.hrs.cache;
+
+import com.nexign.hrs.repository.TariffRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Component holding the current tariff snapshot. The snapshot is loaded at startup and replaced
+ * as a whole when the tariffs change, so rating never reads tariffs from the database.
+ * <p>
+ * Versions start from the time of the load in milliseconds and always increase, so a version is never
+ * issued again after a restart, and the cache remembers every version it loaded. The version a call
+ * was charged with is therefore either known to this instance or recognisably not, and a re-rating
+ * reports the versions it does not know.
+ */
+@Slf4j
+@Component
+public class TariffCache {
+
+    @Resource
+    private TariffRepository tariffRepository;
+
+    private final AtomicReference<TariffSnapshot> snapshot = new AtomicReference<>();
+    private final Set<Long> loadedVersions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Loads the first tariff snapshot.
+     */
+    @PostConstruct
+    public void load () {
+        refresh();
+    }
+
+    /**
+     * Reloads all tariffs from the database and atomically swaps in a new snapshot.
+     * Ratings already holding the previous snapshot finish with it.
+     *
+     * @return The version of the new snapshot.
+     */
+    public synchronized long refresh () {
+        TariffSnapshot current = snapshot.get();
+        long version = Math.max(System.currentTimeMillis(), current != null ? current.getVersion() + 1 : 0);
+        snapshot.set(new TariffSnapshot(version, tariffRepository.findAll()));
+        loadedVersions.add(version);
+        log.info("Loaded tariff snapshot version {}", version);
+        return version;
+    }
+
+    /**
+     * Retrieves the current tariff snapshot.
+     *
+     * @return The current snapshot.
+     */
+    public TariffSnapshot getSnapshot () {
+        return snapshot.get();
+    }
+
+    /**
+     * Checks whether a snapshot version was loaded by this instance.
+     *
+     * @param version The version to check.
+     * @return True if the version was loaded since the start of this instance.
+     */
+    public boolean isLoadedVersion (long version) {
+        return loadedVersions.contains(version);
+    }
+}
@@ -0,0 +1,54 @@
+package com.nexign.hrs.cache;
+
+import com.nexign.hrs.model.Tariff;
+import com.nexign.hrs.model.TariffRates;
+import lombok.Getter;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable, versioned set of all tariffs. A snapshot is never modified after it is built,
+ * so a rating that holds on to one sees the same tariff version from start to end.
+ */
+public final class TariffSnapshot {
+
+    @Getter
+    private final long version;
+    private final Map<Long, TariffRates> tariffs;
+
+    /**
+     * Builds a snapshot from the tariff entities.
+     *
+     * @param version The version of the snapshot.
+     * @param tariffs The tariff entities.
+     */
+    public TariffSnapshot (long version, List<Tariff> tariffs) {
+        this.version = version;
+        this.tariffs = tariffs.stream()
+                .map(TariffRates::from)
+                .collect(Collectors.toUnmodifiableMap(TariffRates::getId, Function.identity()));
+    }
+
+    /**
+     * Retrieves the rates of a tariff.
+     *
+     * @param tariffId The ID of the tariff.
+     * @return The tariff rates, or null if the tariff does not exist.
+     */
+    public TariffRates get (Long tariffId) {
+        return tariffId != null ? tariffs.get(tariffId) : null;
+    }
+
+    /**
+     * Retrieves the rates of all tariffs.
+     *
+     * @return The tariff rates.
+     */
+    public Collection<TariffRates> getAll () {
+        return tariffs.values();
+    }
+}
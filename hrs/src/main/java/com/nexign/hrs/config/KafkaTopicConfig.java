@@ -0,0 +1,33 @@
+package com.nexign.hrs.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+/**
+ * Configuration class declaring the Kafka topics consumed by HRS.
+ */
+@Configuration
+public class KafkaTopicConfig {
+
+    @Value("${client.changelog.partitions:3}")
+    private Integer PARTITIONS;
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+
+    /**
+     * Declares the compacted client changelog topic, so it exists before the listener is assigned
+     * its partitions even if HRS starts before BRT.
+     *
+     * @return The client changelog topic definition.
+     */
+    @Bean
+    public NewTopic clientChangelogTopic () {
+        return TopicBuilder.name(CLIENT_CHANGELOG_TOPIC)
+                .partitions(PARTITIONS)
+                .replicas(1)
+                .compact()
+                .build();
+    }
+}
@@ -2,14 +2,22 @@ package com.nexign.hrs.controller;
 
 import com.google.gson.reflect.TypeToken;
 import com.nexign.hrs.dto.BillDTO;
+import com.nexign.hrs.model.MonthCloseManifest;
 import com.nexign.hrs.model.Tariff;
 import com.nexign.hrs.service.HRSService;
+import com.nexign.hrs.service.RerateConflictException;
+import com.nexign.hrs.service.RerateService;
 import com.nexign.hrs.dto.CallDTO;
 import com.nexign.hrs.service.TariffService;
 import jakarta.annotation.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
 
 /**
  * Controller class responsible for handling HTTP requests related to HRS operations.
@@ -25,6 +33,9 @@ public class HRSController {
     @Resource
     private TariffService tariffService;
 
+    @Resource
+    private RerateService rerateService;
+
     /**
      * Initiates the monthly payment process for a specified range of months.
      *
@@ -39,6 +50,34 @@ public class HRSController {
         return ResponseEntity.status(HttpStatus.OK).body(json);
     }
 
+    /**
+     * Streams the monthly payments for a specified range of months as newline-delimited JSON.
+     * Months may be counted continuously across years, as BRT does, so a range over the turn of a year
+     * still spans a new month. Every bill carries the number of its chunk, which stays the same when the
+     * month close of the period is resumed.
+     *
+     * @param startMonth Start month for monthly payment
+     * @param endMonth   End month for monthly payment
+     * @param period     Key of the month close
+     * @param resume     Whether chunks of the period have already been applied
+     * @return ResponseEntity streaming one JSON bill per line, or 409 if the period to resume is not known
+     * @throws IOException if the bills of the period cannot be persisted or read back
+     */
+    @GetMapping(value = "/monthly-payment-stream", produces = "application/x-ndjson")
+    public ResponseEntity<StreamingResponseBody> monthlyPaymentStream (@RequestParam(name = "start-month") String startMonth,
+                                                                       @RequestParam(name = "end-month") String endMonth,
+                                                                       @RequestParam(name = "period") String period,
+                                                                       @RequestParam(name = "resume", defaultValue = "false") boolean resume)
+            throws IOException {
+        MonthCloseManifest manifest = hrsService.getMonthCloseManifest(
+                Integer.parseInt(startMonth), Integer.parseInt(endMonth), period, resume);
+        if (manifest == null) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        StreamingResponseBody body = out -> hrsService.writeMonthlyBills(manifest, out);
+        return ResponseEntity.status(HttpStatus.OK).body(body);
+    }
+
     /**
      * Calculates payment for a call based on the provided call parameters.
      *
@@ -54,6 +93,20 @@ public class HRSController {
         return ResponseEntity.status(HttpStatus.OK).body(json);
     }
 
+    /**
+     * Calculates payments for a batch of calls sent in the request body.
+     *
+     * @param body JSON array of call parameters
+     * @return ResponseEntity containing JSON array with billing details in the order of the calls
+     */
+    @PostMapping("/payment-batch")
+    public ResponseEntity<String> paymentBatch (@RequestBody String body) {
+        List<CallDTO> calls = hrsService.fromJson(body, new TypeToken<>() {});
+        List<BillDTO> bills = hrsService.callCalculation(calls);
+        String json = hrsService.listToJson(bills);
+        return ResponseEntity.status(HttpStatus.OK).body(json);
+    }
+
     /**
      * Retrieves tariff information for the specified tariff ID.
      *
@@ -71,6 +124,39 @@ public class HRSController {
         return ResponseEntity.status(HttpStatus.OK).body(json);
     }
 
+    /**
+     * Reloads the tariffs used for rating after they were changed in the database.
+     *
+     * @return ResponseEntity containing the version of the new tariff snapshot
+     */
+    @PostMapping("/refresh-tariffs")
+    public ResponseEntity<String> refreshTariffs () {
+        long version = tariffService.refreshTariffs();
+        return ResponseEntity.status(HttpStatus.OK).body("Tariffs reloaded, version " + version);
+    }
+
+    /**
+     * Re-rates historical calls sent as binary CDR batches and compares them with the charges recorded by BRT.
+     *
+     * @param from Start of the range of the calls in unix time, inclusive, at the start of a UTC month
+     * @param to   End of the range of the calls in unix time, exclusive
+     * @param body Binary CDR batches of the range in ascending order of start time
+     * @return ResponseEntity containing JSON report with the delta ledger, 400 if the range starts mid-month,
+     *         or 409 if the charges cannot be read from BRT
+     * @throws IOException if the body is not a stream of CDR batches
+     */
+    @PostMapping(value = "/rerate", consumes = "application/octet-stream")
+    public ResponseEntity<String> rerate (@RequestParam long from, @RequestParam long to, InputStream body) throws IOException {
+        try {
+            String json = rerateService.rerate(body, from, to).toJson();
+            return ResponseEntity.status(HttpStatus.OK).body(json);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
+        } catch (RerateConflictException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+        }
+    }
+
     /**
      * Updates the client cache based on the provided client parameters.
      *
@@ -15,6 +15,10 @@ public class BillDTO {
 
     private Long phoneNumber;
     private BigDecimal toPay;
+    private Integer chunkId;
+    private Long startTime;
+    private Long tariffId;
+    private Long tariffVersion;
 
     public String toJson () {
         Gson gson = new GsonBuilder()
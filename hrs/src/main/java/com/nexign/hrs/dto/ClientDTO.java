@@ -11,6 +11,5 @@ public class ClientDTO {
 
     private Long msisdn;
     private Long tariffId;
-    private Integer remainingMinutes;
 
 }
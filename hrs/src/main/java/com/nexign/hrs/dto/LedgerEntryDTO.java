@@ -0,0 +1,19 @@
+package com.nexign.hrs.dto;
+
+import lombok.*;
+
+import java.math.BigDecimal;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LedgerEntryDTO {
+
+    private Long phoneNumber;
+    private Long calls;
+    private BigDecimal charged;
+    private BigDecimal rerated;
+    private BigDecimal delta;
+}
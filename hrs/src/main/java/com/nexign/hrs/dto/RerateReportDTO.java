@@ -0,0 +1,35 @@
+package com.nexign.hrs.dto;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import lombok.*;
+
+import java.math.BigDecimal;
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RerateReportDTO {
+
+    private Long records;
+    private Long skipped;
+    private Long unmatchedCharges;
+    private Long subscribers;
+    private List<Long> chargedTariffVersions;
+    private List<Long> unknownTariffVersions;
+    private Long reratedTariffVersion;
+    private Long elapsedMillis;
+    private BigDecimal totalDelta;
+    private List<LedgerEntryDTO> ledger;
+
+    public String toJson () {
+        Gson gson = new GsonBuilder()
+                .setPrettyPrinting()
+                .create();
+
+        return gson.toJson(this);
+    }
+}
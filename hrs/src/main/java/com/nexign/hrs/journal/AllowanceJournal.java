@@ -0,0 +1,361 @@
+package com.nexign.hrs.journal;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Durable log of package minute counters on local disk.
+ * <p>
+ * Every change of a counter is appended as a fixed-size record to a memory-mapped segment file.
+ * Writers reserve their slot with an atomic add, so appends from concurrent ratings need no lock;
+ * the record reaches the page cache as soon as it is written and survives a crash of the process.
+ * A segment is forced to disk when it is rolled, when full or at every snapshot, so a crash of the
+ * machine loses at most the changes of the current segment.
+ * A snapshot of all counters is written periodically to a new file named after the first segment
+ * that is not covered by it, after which the older segments and snapshots are deleted.
+ * <p>
+ * A segment is rolled for a snapshot only if it holds records, and each new segment is sized to twice
+ * the records of the one it replaces, between a minimum and {@code hrs.allowance.segment-bytes}, so segments
+ * follow the changes written per checkpoint interval instead of mapping the maximum size every time.
+ * A replaced segment stays mapped until it is garbage collected: it is not unmapped explicitly, because
+ * a writer that read it before the roll may still be filling its slot.
+ * <p>
+ * Records are {@code msisdn (8), tariffId (8), version (4), remaining (4)}. The MSISDN is written last,
+ * so a slot with a zero MSISDN was never completed and is skipped on recovery. Each change carries
+ * the next version of the counter, recovery keeps the record with the highest version per MSISDN,
+ * so the order in which concurrent writers filled their slots does not matter.
+ */
+@Slf4j
+@Component
+public class AllowanceJournal {
+
+    @Value("${hrs.allowance.dir:allowance_journal}")
+    private String JOURNAL_DIR;
+    @Value("${hrs.allowance.segment-bytes:67108864}")
+    private Integer SEGMENT_BYTES;
+    private static final String SEGMENT_PREFIX = "allowance-";
+    private static final String SNAPSHOT_PREFIX = "allowance-snapshot-";
+    private static final String SUFFIX = ".bin";
+    private static final int RECORD_BYTES = 24;
+    private static final int SNAPSHOT_BUFFER_BYTES = RECORD_BYTES * 4096;
+    private static final int MIN_SEGMENT_BYTES = RECORD_BYTES * 16384;
+
+    private volatile Segment current;
+    private volatile long snapshotId;
+
+    /**
+     * Receives the counters read from the snapshot and the segments.
+     */
+    @FunctionalInterface
+    public interface RecordConsumer {
+
+        /**
+         * Accepts one record.
+         *
+         * @param msisdn    the MSISDN of the subscriber
+         * @param tariffId  the tariff the minutes belong to
+         * @param version   the version of the counter
+         * @param remaining the remaining minutes
+         */
+        void accept (long msisdn, long tariffId, int version, int remaining);
+    }
+
+    /**
+     * Reads the latest snapshot and the segments written after it, then opens a new segment for appending.
+     *
+     * @param consumer the consumer of the recovered records, in the order they were found
+     * @throws IOException if the journal cannot be read
+     */
+    public synchronized void recover (RecordConsumer consumer) throws IOException {
+        Path dir = Paths.get(JOURNAL_DIR);
+        Files.createDirectories(dir);
+
+        long snapshotId = 0;
+        Path snapshot = null;
+        for (Path path : list(SNAPSHOT_PREFIX)) {
+            snapshotId = idOf(path, SNAPSHOT_PREFIX);
+            snapshot = path;
+        }
+
+        long records = 0;
+        if (snapshot != null) {
+            records += readRecords(ByteBuffer.wrap(Files.readAllBytes(snapshot)), consumer);
+        }
+
+        long maxSegment = snapshotId;
+        for (Path segment : list(SEGMENT_PREFIX)) {
+            long id = idOf(segment, SEGMENT_PREFIX);
+            maxSegment = Math.max(maxSegment, id);
+            if (id >= snapshotId) {
+                try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    records += readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), consumer);
+                }
+            }
+        }
+
+        log.info("Recovered {} allowance records from snapshot {} and segments up to {}", records, snapshotId, maxSegment);
+        this.snapshotId = snapshotId;
+        current = openSegment(maxSegment + 1, minSegmentBytes());
+    }
+
+    /**
+     * Appends a counter change to the current segment, rolling to a new segment when it is full.
+     *
+     * @param msisdn    the MSISDN of the subscriber
+     * @param tariffId  the tariff the minutes belong to
+     * @param version   the new version of the counter
+     * @param remaining the remaining minutes
+     * @return the id of the segment the change was written to
+     */
+    public long append (long msisdn, long tariffId, int version, int remaining) {
+        while (true) {
+            Segment segment = current;
+            int position = segment.position.getAndAdd(RECORD_BYTES);
+            if (position + RECORD_BYTES <= segment.capacity) {
+                segment.buffer.putLong(position + 8, tariffId);
+                segment.buffer.putInt(position + 16, version);
+                segment.buffer.putInt(position + 20, remaining);
+                segment.buffer.putLong(position, msisdn);
+                return segment.id;
+            }
+            roll(segment);
+        }
+    }
+
+    /**
+     * Starts a new segment unless the current one is still empty. Changes appended after this call
+     * are not covered by a snapshot started after it.
+     *
+     * @return the id of the segment receiving the changes from now on
+     */
+    public synchronized long roll () {
+        Segment segment = current;
+        return segment.position.get() == 0 ? segment.id : roll(segment);
+    }
+
+    /**
+     * Returns the id of the latest snapshot: every segment before it has been deleted.
+     *
+     * @return the id of the first segment not covered by the latest snapshot, 0 if there is none
+     */
+    public long getSnapshotId () {
+        return snapshotId;
+    }
+
+    /**
+     * Writes a snapshot covering all segments before the given one and deletes those segments.
+     * The caller must have started the segment with {@link #roll()} before reading the counters,
+     * so every change missing from the counters is found in that segment or later ones.
+     *
+     * @param segmentId the id of the first segment not covered by the snapshot
+     * @param counters  the writer of the counters, called with the consumer receiving them
+     * @throws IOException if the snapshot cannot be written
+     */
+    public void writeSnapshot (long segmentId, Consumer<RecordConsumer> counters) throws IOException {
+        Path dir = Paths.get(JOURNAL_DIR);
+        Path tmp = dir.resolve(SNAPSHOT_PREFIX + "tmp");
+        ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_BUFFER_BYTES);
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            counters.accept((msisdn, tariffId, version, remaining) -> {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.putLong(msisdn).putLong(tariffId).putInt(version).putInt(remaining);
+            });
+            flush(channel, buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, dir.resolve(name(SNAPSHOT_PREFIX, segmentId)),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        snapshotId = segmentId;
+        deleteBefore(SNAPSHOT_PREFIX, segmentId);
+        deleteBefore(SEGMENT_PREFIX, segmentId);
+    }
+
+    /**
+     * Replaces the given segment with a new one unless another writer has already done it,
+     * and forces the replaced segment to disk. The new segment gets twice the bytes written to the replaced one.
+     *
+     * @param full the segment found full or rolled for a snapshot
+     * @return the id of the current segment
+     */
+    private synchronized long roll (Segment full) {
+        if (current == full) {
+            long used = Math.min(full.position.get(), full.capacity);
+            int bytes = (int) Math.max(minSegmentBytes(), Math.min(SEGMENT_BYTES, 2 * used));
+            try {
+                current = openSegment(full.id + 1, bytes);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            full.buffer.force();
+        }
+        return current.id;
+    }
+
+    /**
+     * Reads the completed records of a buffer.
+     *
+     * @param buffer   the snapshot or segment content
+     * @param consumer the consumer of the records
+     * @return the number of records read
+     */
+    private long readRecords (ByteBuffer buffer, RecordConsumer consumer) {
+        long records = 0;
+        while (buffer.remaining() >= RECORD_BYTES) {
+            long msisdn = buffer.getLong();
+            long tariffId = buffer.getLong();
+            int version = buffer.getInt();
+            int remaining = buffer.getInt();
+            if (msisdn != 0) {
+                consumer.accept(msisdn, tariffId, version, remaining);
+                records++;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Writes the buffered bytes to the channel and clears the buffer.
+     *
+     * @param channel the channel to write to
+     * @param buffer  the buffer to write
+     */
+    private void flush (FileChannel channel, ByteBuffer buffer) {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Returns the size of the smallest segment, never above the configured segment size.
+     *
+     * @return the minimum segment size in bytes
+     */
+    private int minSegmentBytes () {
+        return Math.min(MIN_SEGMENT_BYTES, SEGMENT_BYTES);
+    }
+
+    /**
+     * Creates and maps a new segment file.
+     *
+     * @param id    the id of the segment
+     * @param bytes the size of the segment, rounded down to whole records
+     * @return the mapped segment
+     * @throws IOException if the file cannot be created
+     */
+    private Segment openSegment (long id, int bytes) throws IOException {
+        Path path = Paths.get(JOURNAL_DIR, name(SEGMENT_PREFIX, id));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            int capacity = bytes - bytes % RECORD_BYTES;
+            return new Segment(id, channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity), capacity);
+        }
+    }
+
+    /**
+     * Lists the files with the given prefix ordered by their id.
+     *
+     * @param prefix the file name prefix
+     * @return the files
+     * @throws IOException if the journal directory cannot be read
+     */
+    private List<Path> list (String prefix) throws IOException {
+        try (Stream<Path> files = Files.list(Paths.get(JOURNAL_DIR))) {
+            return files.filter(path -> isFile(path, prefix))
+                    .sorted(Comparator.comparingLong(path -> idOf(path, prefix)))
+                    .toList();
+        }
+    }
+
+    /**
+     * Deletes the files with the given prefix and an id lower than the given one.
+     *
+     * @param prefix the file name prefix
+     * @param id     the id of the first file to keep
+     */
+    private void deleteBefore (String prefix, long id) {
+        try {
+            for (Path path : list(prefix)) {
+                if (idOf(path, prefix) < id) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        } catch (IOException e) {
+            log.error("Fail to delete allowance journal files {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Checks whether a file is a segment or a snapshot of the given prefix.
+     *
+     * @param path   the file
+     * @param prefix the file name prefix
+     * @return true if the name is the prefix followed by a numeric id
+     */
+    private boolean isFile (Path path, String prefix) {
+        String name = path.getFileName().toString();
+        return name.startsWith(prefix) && name.endsWith(SUFFIX)
+                && name.substring(prefix.length(), name.length() - SUFFIX.length()).chars().allMatch(Character::isDigit);
+    }
+
+    /**
+     * Extracts the id of a segment or a snapshot from its file name.
+     *
+     * @param path   the file
+     * @param prefix the file name prefix
+     * @return the id
+     */
+    private long idOf (Path path, String prefix) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(prefix.length(), name.length() - SUFFIX.length()));
+    }
+
+    /**
+     * Builds the file name of a segment or a snapshot.
+     *
+     * @param prefix the file name prefix
+     * @param id     the id
+     * @return the file name
+     */
+    private String name (String prefix, long id) {
+        return String.format("%s%020d%s", prefix, id, SUFFIX);
+    }
+
+    /**
+     * A memory-mapped segment and the position of its next free slot.
+     */
+    private static final class Segment {
+        private final long id;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final AtomicInteger position = new AtomicInteger();
+
+        private Segment (long id, MappedByteBuffer buffer, int capacity) {
+            this.id = id;
+            this.buffer = buffer;
+            this.capacity = capacity;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.nexign.hrs.journal;
+
+import com.nexign.hrs.model.MonthCloseManifest;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Durable store of the bills of the latest month closes on local disk.
+ * <p>
+ * A month close is resumed with the same chunks as its first run, so the manifest of a period is written
+ * to its own file before its bills are streamed, and written again when a resume appends new chunks.
+ * After a restart of the HRS the manifest is read back from the file, with the same chunk numbers.
+ * The latest manifests are also kept in memory; only the files of the latest {@code 12} periods are kept.
+ * <p>
+ * A file holds the bills in chunk order as {@code chunkId (4), msisdn (8), toPay (modified UTF-8)} records.
+ * It is written to a temporary file, forced to disk and moved in place, so a crash leaves either
+ * the previous or the new manifest.
+ */
+@Slf4j
+@Component
+public class MonthCloseManifestStore {
+
+    @Value("${hrs.month-close.dir:month_close}")
+    private String MANIFEST_DIR;
+    private static final String PREFIX = "manifest-";
+    private static final String SUFFIX = ".bin";
+    private static final String TMP = "manifest.tmp";
+    private static final int MAX_MANIFESTS = 12;
+
+    private final Map<String, MonthCloseManifest> manifests = Collections.synchronizedMap(
+            new LinkedHashMap<>() {
+                @Override
+                protected boolean removeEldestEntry (Map.Entry<String, MonthCloseManifest> eldest) {
+                    return size() > MAX_MANIFESTS;
+                }
+            });
+
+    /**
+     * Finds the manifest of a period in memory or, after a restart, in its file.
+     *
+     * @param period    the key of the month close
+     * @param chunkSize the maximum number of bills of a chunk of a manifest read from its file
+     * @return the manifest, or null if the period is not known
+     * @throws IOException if the file of the manifest cannot be read
+     */
+    public MonthCloseManifest find (String period, int chunkSize) throws IOException {
+        MonthCloseManifest manifest = manifests.get(period);
+        if (manifest != null) {
+            return manifest;
+        }
+
+        Path path = pathOf(period);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        manifest = read(path, chunkSize);
+        log.info("Loaded month close manifest of period {} with {} bills", period, manifest.size());
+        manifests.put(period, manifest);
+        return manifest;
+    }
+
+    /**
+     * Writes the manifest of a period to its file and keeps it in memory. Drops the files of older periods
+     * beyond the latest ones.
+     *
+     * @param period   the key of the month close
+     * @param manifest the sealed manifest
+     * @throws IOException if the manifest cannot be written
+     */
+    public void save (String period, MonthCloseManifest manifest) throws IOException {
+        Path dir = Paths.get(MANIFEST_DIR);
+        Files.createDirectories(dir);
+        Path tmp = dir.resolve(TMP);
+
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            try {
+                manifest.forEach((chunkId, msisdn, toPay) -> {
+                    try {
+                        out.writeInt(chunkId);
+                        out.writeLong(msisdn);
+                        out.writeUTF(toPay.toPlainString());
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, pathOf(period), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        manifests.put(period, manifest);
+        deleteOldest();
+    }
+
+    /**
+     * Reads a manifest from its file, restoring its chunks: a bill with a new chunk number starts a new chunk.
+     *
+     * @param path      the file of the manifest
+     * @param chunkSize the maximum number of bills of a chunk
+     * @return the sealed manifest
+     * @throws IOException if the file cannot be read
+     */
+    private MonthCloseManifest read (Path path, int chunkSize) throws IOException {
+        MonthCloseManifest manifest = new MonthCloseManifest(chunkSize);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int chunkId = 0;
+            while (true) {
+                int next;
+                try {
+                    next = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (next != chunkId) {
+                    manifest.seal();
+                    chunkId = next;
+                }
+                manifest.add(in.readLong(), new BigDecimal(in.readUTF()));
+            }
+        }
+        manifest.seal();
+        return manifest;
+    }
+
+    /**
+     * Deletes the manifest files beyond the latest ones.
+     */
+    private void deleteOldest () {
+        try (Stream<Path> files = Files.list(Paths.get(MANIFEST_DIR))) {
+            List<Path> manifestFiles = files
+                    .filter(path -> path.getFileName().toString().startsWith(PREFIX))
+                    .sorted(Comparator.comparing(this::lastModified).reversed())
+                    .toList();
+            for (Path path : manifestFiles.subList(Math.min(MAX_MANIFESTS, manifestFiles.size()), manifestFiles.size())) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.error("Fail to delete old month close manifests {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Reads the modification time of a file.
+     *
+     * @param path the file
+     * @return the modification time in milliseconds
+     */
+    private long lastModified (Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Builds the file of the manifest of a period.
+     *
+     * @param period the key of the month close
+     * @return the file of the manifest
+     */
+    private Path pathOf (String period) {
+        return Paths.get(MANIFEST_DIR, PREFIX + URLEncoder.encode(period, StandardCharsets.UTF_8) + SUFFIX);
+    }
+}
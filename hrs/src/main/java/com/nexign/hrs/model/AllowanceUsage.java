@@ -0,0 +1,14 @@
+package com.nexign.hrs.model;
+
+import lombok.Value;
+
+/**
+ * Result of consuming package minutes: the minutes covered by the package and the minutes
+ * left to be billed by the tariff rates.
+ */
+@Value
+public class AllowanceUsage {
+
+    int covered;
+    int overflow;
+}
@@ -0,0 +1,97 @@
+package com.nexign.hrs.model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Fixed-point amount of money stored as a count of the smallest currency unit (1/100).
+ * <p>
+ * Amounts are converted from {@link BigDecimal} exactly: a value with more than {@link #SCALE} decimal
+ * places is rejected rather than rounded. Arithmetic is exact as well and fails on overflow, the only
+ * rounding is the explicit {@link #ceilToStep(Money)}. Conversion back to {@link BigDecimal} yields the
+ * same unscaled value and scale as the equivalent {@link BigDecimal} computation.
+ */
+public final class Money {
+
+    /**
+     * Number of decimal places of the smallest currency unit.
+     */
+    public static final int SCALE = 2;
+
+    private final long units;
+
+    private Money (long units) {
+        this.units = units;
+    }
+
+    /**
+     * Converts an amount to fixed-point money.
+     *
+     * @param amount the amount, or null
+     * @return the money, or null if the amount is null
+     * @throws ArithmeticException if the amount has more than {@link #SCALE} decimal places or does not fit in a long
+     */
+    public static Money of (BigDecimal amount) {
+        if (amount == null) {
+            return null;
+        }
+        return new Money(amount.setScale(SCALE, RoundingMode.UNNECESSARY).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Multiplies the amount by a whole number.
+     *
+     * @param factor the factor
+     * @return the product
+     * @throws ArithmeticException if the product overflows
+     */
+    public Money multiply (long factor) {
+        return new Money(Math.multiplyExact(units, factor));
+    }
+
+    /**
+     * Rounds the amount up (towards positive infinity) to a multiple of the step.
+     *
+     * @param step the positive rounding step
+     * @return the rounded amount
+     */
+    public Money ceilToStep (Money step) {
+        long steps = -Math.floorDiv(-units, step.units);
+        return new Money(Math.multiplyExact(steps, step.units));
+    }
+
+    /**
+     * Converts the amount to a {@link BigDecimal} with the given scale.
+     *
+     * @param scale the scale of the result, not greater than {@link #SCALE} unless the amount is exact at it
+     * @return the amount as a BigDecimal
+     * @throws ArithmeticException if the amount is not exact at the given scale
+     */
+    public BigDecimal toBigDecimal (int scale) {
+        return BigDecimal.valueOf(units, SCALE).setScale(scale, RoundingMode.UNNECESSARY);
+    }
+
+    /**
+     * Retrieves the amount as a count of the smallest currency unit.
+     *
+     * @return the number of units
+     */
+    public long getUnits () {
+        return units;
+    }
+
+    @Override
+    public boolean equals (Object o) {
+        return o instanceof Money money && money.units == units;
+    }
+
+    @Override
+    public int hashCode () {
+        return Long.hashCode(units);
+    }
+
+    @Override
+    public String toString () {
+        return BigDecimal.valueOf(units, SCALE).toPlainString();
+    }
+}
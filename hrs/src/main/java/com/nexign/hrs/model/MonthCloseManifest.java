@@ -0,0 +1,113 @@
+package com.nexign.hrs.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The monthly bills of one month close, cut into numbered chunks.
+ * <p>
+ * The bills are fixed when the month close starts, so every chunk keeps its number and its bills when the
+ * stream is requested again to resume the month close. Clients added later are appended in new chunks,
+ * never into a chunk that may already be applied. Bills are kept as primitive arrays per chunk.
+ */
+public class MonthCloseManifest {
+
+    private final int chunkSize;
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Set<Long> msisdns = new HashSet<>();
+    private Chunk open;
+
+    /**
+     * Creates an empty manifest.
+     *
+     * @param chunkSize the maximum number of bills of a chunk
+     */
+    public MonthCloseManifest (int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Receives the bills of the manifest.
+     */
+    @FunctionalInterface
+    public interface BillConsumer {
+
+        /**
+         * Accepts one bill.
+         *
+         * @param chunkId the number of the chunk of the bill
+         * @param msisdn  the phone number of the client
+         * @param toPay   the amount to pay
+         */
+        void accept (int chunkId, long msisdn, BigDecimal toPay);
+    }
+
+    /**
+     * Adds the bill of a client unless the manifest already has one for the client.
+     * The bill goes into the open chunk, a new chunk is opened when there is none or it is full.
+     *
+     * @param msisdn the phone number of the client
+     * @param toPay  the amount to pay
+     * @return true if the bill was added
+     */
+    public synchronized boolean add (long msisdn, BigDecimal toPay) {
+        if (!msisdns.add(msisdn)) {
+            return false;
+        }
+        if (open == null || open.size == chunkSize) {
+            open = new Chunk(chunkSize);
+            chunks.add(open);
+        }
+        open.msisdns[open.size] = msisdn;
+        open.amounts[open.size] = toPay;
+        open.size++;
+        return true;
+    }
+
+    /**
+     * Closes the open chunk, so bills added later start a new chunk.
+     */
+    public synchronized void seal () {
+        open = null;
+    }
+
+    /**
+     * Passes the bills to the consumer, chunk by chunk, in the order they were added.
+     *
+     * @param consumer the consumer of the bills
+     */
+    public synchronized void forEach (BillConsumer consumer) {
+        for (int chunkId = 0; chunkId < chunks.size(); chunkId++) {
+            Chunk chunk = chunks.get(chunkId);
+            for (int i = 0; i < chunk.size; i++) {
+                consumer.accept(chunkId, chunk.msisdns[i], chunk.amounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Counts the bills of the manifest.
+     *
+     * @return the number of bills
+     */
+    public synchronized int size () {
+        return msisdns.size();
+    }
+
+    /**
+     * The bills of one chunk.
+     */
+    private static final class Chunk {
+        private final long[] msisdns;
+        private final BigDecimal[] amounts;
+        private int size;
+
+        private Chunk (int capacity) {
+            this.msisdns = new long[capacity];
+            this.amounts = new BigDecimal[capacity];
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.nexign.hrs.model;
+
+import lombok.Value;
+
+import java.math.BigDecimal;
+
+/**
+ * Immutable copy of the rating parameters of a tariff, detached from the persistence context.
+ * Prices per minute are also kept pre-scaled as {@link Money} for the rating path.
+ */
+@Value
+public class TariffRates {
+
+    Long id;
+    String nameTariff;
+    BigDecimal costPerMinuteInNet;
+    BigDecimal costPerMinuteOutNet;
+    BigDecimal costPerMinuteInOther;
+    BigDecimal costPerMinuteOutOther;
+    Integer monthlyLimitMinutes;
+    BigDecimal monthlyRate;
+    Money inNetPerMinute;
+    Money outNetPerMinute;
+    Money inOtherPerMinute;
+    Money outOtherPerMinute;
+
+    /**
+     * Copies the rating parameters of a tariff entity.
+     *
+     * @param tariff The tariff entity.
+     * @return The immutable tariff rates.
+     */
+    public static TariffRates from (Tariff tariff) {
+        return new TariffRates(
+                tariff.getId(),
+                tariff.getNameTariff(),
+                tariff.getCostPerMinuteInNet(),
+                tariff.getCostPerMinuteOutNet(),
+                tariff.getCostPerMinuteInOther(),
+                tariff.getCostPerMinuteOutOther(),
+                tariff.getMonthlyLimitMinutes(),
+                tariff.getMonthlyRate(),
+                Money.of(tariff.getCostPerMinuteInNet()),
+                Money.of(tariff.getCostPerMinuteOutNet()),
+                Money.of(tariff.getCostPerMinuteInOther()),
+                Money.of(tariff.getCostPerMinuteOutOther()));
+    }
+}
@@ -3,26 +3,35 @@ package com.nexign.hrs.service;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import com.nexign.common.http.ServiceHttpClient;
+import com.nexign.hrs.cache.AllowanceStore;
 import com.nexign.hrs.cache.ClientCache;
+import com.nexign.hrs.cache.TariffCache;
+import com.nexign.hrs.cache.TariffSnapshot;
 import com.nexign.hrs.dto.BillDTO;
 import com.nexign.hrs.dto.CallDTO;
 import com.nexign.hrs.dto.ClientDTO;
+import com.nexign.hrs.journal.MonthCloseManifestStore;
 import com.nexign.hrs.model.*;
-import com.nexign.hrs.repository.TariffRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.Resource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
-import java.net.URI;
 import java.net.URLDecoder;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.nio.charset.StandardCharsets;
-import java.time.Duration;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -30,6 +39,10 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * Service class providing business logic for handling HTTP requests and calculations related to HRS services.
+ * <p>
+ * The rating time of every call is recorded by the {@code hrs.rating} timer, and the calls of tariffs with
+ * package minutes are counted by {@code hrs.allowance.calls} by how the package covered them: fully (hit),
+ * in part (partial) or not at all because it was spent (miss).
  */
 @Slf4j
 @Service
@@ -39,7 +52,19 @@ public class HRSService {
     private ClientCache clientCache;
 
     @Resource
-    private TariffRepository tariffRepository;
+    private TariffCache tariffCache;
+
+    @Resource
+    private AllowanceStore allowanceStore;
+
+    @Resource
+    private ServiceHttpClient serviceHttpClient;
+
+    @Resource
+    private MonthCloseManifestStore monthCloseManifestStore;
+
+    @Resource
+    private MeterRegistry meterRegistry;
 
     @Value("${gateway.host}")
     private String HOST;
@@ -49,7 +74,46 @@ public class HRSService {
     private static final String CHECK_MSISDN = "/check-msisdn";
     private static final Long CLASSIC_TARIFF = 11L;
     private static final Long MONTH_TARIFF = 12L;
-    private static final String MINIMAL_STEP = "0.1";
+    private static final Money MINIMAL_STEP = Money.of(new BigDecimal("0.1"));
+    private static final int BILL_SCALE = 1;
+
+    @Value("${hrs.month-close.flush-every:1000}")
+    private Integer FLUSH_EVERY;
+    @Value("${hrs.month-close.chunk-size:1000}")
+    private Integer MONTH_CLOSE_CHUNK_SIZE;
+
+    private final Gson compactGson = new Gson();
+
+    private Timer ratingTimer;
+    private Counter allowanceHits;
+    private Counter allowancePartialHits;
+    private Counter allowanceMisses;
+
+    /**
+     * Registers the rating timer and the package minutes counters.
+     */
+    @PostConstruct
+    public void initMetrics () {
+        ratingTimer = Timer.builder("hrs.rating")
+                .description("Time to rate one call")
+                .register(meterRegistry);
+        allowanceHits = allowanceCounter("hit");
+        allowancePartialHits = allowanceCounter("partial");
+        allowanceMisses = allowanceCounter("miss");
+    }
+
+    /**
+     * Registers the counter of the calls covered by package minutes in the given way.
+     *
+     * @param result How the package covered the calls.
+     * @return The counter.
+     */
+    private Counter allowanceCounter (String result) {
+        return Counter.builder("hrs.allowance.calls")
+                .description("Calls of tariffs with package minutes by how the package covered them")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
 
     /**
      * Converts a list of objects to JSON format.
@@ -108,7 +172,7 @@ public class HRSService {
      * @return True if the client's tariff is classic or remaining minutes are zero; false otherwise.
      */
     private boolean checkTariff (ClientDTO cachedClient) {
-        return cachedClient.getTariffId().equals(CLASSIC_TARIFF) || cachedClient.getRemainingMinutes() == 0;
+        return cachedClient.getTariffId().equals(CLASSIC_TARIFF) || allowanceStore.getRemaining(cachedClient.getMsisdn()) == 0;
     }
 
     /**
@@ -118,9 +182,10 @@ public class HRSService {
      * @return JSON representation of the bill details.
      */
     public String clientForMonthBill (List<ClientDTO> clients) {
-        List<BillDTO> bills = new ArrayList<>();
+        List<BillDTO> bills = new ArrayList<>(clients.size());
+        TariffSnapshot snapshot = tariffCache.getSnapshot();
         for (ClientDTO clientDTO : clients) {
-            Tariff tariff = tariffRepository.findById(clientDTO.getTariffId()).orElse(null);
+            TariffRates tariff = snapshot.get(clientDTO.getTariffId());
             if (tariff != null) {
                 BillDTO bill = BillDTO.builder()
                         .phoneNumber(clientDTO.getMsisdn())
@@ -152,38 +217,117 @@ public class HRSService {
     }
 
     /**
-     * Rounds the given amount to the nearest minimal step.
+     * Returns the monthly bills of a month close, numbered by chunks. The bills are fixed by the first
+     * request of the period and persisted before they are streamed; a request resuming the period, also after
+     * a restart, gets the same chunks and the bills of the clients added to the monthly tariff since then
+     * in new chunks. As with {@link #checkNewMonth(int, int)}, bills are produced once if the range spans
+     * a new month.
+     *
+     * @param startMonth Start month of the billing period.
+     * @param endMonth   End month of the billing period.
+     * @param period     Key of the month close, chosen by the caller.
+     * @param resume     Whether the caller has already applied chunks of the period.
+     * @return The bills of the month close, or null when resuming a period that is not known anymore.
+     * @throws IOException if the bills of the period cannot be persisted or read back
+     */
+    public MonthCloseManifest getMonthCloseManifest (int startMonth, int endMonth, String period, boolean resume)
+            throws IOException {
+        if (endMonth <= startMonth) {
+            return new MonthCloseManifest(MONTH_CLOSE_CHUNK_SIZE);
+        }
+
+        MonthCloseManifest manifest;
+        if (resume) {
+            manifest = monthCloseManifestStore.find(period, MONTH_CLOSE_CHUNK_SIZE);
+            if (manifest == null) {
+                return null;
+            }
+        } else {
+            manifest = new MonthCloseManifest(MONTH_CLOSE_CHUNK_SIZE);
+        }
+        int known = manifest.size();
+
+        TariffSnapshot snapshot = tariffCache.getSnapshot();
+        clientCache.forEachByTariffId(MONTH_TARIFF, clientDTO -> {
+            TariffRates tariff = snapshot.get(clientDTO.getTariffId());
+            if (tariff != null) {
+                manifest.add(clientDTO.getMsisdn(), tariff.getMonthlyRate());
+            }
+        });
+        manifest.seal();
+
+        if (!resume || manifest.size() > known) {
+            monthCloseManifestStore.save(period, manifest);
+        }
+        return manifest;
+    }
+
+    /**
+     * Streams the bills of a month close as newline-delimited JSON, one bill with its chunk number per line,
+     * chunk by chunk. Bills are flushed to the client in parts, so the response is not held in memory.
+     *
+     * @param manifest The bills of the month close.
+     * @param out      Output stream of the response.
+     * @throws IOException if the response cannot be written
+     */
+    public void writeMonthlyBills (MonthCloseManifest manifest, OutputStream out) throws IOException {
+        BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        int[] written = {0};
+        try {
+            manifest.forEach((chunkId, msisdn, toPay) -> {
+                BillDTO bill = BillDTO.builder()
+                        .phoneNumber(msisdn)
+                        .toPay(toPay)
+                        .chunkId(chunkId)
+                        .build();
+                try {
+                    writer.write(compactGson.toJson(bill));
+                    writer.write('\n');
+                    if (++written[0] % FLUSH_EVERY == 0) {
+                        writer.flush();
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writer.flush();
+    }
+
+    /**
+     * Rounds the given amount up to the minimal step and converts it to the scale of the step,
+     * so the result equals the former {@code divide(step, 0, CEILING).multiply(step)} exactly.
      *
      * @param toPay Amount to be rounded.
      * @return Rounded amount.
      */
-    private BigDecimal roundNumberBill (BigDecimal toPay) {
-        BigDecimal divisor = new BigDecimal(MINIMAL_STEP);
-        return  toPay.divide(divisor, 0, RoundingMode.CEILING).multiply(divisor);
+    private BigDecimal roundNumberBill (Money toPay) {
+        return toPay.ceilToStep(MINIMAL_STEP).toBigDecimal(BILL_SCALE);
     }
 
     /**
      * Counts the bill for a monthly duration based on client and call details.
+     * Package minutes are taken atomically, only the minutes exceeding the package are billed.
      *
      * @param durationMinutes Monthly duration in minutes.
      * @param clientDTO       Client details.
      * @param callDTO         Call details.
+     * @param tariff          Tariff of the caller, or null if it does not exist.
      * @return Calculated bill amount.
      */
-    private BigDecimal countMonthlyBill (Integer durationMinutes, ClientDTO clientDTO, CallDTO callDTO) {
-        int newRemainingMinutes = clientDTO.getRemainingMinutes();
-
-        while (durationMinutes > 0 && newRemainingMinutes > 0) {
-            newRemainingMinutes--;
-            durationMinutes--;
-        }
-
-        if (clientDTO.getRemainingMinutes() != 0) {
-            clientDTO.setRemainingMinutes(newRemainingMinutes);
-            clientCache.putDataIntoCache(clientDTO.getMsisdn(), clientDTO);
+    private BigDecimal countMonthlyBill (Integer durationMinutes, ClientDTO clientDTO, CallDTO callDTO, TariffRates tariff) {
+        AllowanceUsage usage = allowanceStore.consume(clientDTO.getMsisdn(), durationMinutes);
+        if (usage.getOverflow() == 0) {
+            allowanceHits.increment();
+        } else if (usage.getCovered() > 0) {
+            allowancePartialHits.increment();
+        } else {
+            allowanceMisses.increment();
         }
 
-        return durationMinutes > 0 ? countBill(durationMinutes, callDTO) : new BigDecimal(0);
+        return usage.getOverflow() > 0 ? countBill(usage.getOverflow(), callDTO, tariff) : new BigDecimal(0);
     }
 
     /**
@@ -191,29 +335,77 @@ public class HRSService {
      *
      * @param durationMinutes Duration of the call in minutes.
      * @param callDTO         Call details.
+     * @param tariff          Tariff of the caller, or null if it does not exist.
      * @return Calculated bill amount.
      */
-    private BigDecimal countBill (Integer durationMinutes, CallDTO callDTO) {
+    private BigDecimal countBill (Integer durationMinutes, CallDTO callDTO, TariffRates tariff) {
         ClientDTO callee = checkClientCache(callDTO.getCalleeNumber());
-        Tariff tariff = tariffRepository.findById(callDTO.getTariffId()).orElse(null);
-        BigDecimal minutes = new BigDecimal(durationMinutes);
         if (tariff != null) {
-            BigDecimal costPerMinute;
+            return roundNumberBill(costPerMinute(callDTO.getCallType(), callee != null, tariff).multiply(durationMinutes));
+        }
 
-            if (callDTO.getCallType().equals(CallType.INCOMING)) {
-                costPerMinute = (callee != null) ? tariff.getCostPerMinuteInNet() : tariff.getCostPerMinuteInOther();
-            } else {
-                costPerMinute = (callee != null) ? tariff.getCostPerMinuteOutNet() : tariff.getCostPerMinuteOutOther();
-            }
+        return BigDecimal.ZERO;
+    }
 
-            return roundNumberBill(costPerMinute.multiply(minutes));
+    /**
+     * Selects the price per minute of a call.
+     *
+     * @param callType    Type of the call.
+     * @param calleeInNet Whether the other party is a subscriber of the operator.
+     * @param tariff      Tariff of the caller.
+     * @return The price per minute.
+     */
+    private Money costPerMinute (CallType callType, boolean calleeInNet, TariffRates tariff) {
+        if (callType.equals(CallType.INCOMING)) {
+            return calleeInNet ? tariff.getInNetPerMinute() : tariff.getInOtherPerMinute();
         }
+        return calleeInNet ? tariff.getOutNetPerMinute() : tariff.getOutOtherPerMinute();
+    }
 
-        return BigDecimal.ZERO;
+    /**
+     * Rounds the duration of a call up to whole minutes, a full minute being added for exact minutes as well.
+     *
+     * @param duration Duration of the call in seconds.
+     * @return Billed minutes.
+     */
+    private int roundedMinutes (long duration) {
+        return Math.toIntExact(TimeUnit.SECONDS.toMinutes(duration - (duration % 60) + 60));
+    }
+
+    /**
+     * Rates a call for re-rating with the same rules as {@link #callCalculation(CallDTO)}, but against the given
+     * tariff and package minutes instead of the live ones, and without asking BRT about unknown callees.
+     *
+     * @param callType    Type of the call.
+     * @param calleeNumber Phone number of the other party.
+     * @param duration    Duration of the call in seconds.
+     * @param tariff      Tariff of the caller, or null if it does not exist.
+     * @param allowance   Remaining package minutes of the caller in a one-element array, taken from in place.
+     * @return The bill as a count of the smallest currency unit.
+     */
+    public long rerateCall (CallType callType, long calleeNumber, long duration, TariffRates tariff, int[] allowance) {
+        if (duration == 0 || tariff == null) {
+            return 0;
+        }
+
+        int minutes = roundedMinutes(duration);
+        if (!CLASSIC_TARIFF.equals(tariff.getId()) && allowance[0] > 0) {
+            int covered = Math.min(allowance[0], minutes);
+            allowance[0] -= covered;
+            minutes -= covered;
+            if (minutes == 0) {
+                return 0;
+            }
+        }
+
+        boolean calleeInNet = clientCache.getDataFromCache(calleeNumber) != null;
+        return costPerMinute(callType, calleeInNet, tariff).multiply(minutes).ceilToStep(MINIMAL_STEP).getUnits();
     }
 
     /**
      * Retrieves and checks a client's data from the cache or external service.
+     * The cache is fed by the client changelog, the external service is only asked
+     * for clients the changelog has not delivered yet.
      *
      * @param msisdn Client's phone number.
      * @return Client data retrieved from cache or external service.
@@ -230,18 +422,10 @@ public class HRSService {
                     CHECK_MSISDN,
                     msisdn);
 
-            HttpClient httpClient = HttpClient
-                    .newBuilder()
-                    .connectTimeout(Duration.ofSeconds(10))
-                    .build();
-
-            HttpRequest getRequestTest = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .GET()
-                    .build();
+            HttpRequest getRequestTest = serviceHttpClient.get(url);
 
-            CompletableFuture<HttpResponse<String>> future = httpClient
-                    .sendAsync(getRequestTest, HttpResponse.BodyHandlers.ofString());
+            CompletableFuture<HttpResponse<String>> future = serviceHttpClient
+                    .sendAsync(getRequestTest);
 
             HttpResponse<String> response = future.join();
 
@@ -250,46 +434,65 @@ public class HRSService {
             } else {
                 log.info("Абонента с номером {} не существует.", msisdn);
             }
+            return null;
         }
-        return null;
+        return cachedClient;
     }
 
     /**
      * Calculates the bill for a call based on call details and client data.
+     * The tariff sent by BRT with the call is authoritative, so a tariff change not yet
+     * delivered by the client changelog is applied here. The whole call is rated against
+     * one tariff snapshot, so a concurrent tariff reload does not mix two tariff versions.
      *
      * @param callDTO Call details.
-     * @return BillDTO containing the calculated bill amount.
+     * @return BillDTO containing the calculated bill amount and the version of the tariff snapshot.
      */
     public BillDTO callCalculation (CallDTO callDTO) {
+        long started = System.nanoTime();
+        TariffSnapshot snapshot = tariffCache.getSnapshot();
+        TariffRates tariff = snapshot.get(callDTO.getTariffId());
         ClientDTO cachedClient = clientCache.getDataFromCache(callDTO.getCallerNumber());
 
-        if (cachedClient == null) {
-            Tariff tariff = tariffRepository.findById(callDTO.getTariffId()).orElse(null);
-            Integer remainingMinutes = tariff != null ? tariff.getMonthlyLimitMinutes() : 0;
-            cachedClient = ClientDTO.builder()
-                    .msisdn(callDTO.getCallerNumber())
-                    .tariffId(callDTO.getTariffId())
-                    .remainingMinutes(remainingMinutes)
-                    .build();
-
-            clientCache.putDataIntoCache(cachedClient.getMsisdn(), cachedClient);
+        if (cachedClient == null || !cachedClient.getTariffId().equals(callDTO.getTariffId())) {
+            cachedClient = clientCache.applyClientChange(callDTO.getCallerNumber(), callDTO.getTariffId(), snapshot);
         }
 
         long duration = callDTO.getEndTime() - callDTO.getStartTime();
-        Integer roundedDuration = Math.toIntExact(TimeUnit.SECONDS.toMinutes(duration - (duration % 60) + 60));
+        Integer roundedDuration = roundedMinutes(duration);
 
         BigDecimal bill;
         if (duration == 0) {
             bill = BigDecimal.ZERO;
         } else if (checkTariff(cachedClient)) {
-            bill = countBill(roundedDuration, callDTO);
+            if (!cachedClient.getTariffId().equals(CLASSIC_TARIFF)) {
+                allowanceMisses.increment();
+            }
+            bill = countBill(roundedDuration, callDTO, tariff);
         } else {
-            bill = countMonthlyBill(roundedDuration, cachedClient, callDTO);
+            bill = countMonthlyBill(roundedDuration, cachedClient, callDTO, tariff);
         }
 
+        ratingTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS);
         return BillDTO.builder()
                 .phoneNumber(callDTO.getCallerNumber())
                 .toPay(bill)
+                .tariffVersion(snapshot.getVersion())
                 .build();
     }
+
+    /**
+     * Calculates bills for a batch of calls. Calls are rated in the given order,
+     * so remaining minutes of monthly tariffs are spent the same way as for single requests.
+     *
+     * @param calls List of call details.
+     * @return List of BillDTO objects in the same order as the calls.
+     */
+    public List<BillDTO> callCalculation (List<CallDTO> calls) {
+        List<BillDTO> bills = new ArrayList<>(calls.size());
+        for (CallDTO callDTO : calls) {
+            bills.add(callCalculation(callDTO));
+        }
+        return bills;
+    }
 }
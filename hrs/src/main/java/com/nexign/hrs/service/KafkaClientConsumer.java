@@ -0,0 +1,34 @@
+package com.nexign.hrs.service;
+
+import com.nexign.hrs.cache.ClientCache;
+import jakarta.annotation.Resource;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.kafka.annotation.PartitionOffset;
+import org.springframework.kafka.annotation.TopicPartition;
+import org.springframework.stereotype.Service;
+
+/**
+ * Kafka consumer materializing the client cache from the compacted client changelog topic.
+ */
+@Service
+public class KafkaClientConsumer {
+
+    @Resource
+    private ClientCache clientCache;
+
+    private static final String CLIENT_CHANGELOG_TOPIC = "client-changelog";
+    private static final String GROUP = "hrs-client-group";
+
+    /**
+     * Listens to all partitions of the client changelog. The partitions are assigned manually and read
+     * from the beginning on every start, so each HRS instance bootstraps the full client state
+     * from the compacted log and then follows the changes published by BRT.
+     *
+     * @param message the JSON representation of the client state
+     */
+    @KafkaListener(groupId = GROUP, topicPartitions = @TopicPartition(topic = CLIENT_CHANGELOG_TOPIC,
+            partitionOffsets = @PartitionOffset(partition = "*", initialOffset = "0")))
+    public void consume (String message) {
+        clientCache.applyClientChange(message);
+    }
+}
@@ -0,0 +1,29 @@
+package com.nexign.hrs.service;
+
+/**
+ * Exception thrown when calls cannot be re-rated against their charges, because the charges cannot be
+ * read from BRT or were rated with a tariff snapshot this HRS instance does not know.
+ */
+public class RerateConflictException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs the exception with the reason of the conflict.
+     *
+     * @param message the reason of the conflict
+     */
+    public RerateConflictException(String message) {
+        super(message);
+    }
+
+    /**
+     * Constructs the exception with the reason of the conflict and the failure behind it.
+     *
+     * @param message the reason of the conflict
+     * @param cause   the failure behind the conflict
+     */
+    public RerateConflictException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
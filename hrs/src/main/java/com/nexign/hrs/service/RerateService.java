@@ -0,0 +1,665 @@
+package com.nexign.hrs.service;
+
+import com.google.gson.Gson;
+import com.nexign.common.cdr.BinaryCDRFormat;
+import com.nexign.common.cdr.BinaryCDRReader;
+import com.nexign.common.cdr.MalformedCDRException;
+import com.nexign.common.http.ServiceHttpClient;
+import com.nexign.hrs.cache.TariffCache;
+import com.nexign.hrs.cache.TariffSnapshot;
+import com.nexign.hrs.dto.BillDTO;
+import com.nexign.hrs.dto.LedgerEntryDTO;
+import com.nexign.hrs.dto.RerateReportDTO;
+import com.nexign.hrs.model.CallType;
+import com.nexign.hrs.model.Money;
+import com.nexign.hrs.model.TariffRates;
+import jakarta.annotation.Resource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Service re-rating historical calls in bulk, without Kafka and without a request per call.
+ * <p>
+ * The calls are read as a stream of binary CDR batches in ascending order of start time and merged with
+ * the charges BRT recorded for the same range, streamed from BRT in the same order. The charge of a call
+ * is the baseline: its amount is what was charged, and its tariff is the one the caller was on when the
+ * call was rated. Each call is rated again with the current tariff snapshot for that tariff. Calls without
+ * a charge were not rated by BRT and are skipped; charges without a call are counted as unmatched.
+ * <p>
+ * The calls of a caller always go to the same worker, so each worker owns the package minutes of its
+ * callers and rates their calls in order without any locks. The package of a caller starts full and is
+ * filled again at the start of every UTC month and whenever the charged tariff changes, so a range must start
+ * at the start of a UTC month: the minutes used before a later start are not known. Calls are handed
+ * over in chunks of primitive arrays through bounded queues, so the reader waits when the workers fall
+ * behind. The live package minutes are not touched.
+ * <p>
+ * The tariff versions the calls were charged with are reported; the versions this instance did not load
+ * (for example, before its restart) are reported separately, since their rates can no longer be told apart.
+ */
+@Slf4j
+@Service
+public class RerateService {
+
+    @Resource
+    private HRSService hrsService;
+
+    @Resource
+    private TariffCache tariffCache;
+
+    @Resource
+    private ServiceHttpClient serviceHttpClient;
+
+    @Value("${gateway.host}")
+    private String HOST;
+    @Value("${hrs.rerate.workers:4}")
+    private Integer WORKERS;
+    @Value("${hrs.rerate.chunk-size:4096}")
+    private Integer CHUNK_SIZE;
+    @Value("${hrs.rerate.queue-capacity:8}")
+    private Integer QUEUE_CAPACITY;
+    private static final String PORT = "8765";
+    private static final String BASE = "/api";
+    private static final String MS = "/brt";
+    private static final String CALL_CHARGES = "/call-charges";
+    private static final int READ_BUFFER = 1 << 20;
+    private static final Chunk END = new Chunk(0);
+
+    private final Gson gson = new Gson();
+
+    /**
+     * Re-rates the calls of a stream of binary CDR batches and compares the result with the charges
+     * recorded by BRT for the same range.
+     *
+     * @param in   The binary CDR batches, in ascending order of start time.
+     * @param from The start of the range of the calls in unix time, inclusive, at the start of a UTC month.
+     * @param to   The end of the range of the calls in unix time, exclusive.
+     * @return The report with the ledger of the subscribers whose charges differ.
+     * @throws IOException              if the stream cannot be read or is not a stream of CDR batches
+     * @throws IllegalArgumentException if the range does not start at the start of a UTC month
+     * @throws RerateConflictException  if the charges cannot be read from BRT
+     */
+    public RerateReportDTO rerate (InputStream in, long from, long to) throws IOException {
+        if (monthStart(from) != from) {
+            throw new IllegalArgumentException(String.format(
+                    "Range must start at the start of a UTC month to know the package minutes, got %d, month starts at %d",
+                    from, monthStart(from)));
+        }
+        long began = System.nanoTime();
+        TariffSnapshot rerated = tariffCache.getSnapshot();
+
+        try (Stream<String> lines = fetchCharges(from, to)) {
+            ChargeCursor charges = new ChargeCursor(lines.iterator());
+
+            List<BlockingQueue<Chunk>> queues = new ArrayList<>(WORKERS);
+            List<Worker> workers = new ArrayList<>(WORKERS);
+            for (int i = 0; i < WORKERS; i++) {
+                BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+                queues.add(queue);
+                workers.add(new Worker(queue, rerated));
+            }
+
+            ExecutorService executor = Executors.newFixedThreadPool(WORKERS);
+            List<Future<?>> running = new ArrayList<>(WORKERS);
+            for (Worker worker : workers) {
+                running.add(executor.submit(worker));
+            }
+
+            long[] counts;
+            try {
+                counts = read(in, queues, charges);
+            } finally {
+                for (BlockingQueue<Chunk> queue : queues) {
+                    putUninterruptibly(queue, END);
+                }
+                executor.shutdown();
+            }
+            await(running);
+
+            return report(workers, counts[0], counts[1], charges.finish(), charges.versions, rerated, began);
+        }
+    }
+
+    /**
+     * Requests the charges of a time range from BRT.
+     *
+     * @param from The start of the range in unix time, inclusive.
+     * @param to   The end of the range in unix time, exclusive.
+     * @return The lines of the response, one JSON charge per line, to be closed by the caller.
+     * @throws RerateConflictException if BRT does not answer with the charges
+     */
+    private Stream<String> fetchCharges (long from, long to) {
+        String url = String.format("http://%s:%s%s%s%s?from=%d&to=%d", HOST, PORT, MS, BASE, CALL_CHARGES, from, to);
+        try {
+            HttpResponse<Stream<String>> response = serviceHttpClient.sendLines(serviceHttpClient.get(url));
+            if (response.statusCode() != 200) {
+                response.body().close();
+                throw new RerateConflictException("BRT responded to the charge request with status " + response.statusCode());
+            }
+            return response.body();
+        } catch (IOException e) {
+            throw new RerateConflictException("Charges cannot be read from BRT", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads the CDR batches, matches every record with its charge and hands the charged records
+     * to the workers by caller.
+     *
+     * @param in      The binary CDR batches.
+     * @param queues  The queues of the workers.
+     * @param charges The charges of the range.
+     * @return The number of records read and the number of records skipped for lack of a charge.
+     * @throws IOException if the stream cannot be read or is not a stream of CDR batches
+     */
+    private long[] read (InputStream in, List<BlockingQueue<Chunk>> queues, ChargeCursor charges) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, READ_BUFFER));
+        Chunk[] chunks = new Chunk[queues.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = new Chunk(CHUNK_SIZE);
+        }
+
+        byte[] batch = new byte[BinaryCDRFormat.HEADER_SIZE];
+        long records = 0;
+        long skipped = 0;
+
+        while (readHeader(data, batch)) {
+            int count;
+            try {
+                count = BinaryCDRFormat.recordCount(ByteBuffer.wrap(batch, 0, BinaryCDRFormat.HEADER_SIZE));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " at record " + records, e);
+            }
+            int size = BinaryCDRFormat.HEADER_SIZE + count * BinaryCDRFormat.RECORD_SIZE;
+            if (batch.length < size) {
+                batch = Arrays.copyOf(batch, size);
+            }
+            data.readFully(batch, BinaryCDRFormat.HEADER_SIZE, size - BinaryCDRFormat.HEADER_SIZE);
+
+            BinaryCDRReader reader = new BinaryCDRReader(ByteBuffer.wrap(batch, 0, size));
+            while (next(reader, records)) {
+                byte type = reader.getType();
+                long caller = reader.getCallerNumber();
+                long callee = reader.getCalleeNumber();
+                long start = reader.getStartTime();
+                long end = reader.getEndTime();
+                records++;
+
+                BillDTO charge = charges.match(caller, start);
+                if (charge == null) {
+                    skipped++;
+                    continue;
+                }
+
+                int worker = Math.floorMod(Long.hashCode(caller), chunks.length);
+                Chunk chunk = chunks[worker];
+                chunk.add(type, caller, callee, start, end - start, charge.getTariffId(),
+                        Money.of(charge.getToPay()).getUnits());
+                if (chunk.isFull()) {
+                    putUninterruptibly(queues.get(worker), chunk);
+                    chunks[worker] = new Chunk(CHUNK_SIZE);
+                }
+            }
+        }
+
+        for (int i = 0; i < chunks.length; i++) {
+            if (chunks[i].size > 0) {
+                putUninterruptibly(queues.get(i), chunks[i]);
+            }
+        }
+        return new long[] {records, skipped};
+    }
+
+    /**
+     * Moves the reader to the next record of the batch.
+     *
+     * @param reader  The reader of the batch.
+     * @param records The number of records read before the batch.
+     * @return True if there is a record, false at the end of the batch.
+     * @throws IOException if the record has an invalid call type
+     */
+    private boolean next (BinaryCDRReader reader, long records) throws IOException {
+        try {
+            return reader.next();
+        } catch (MalformedCDRException e) {
+            throw new IOException("Invalid CDR record at record " + (records + e.getLine()), e);
+        }
+    }
+
+    /**
+     * Reads the header of the next batch.
+     *
+     * @param data   The stream of batches.
+     * @param header The buffer for the batch, the header is read into its start.
+     * @return True if a header was read, false at the end of the stream.
+     * @throws IOException if the stream ends inside the header
+     */
+    private boolean readHeader (DataInputStream data, byte[] header) throws IOException {
+        int first = data.read();
+        if (first < 0) {
+            return false;
+        }
+        header[0] = (byte) first;
+        try {
+            data.readFully(header, 1, BinaryCDRFormat.HEADER_SIZE - 1);
+        } catch (EOFException e) {
+            throw new IOException("Truncated CDR batch header", e);
+        }
+        return true;
+    }
+
+    /**
+     * Waits for the workers and rethrows the first failure.
+     *
+     * @param running The futures of the workers.
+     */
+    private void await (List<Future<?>> running) {
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Re-rating failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Merges the results of the workers into the report.
+     *
+     * @param workers          The finished workers.
+     * @param records          The number of records read.
+     * @param skipped          The number of records without a charge.
+     * @param unmatchedCharges The number of charges without a record.
+     * @param chargedVersions  The tariff snapshot versions the calls were charged with.
+     * @param rerated          The snapshot the calls were re-rated with.
+     * @param began            The time the re-rating began, in nanoseconds.
+     * @return The report with the ledger sorted by phone number.
+     */
+    private RerateReportDTO report (List<Worker> workers, long records, long skipped, long unmatchedCharges,
+                                    Set<Long> chargedVersions, TariffSnapshot rerated, long began) {
+        List<LedgerEntryDTO> ledger = new ArrayList<>();
+        long subscribers = 0;
+        long totalDelta = 0;
+
+        for (Worker worker : workers) {
+            subscribers += worker.subscribers.size();
+            for (Map.Entry<Long, Subscriber> entry : worker.subscribers.entrySet()) {
+                Subscriber subscriber = entry.getValue();
+                long delta = subscriber.rerated - subscriber.charged;
+                if (delta == 0) {
+                    continue;
+                }
+                totalDelta += delta;
+                ledger.add(LedgerEntryDTO.builder()
+                        .phoneNumber(entry.getKey())
+                        .calls(subscriber.calls)
+                        .charged(toAmount(subscriber.charged))
+                        .rerated(toAmount(subscriber.rerated))
+                        .delta(toAmount(delta))
+                        .build());
+            }
+        }
+        ledger.sort(Comparator.comparing(LedgerEntryDTO::getPhoneNumber));
+
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - began);
+        log.info("Re-rated {} calls of {} subscribers in {} ms, {} skipped, {} charges unmatched, {} charges differ",
+                records - skipped, subscribers, elapsedMillis, skipped, unmatchedCharges, ledger.size());
+
+        return RerateReportDTO.builder()
+                .records(records)
+                .skipped(skipped)
+                .unmatchedCharges(unmatchedCharges)
+                .subscribers(subscribers)
+                .chargedTariffVersions(new ArrayList<>(chargedVersions))
+                .unknownTariffVersions(chargedVersions.stream().filter(version -> !tariffCache.isLoadedVersion(version)).toList())
+                .reratedTariffVersion(rerated.getVersion())
+                .elapsedMillis(elapsedMillis)
+                .totalDelta(toAmount(totalDelta))
+                .ledger(ledger)
+                .build();
+    }
+
+    /**
+     * Computes the UTC month of a time, counted continuously across years.
+     *
+     * @param epochSeconds The time in unix time.
+     * @return The month as {@code year * 12 + month - 1}.
+     */
+    private static long monthOf (long epochSeconds) {
+        LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(epochSeconds, 86400L));
+        return date.getYear() * 12L + date.getMonthValue() - 1;
+    }
+
+    /**
+     * Computes the start of the UTC month of a time.
+     *
+     * @param epochSeconds The time in unix time.
+     * @return The start of its month in unix time.
+     */
+    private static long monthStart (long epochSeconds) {
+        LocalDate date = LocalDate.ofEpochDay(Math.floorDiv(epochSeconds, 86400L));
+        return date.withDayOfMonth(1).toEpochDay() * 86400L;
+    }
+
+    /**
+     * Converts a count of the smallest currency unit to an amount.
+     *
+     * @param units The count of the smallest currency unit.
+     * @return The amount.
+     */
+    private static BigDecimal toAmount (long units) {
+        return BigDecimal.valueOf(units, Money.SCALE);
+    }
+
+    /**
+     * Puts a chunk into a worker queue, waiting while the queue is full.
+     *
+     * @param queue The queue of the worker.
+     * @param chunk The chunk to put.
+     */
+    private static void putUninterruptibly (BlockingQueue<Chunk> queue, Chunk chunk) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(chunk);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Calls handed to a worker with their charges, stored in primitive arrays.
+     */
+    private static final class Chunk {
+        private final byte[] types;
+        private final long[] callers;
+        private final long[] callees;
+        private final long[] starts;
+        private final long[] durations;
+        private final long[] tariffIds;
+        private final long[] charged;
+        private int size;
+
+        /**
+         * Constructor for Chunk.
+         *
+         * @param capacity The maximum number of calls.
+         */
+        private Chunk (int capacity) {
+            this.types = new byte[capacity];
+            this.callers = new long[capacity];
+            this.callees = new long[capacity];
+            this.starts = new long[capacity];
+            this.durations = new long[capacity];
+            this.tariffIds = new long[capacity];
+            this.charged = new long[capacity];
+        }
+
+        /**
+         * Adds a call.
+         *
+         * @param type     The binary call type.
+         * @param caller   The phone number of the caller.
+         * @param callee   The phone number of the other party.
+         * @param start    The start time of the call in unix time.
+         * @param duration The duration of the call in seconds.
+         * @param tariffId The tariff the call was charged with.
+         * @param amount   The charged amount as a count of the smallest currency unit.
+         */
+        private void add (byte type, long caller, long callee, long start, long duration, long tariffId, long amount) {
+            types[size] = type;
+            callers[size] = caller;
+            callees[size] = callee;
+            starts[size] = start;
+            durations[size] = duration;
+            tariffIds[size] = tariffId;
+            charged[size] = amount;
+            size++;
+        }
+
+        /**
+         * Checks whether the chunk cannot take more calls.
+         *
+         * @return True if the chunk is full.
+         */
+        private boolean isFull () {
+            return size == types.length;
+        }
+    }
+
+    /**
+     * Charges and package minutes of a subscriber during the re-rating.
+     */
+    private static final class Subscriber {
+        private final int[] allowance = new int[1];
+        private long tariffId;
+        private long month = Long.MIN_VALUE;
+        private long calls;
+        private long charged;
+        private long rerated;
+    }
+
+    /**
+     * Reader of the charges streamed by BRT, matching them with the calls by caller and start time.
+     * <p>
+     * Both streams are ordered by start time, so only the charges of the start time of the current call
+     * are kept, grouped by caller. Charges of a start time no call had are counted as unmatched.
+     */
+    private final class ChargeCursor {
+        private final Iterator<String> lines;
+        private final Map<Long, ArrayDeque<BillDTO>> window = new HashMap<>();
+        private final Set<Long> versions = new TreeSet<>();
+        private long windowTime = Long.MIN_VALUE;
+        private BillDTO pending;
+        private long unmatched;
+
+        /**
+         * Constructor for ChargeCursor.
+         *
+         * @param lines The lines of the charge stream.
+         */
+        private ChargeCursor (Iterator<String> lines) {
+            this.lines = lines;
+            this.pending = next();
+        }
+
+        /**
+         * Takes the charge of a call.
+         *
+         * @param caller The phone number of the caller.
+         * @param start  The start time of the call.
+         * @return The charge of the call, or null if the call was not charged.
+         */
+        private BillDTO match (long caller, long start) {
+            while (pending != null && pending.getStartTime() <= start) {
+                if (pending.getStartTime() != windowTime) {
+                    dropWindow();
+                    windowTime = pending.getStartTime();
+                }
+                window.computeIfAbsent(pending.getPhoneNumber(), key -> new ArrayDeque<>()).add(pending);
+                pending = next();
+            }
+            if (windowTime != start) {
+                dropWindow();
+                return null;
+            }
+            ArrayDeque<BillDTO> charges = window.get(caller);
+            return charges != null ? charges.poll() : null;
+        }
+
+        /**
+         * Counts the charges left after the last call as unmatched.
+         *
+         * @return The number of charges without a call.
+         */
+        private long finish () {
+            dropWindow();
+            while (pending != null) {
+                unmatched++;
+                pending = next();
+            }
+            return unmatched;
+        }
+
+        /**
+         * Counts the charges kept for a start time with no more calls as unmatched and forgets them.
+         */
+        private void dropWindow () {
+            for (ArrayDeque<BillDTO> charges : window.values()) {
+                unmatched += charges.size();
+            }
+            window.clear();
+        }
+
+        /**
+         * Reads the next charge of the stream.
+         *
+         * @return The charge, or null at the end of the stream.
+         */
+        private BillDTO next () {
+            while (hasNextLine()) {
+                String line = lines.next();
+                if (line.isBlank()) {
+                    continue;
+                }
+                BillDTO charge = gson.fromJson(line, BillDTO.class);
+                if (charge.getTariffVersion() != null) {
+                    versions.add(charge.getTariffVersion());
+                }
+                return charge;
+            }
+            return null;
+        }
+
+        /**
+         * Checks whether the charge stream has more lines.
+         *
+         * @return True if there is another line.
+         * @throws RerateConflictException if the stream breaks off
+         */
+        private boolean hasNextLine () {
+            try {
+                return lines.hasNext();
+            } catch (UncheckedIOException e) {
+                throw new RerateConflictException("Charges cannot be read from BRT", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Worker rating the calls of its callers with the current tariff snapshot.
+     */
+    private final class Worker implements Runnable {
+        private final BlockingQueue<Chunk> queue;
+        private final TariffSnapshot reratedSnapshot;
+        private final Map<Long, Subscriber> subscribers = new HashMap<>();
+
+        /**
+         * Constructor for Worker.
+         *
+         * @param queue           The queue of chunks of this worker.
+         * @param reratedSnapshot The snapshot the calls are re-rated with.
+         */
+        private Worker (BlockingQueue<Chunk> queue, TariffSnapshot reratedSnapshot) {
+            this.queue = queue;
+            this.reratedSnapshot = reratedSnapshot;
+        }
+
+        /**
+         * Rates the chunks until the end of the stream. After a failure the remaining chunks are
+         * drained, so the reader never waits for a stopped worker.
+         */
+        @Override
+        public void run () {
+            RuntimeException failure = null;
+            while (true) {
+                Chunk chunk;
+                try {
+                    chunk = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(e);
+                }
+                if (chunk == END) {
+                    break;
+                }
+                if (failure == null) {
+                    try {
+                        rate(chunk);
+                    } catch (RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+        /**
+         * Rates the calls of a chunk with the charged tariff of every call. The package of a caller is
+         * filled again at the start of a month and when the charged tariff changes.
+         *
+         * @param chunk The calls to rate.
+         */
+        private void rate (Chunk chunk) {
+            for (int i = 0; i < chunk.size; i++) {
+                Subscriber subscriber = subscribers.computeIfAbsent(chunk.callers[i], key -> new Subscriber());
+                TariffRates tariff = reratedSnapshot.get(chunk.tariffIds[i]);
+                long month = monthOf(chunk.starts[i]);
+                if (subscriber.month != month || subscriber.tariffId != chunk.tariffIds[i]) {
+                    subscriber.month = month;
+                    subscriber.tariffId = chunk.tariffIds[i];
+                    subscriber.allowance[0] = limit(tariff);
+                }
+
+                CallType callType = chunk.types[i] == BinaryCDRFormat.TYPE_INCOMING ? CallType.INCOMING : CallType.OUTCOMING;
+                subscriber.calls++;
+                subscriber.charged += chunk.charged[i];
+                subscriber.rerated += hrsService.rerateCall(callType, chunk.callees[i], chunk.durations[i],
+                        tariff, subscriber.allowance);
+            }
+        }
+
+        /**
+         * Returns the package minutes of a tariff.
+         *
+         * @param tariff The tariff, or null if it does not exist.
+         * @return The package minutes, 0 if the tariff has none.
+         */
+        private int limit (TariffRates tariff) {
+            return tariff != null && tariff.getMonthlyLimitMinutes() != null ? tariff.getMonthlyLimitMinutes() : 0;
+        }
+    }
+}
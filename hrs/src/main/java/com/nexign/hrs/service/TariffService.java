@@ -1,5 +1,6 @@
 package com.nexign.hrs.service;
 
+import com.nexign.hrs.cache.TariffCache;
 import com.nexign.hrs.dto.TariffDTO;
 import com.nexign.hrs.model.Tariff;
 import com.nexign.hrs.repository.TariffRepository;
@@ -15,6 +16,9 @@ public class TariffService {
     @Resource
     private TariffRepository tariffRepository;
 
+    @Resource
+    private TariffCache tariffCache;
+
     /**
      * Retrieves a tariff by its ID from the repository.
      *
@@ -25,6 +29,15 @@ public class TariffService {
         return tariffRepository.findById(tariffId).orElse(null);
     }
 
+    /**
+     * Reloads the tariffs from the repository into a new tariff snapshot used for rating.
+     *
+     * @return The version of the new tariff snapshot.
+     */
+    public long refreshTariffs () {
+        return tariffCache.refresh();
+    }
+
     /**
      * Maps a Tariff object to a TariffDTO object for data transfer.
      *
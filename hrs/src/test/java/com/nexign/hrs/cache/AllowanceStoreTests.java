@@ -0,0 +1,236 @@
+package com.nexign.hrs.cache;
+
+import com.nexign.hrs.journal.AllowanceJournal;
+import com.nexign.hrs.model.AllowanceUsage;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AllowanceStoreTests {
+
+    private static final long MSISDN = 79000000001L;
+    private static final long OTHER_MSISDN = 79000000002L;
+    private static final long TARIFF = 12L;
+    private static final long OTHER_TARIFF = 11L;
+    // Small segments, so the journal rolls to new segments during the tests.
+    private static final int SEGMENT_BYTES = 24 * 64;
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        dir = Files.createTempDirectory("allowance-journal");
+    }
+
+    @AfterEach
+    void tearDown () throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void concurrentConsumeNeverSpendsTheSameMinutesTwice () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 1000);
+
+        int threads = 8;
+        int callsPerThread = 200;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                int covered = 0;
+                for (int i = 0; i < callsPerThread; i++) {
+                    AllowanceUsage usage = store.consume(MSISDN, 1);
+                    assertEquals(1, usage.getCovered() + usage.getOverflow());
+                    covered += usage.getCovered();
+                }
+                return covered;
+            }));
+        }
+        start.countDown();
+        int covered = 0;
+        for (Future<Integer> result : results) {
+            covered += result.get();
+        }
+        executor.shutdown();
+
+        assertEquals(1000, covered);
+        assertEquals(0, store.getRemaining(MSISDN));
+        assertEquals(0, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void restoreReadsTheSnapshotAndTheChangesAfterIt () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 100);
+        store.checkpoint();
+        store.consume(MSISDN, 30);
+        store.consume(MSISDN, 20);
+
+        assertEquals(150, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void assignKeepsMinutesOnTheSameTariffAndResetsOnChange () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 100);
+        store.assign(MSISDN, TARIFF, 300);
+
+        assertEquals(200, store.getRemaining(MSISDN));
+
+        store.assign(MSISDN, OTHER_TARIFF, 50);
+
+        assertEquals(50, store.getRemaining(MSISDN));
+        assertEquals(50, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void removedCounterStaysRemovedAfterRestore () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 10);
+        store.remove(MSISDN);
+
+        assertEquals(0, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void counterAddedAgainAfterRemoveContinuesFromTheTombstone () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 10);
+        store.remove(MSISDN);
+        store.assign(MSISDN, TARIFF, 50);
+        store.consume(MSISDN, 5);
+
+        assertEquals(45, store.getRemaining(MSISDN));
+        assertEquals(45, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void counterAddedAgainAfterRestoredTombstoneContinuesFromIt () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 10);
+        store.remove(MSISDN);
+        store.checkpoint();
+
+        AllowanceStore restarted = restoredStore();
+        restarted.assign(MSISDN, TARIFF, 50);
+        restarted.checkpoint();
+
+        assertEquals(50, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void checkpointWithoutChangesKeepsTheSegmentAndTheSnapshot () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.checkpoint();
+        List<Path> files = files();
+
+        store.checkpoint();
+        store.checkpoint();
+
+        assertEquals(files, files());
+        assertEquals(300, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void tombstoneIsDroppedOnceNoRecordOfTheRemovedCounterIsLeft () throws Exception {
+        AllowanceStore store = restoredStore();
+        store.assign(MSISDN, TARIFF, 300);
+        store.consume(MSISDN, 10);
+        store.remove(MSISDN);
+        store.checkpoint();
+
+        assertEquals(1, tombstones(store).size());
+
+        store.assign(OTHER_MSISDN, TARIFF, 100);
+        store.checkpoint();
+
+        assertTrue(tombstones(store).isEmpty());
+
+        store.assign(MSISDN, TARIFF, 50);
+        store.consume(MSISDN, 5);
+
+        assertEquals(45, restoredStore().getRemaining(MSISDN));
+        store.checkpoint();
+        assertEquals(45, restoredStore().getRemaining(MSISDN));
+    }
+
+    @Test
+    void segmentsStartSmallAndGrowWhenFull () throws Exception {
+        AllowanceStore store = restoredStore(24 * 16384 * 4);
+        long first = Files.size(segments().get(0));
+
+        for (int i = 0; i <= 16384; i++) {
+            store.assign(MSISDN + i, TARIFF, 300);
+        }
+        List<Path> segments = segments();
+
+        assertEquals(24L * 16384, first);
+        assertEquals(2, segments.size());
+        assertEquals(24L * 16384 * 2, Files.size(segments.get(1)));
+    }
+
+    private List<Path> files () throws Exception {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.sorted().toList();
+        }
+    }
+
+    private List<Path> segments () throws Exception {
+        return files().stream().filter(path -> !path.getFileName().toString().contains("snapshot")).toList();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, ?> tombstones (AllowanceStore store) throws ReflectiveOperationException {
+        Field field = AllowanceStore.class.getDeclaredField("removedVersions");
+        field.setAccessible(true);
+        return (Map<Long, ?>) field.get(store);
+    }
+
+    private AllowanceStore restoredStore () throws Exception {
+        return restoredStore(SEGMENT_BYTES);
+    }
+
+    private AllowanceStore restoredStore (int segmentBytes) throws Exception {
+        AllowanceJournal journal = new AllowanceJournal();
+        inject(journal, "JOURNAL_DIR", dir.toString());
+        inject(journal, "SEGMENT_BYTES", segmentBytes);
+
+        AllowanceStore store = new AllowanceStore();
+        inject(store, "allowanceJournal", journal);
+        store.restore();
+        return store;
+    }
+
+    private static void inject (Object target, String name, Object value) throws ReflectiveOperationException {
+        Field field = target.getClass().getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(target, value);
+    }
+}
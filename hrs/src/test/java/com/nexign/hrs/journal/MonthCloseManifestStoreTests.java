@@ -0,0 +1,90 @@
+package com.nexign.hrs.journal;
+
+import com.nexign.hrs.model.MonthCloseManifest;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MonthCloseManifestStoreTests {
+
+    private static final String PERIOD = "2024-3";
+    private static final int CHUNK_SIZE = 2;
+
+    private Path dir;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        dir = Files.createTempDirectory("month-close");
+    }
+
+    @AfterEach
+    void tearDown () throws Exception {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    void manifestReadAfterRestartKeepsItsChunks () throws Exception {
+        MonthCloseManifest manifest = new MonthCloseManifest(CHUNK_SIZE);
+        manifest.add(79000000001L, new BigDecimal("100"));
+        manifest.add(79000000002L, new BigDecimal("100"));
+        manifest.add(79000000003L, new BigDecimal("100"));
+        manifest.seal();
+        manifest.add(79000000004L, new BigDecimal("150.5"));
+        manifest.seal();
+        newStore().save(PERIOD, manifest);
+
+        MonthCloseManifest restored = newStore().find(PERIOD, CHUNK_SIZE);
+
+        assertEquals(bills(manifest), bills(restored));
+        assertEquals(List.of("0:79000000001:100", "0:79000000002:100", "1:79000000003:100", "2:79000000004:150.5"),
+                bills(restored));
+    }
+
+    @Test
+    void clientsAddedAfterRestartGoIntoNewChunks () throws Exception {
+        MonthCloseManifest manifest = new MonthCloseManifest(CHUNK_SIZE);
+        manifest.add(79000000001L, new BigDecimal("100"));
+        manifest.seal();
+        newStore().save(PERIOD, manifest);
+
+        MonthCloseManifest restored = newStore().find(PERIOD, CHUNK_SIZE);
+        restored.add(79000000001L, new BigDecimal("100"));
+        restored.add(79000000002L, new BigDecimal("100"));
+        restored.seal();
+
+        assertEquals(List.of("0:79000000001:100", "1:79000000002:100"), bills(restored));
+    }
+
+    @Test
+    void unknownPeriodIsNotFound () throws Exception {
+        assertNull(newStore().find(PERIOD, CHUNK_SIZE));
+    }
+
+    private MonthCloseManifestStore newStore () throws ReflectiveOperationException {
+        MonthCloseManifestStore store = new MonthCloseManifestStore();
+        Field field = MonthCloseManifestStore.class.getDeclaredField("MANIFEST_DIR");
+        field.setAccessible(true);
+        field.set(store, dir.toString());
+        return store;
+    }
+
+    private static List<String> bills (MonthCloseManifest manifest) {
+        List<String> bills = new ArrayList<>();
+        manifest.forEach((chunkId, msisdn, toPay) -> bills.add(chunkId + ":" + msisdn + ":" + toPay.toPlainString()));
+        return bills;
+    }
+}
@@ -0,0 +1,59 @@
+package com.nexign.hrs.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class MoneyTests {
+
+    private static final String[] STEPS = {"0.01", "0.1", "0.07", "1", "2.5"};
+
+    @Test
+    void ceilToStepMatchesBigDecimalCeiling () {
+        for (String stepValue : STEPS) {
+            BigDecimal step = new BigDecimal(stepValue);
+            for (long units = -1000; units <= 1000; units++) {
+                BigDecimal amount = BigDecimal.valueOf(units, Money.SCALE);
+                BigDecimal expected = amount.divide(step, 0, RoundingMode.CEILING).multiply(step)
+                        .setScale(Money.SCALE, RoundingMode.UNNECESSARY);
+
+                BigDecimal actual = Money.of(amount).ceilToStep(Money.of(step)).toBigDecimal(Money.SCALE);
+
+                assertEquals(expected, actual, () -> amount + " rounded up to a multiple of " + step);
+            }
+        }
+    }
+
+    @Test
+    void billOfMinutesMatchesBigDecimalComputation () {
+        BigDecimal step = new BigDecimal("0.1");
+        for (String perMinute : new String[] {"0.5", "1.25", "1.5", "2.33", "0.07"}) {
+            for (int minutes = 1; minutes <= 120; minutes++) {
+                BigDecimal expected = new BigDecimal(perMinute).multiply(BigDecimal.valueOf(minutes))
+                        .divide(step, 0, RoundingMode.CEILING).multiply(step)
+                        .setScale(Money.SCALE, RoundingMode.UNNECESSARY);
+
+                BigDecimal actual = Money.of(new BigDecimal(perMinute)).multiply(minutes)
+                        .ceilToStep(Money.of(step)).toBigDecimal(Money.SCALE);
+
+                assertEquals(expected, actual, perMinute + " per minute for " + minutes + " minutes");
+            }
+        }
+    }
+
+    @Test
+    void ofRejectsAmountsFinerThanTheScale () {
+        assertThrows(ArithmeticException.class, () -> Money.of(new BigDecimal("0.005")));
+    }
+
+    @Test
+    void multiplyFailsOnOverflow () {
+        Money large = Money.of(BigDecimal.valueOf(Long.MAX_VALUE / 10, Money.SCALE));
+
+        assertThrows(ArithmeticException.class, () -> large.multiply(100));
+    }
+}
@@ -0,0 +1,173 @@
+package com.nexign.hrs.service;
+
+import com.google.gson.Gson;
+import com.nexign.common.cdr.BinaryCDRFormat;
+import com.nexign.common.http.ServiceHttpClient;
+import com.nexign.hrs.cache.TariffCache;
+import com.nexign.hrs.cache.TariffSnapshot;
+import com.nexign.hrs.dto.BillDTO;
+import com.nexign.hrs.dto.RerateReportDTO;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.net.ssl.SSLSession;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RerateServiceTests {
+
+    private static final long LOADED_VERSION = 5L;
+    private static final long UNKNOWN_VERSION = 1L;
+    private static final long CALLER = 79000000001L;
+    private static final long CALLEE = 79000000002L;
+    private static final long MONTH_START = LocalDate.of(2024, 3, 1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+
+    private final Gson gson = new Gson();
+    private final List<String> urls = new ArrayList<>();
+    private List<String> charges = List.of();
+    private RerateService service;
+
+    @BeforeEach
+    void setUp () throws Exception {
+        service = new RerateService();
+        inject("hrsService", new HRSService());
+        inject("tariffCache", new LoadedTariffCache());
+        inject("serviceHttpClient", new ChargeHttpClient());
+        inject("HOST", "localhost");
+        inject("WORKERS", 2);
+        inject("CHUNK_SIZE", 4);
+        inject("QUEUE_CAPACITY", 2);
+    }
+
+    @Test
+    void chargesOfAnUnknownVersionAreReportedInsteadOfRefused () throws Exception {
+        charges = List.of(charge(MONTH_START + 60, UNKNOWN_VERSION), charge(MONTH_START + 120, LOADED_VERSION));
+
+        RerateReportDTO report = service.rerate(calls(MONTH_START + 60, MONTH_START + 120), MONTH_START, MONTH_START + 86400);
+
+        assertEquals(2L, report.getRecords());
+        assertEquals(0L, report.getSkipped());
+        assertEquals(List.of(UNKNOWN_VERSION, LOADED_VERSION), report.getChargedTariffVersions());
+        assertEquals(List.of(UNKNOWN_VERSION), report.getUnknownTariffVersions());
+        assertEquals(LOADED_VERSION, report.getReratedTariffVersion());
+    }
+
+    @Test
+    void rangeStartingMidMonthIsRefused () {
+        assertThrows(IllegalArgumentException.class,
+                () -> service.rerate(calls(), MONTH_START + 86400, MONTH_START + 2 * 86400));
+
+        assertTrue(urls.isEmpty());
+    }
+
+    private String charge (long start, long version) {
+        return gson.toJson(BillDTO.builder().phoneNumber(CALLER).toPay(BigDecimal.ZERO).startTime(start)
+                .tariffId(11L).tariffVersion(version).build());
+    }
+
+    private static ByteArrayInputStream calls (long... starts) {
+        ByteBuffer buffer = ByteBuffer.allocate(BinaryCDRFormat.HEADER_SIZE + starts.length * BinaryCDRFormat.RECORD_SIZE);
+        BinaryCDRFormat.putHeader(buffer, starts.length);
+        for (long start : starts) {
+            BinaryCDRFormat.putRecord(buffer, BinaryCDRFormat.TYPE_OUTCOMING, CALLER, CALLEE, start, start + 30);
+        }
+        return new ByteArrayInputStream(buffer.array());
+    }
+
+    private void inject (String name, Object value) throws ReflectiveOperationException {
+        Field field = RerateService.class.getDeclaredField(name);
+        field.setAccessible(true);
+        field.set(service, value);
+    }
+
+    /**
+     * Holds an empty snapshot of the only version loaded by this instance.
+     */
+    private static final class LoadedTariffCache extends TariffCache {
+        private final TariffSnapshot snapshot = new TariffSnapshot(LOADED_VERSION, List.of());
+
+        @Override
+        public TariffSnapshot getSnapshot () {
+            return snapshot;
+        }
+
+        @Override
+        public boolean isLoadedVersion (long version) {
+            return version == LOADED_VERSION;
+        }
+    }
+
+    /**
+     * Answers the charge requests with the charges of the test.
+     */
+    private final class ChargeHttpClient extends ServiceHttpClient {
+        @Override
+        public HttpRequest get (String url) {
+            return HttpRequest.newBuilder(URI.create(url)).GET().build();
+        }
+
+        @Override
+        public HttpResponse<Stream<String>> sendLines (HttpRequest request) {
+            urls.add(request.uri().toString());
+            return new HttpResponse<>() {
+                @Override
+                public int statusCode () {
+                    return 200;
+                }
+
+                @Override
+                public HttpRequest request () {
+                    return request;
+                }
+
+                @Override
+                public Optional<HttpResponse<Stream<String>>> previousResponse () {
+                    return Optional.empty();
+                }
+
+                @Override
+                public HttpHeaders headers () {
+                    return HttpHeaders.of(Map.of(), (name, value) -> true);
+                }
+
+                @Override
+                public Stream<String> body () {
+                    return charges.stream();
+                }
+
+                @Override
+                public Optional<SSLSession> sslSession () {
+                    return Optional.empty();
+                }
+
+                @Override
+                public URI uri () {
+                    return request.uri();
+                }
+
+                @Override
+                public HttpClient.Version version () {
+                    return HttpClient.Version.HTTP_1_1;
+                }
+            };
+        }
+    }
+}